@@ -0,0 +1,122 @@
+package i5.httpServer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Pool of byte arrays shared by the request handlers of all servers.
+ *
+ * Buffers are handed out in sizes of powers of two between 1 KB and 1 MB. Larger
+ * buffers are allocated directly and not kept after their release. Only a limited
+ * number of buffers per size is kept, so that a burst of large requests does not
+ * pin its memory forever.
+ */
+
+final class BufferPool
+{
+
+	/** the smallest size class (1 KB) as power of two */
+	private static final int MIN_SHIFT = 10;
+
+	/** the largest pooled size class (1 MB) as power of two */
+	private static final int MAX_SHIFT = 20;
+
+	/** maximal number of kept buffers per size class */
+	private static final int MAX_POOLED = 32;
+
+
+	private static final BufferPool shared = new BufferPool ();
+
+
+	private ConcurrentLinkedQueue<byte[]>[] queues;
+
+	private AtomicInteger[] counts;
+
+
+	/**
+	 * returns the pool shared by all servers
+	 *
+	 * @return   a BufferPool
+	 *
+	 */
+	static BufferPool getShared () {
+		return shared;
+	}
+
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	BufferPool () {
+		queues = new ConcurrentLinkedQueue[ MAX_SHIFT - MIN_SHIFT + 1 ];
+		counts = new AtomicInteger[ queues.length ];
+
+		for ( int i = 0; i < queues.length; i++ ) {
+			queues[i] = new ConcurrentLinkedQueue<byte[]> ();
+			counts[i] = new AtomicInteger ( 0 );
+		}
+	}
+
+
+	/**
+	 * returns a buffer with at least the given size
+	 *
+	 * @param    size                an int
+	 *
+	 * @return   a byte[]
+	 *
+	 */
+	byte[] acquire ( int size ) {
+		int iClass = sizeClass ( size );
+		if ( iClass < 0 )
+			return new byte[ size ];
+
+		byte[] result = queues[iClass].poll();
+		if ( result == null )
+			return new byte[ 1 << ( iClass + MIN_SHIFT ) ];
+
+		counts[iClass].decrementAndGet();
+		return result;
+	}
+
+
+	/**
+	 * hands a buffer back to the pool, it must not be used afterwards
+	 *
+	 * @param    buffer              a  byte[]
+	 *
+	 */
+	void release ( byte[] buffer ) {
+		int iClass = sizeClass ( buffer.length );
+		if ( iClass < 0 || buffer.length != 1 << ( iClass + MIN_SHIFT ) )
+			return;
+
+		if ( counts[iClass].incrementAndGet() > MAX_POOLED ) {
+			counts[iClass].decrementAndGet();
+			return;
+		}
+
+		queues[iClass].offer ( buffer );
+	}
+
+
+	/**
+	 * returns the index of the smallest size class holding the given size
+	 * or -1, if the size is not pooled
+	 *
+	 * @param    size                an int
+	 *
+	 * @return   an int
+	 *
+	 */
+	private static int sizeClass ( int size ) {
+		if ( size > 1 << MAX_SHIFT )
+			return -1;
+
+		int iShift = MIN_SHIFT;
+		while ( 1 << iShift < size )
+			iShift ++;
+
+		return iShift - MIN_SHIFT;
+	}
+
+}
@@ -0,0 +1,223 @@
+package i5.httpServer;
+
+
+/**
+ * Resumable decoder of the framing of a content sent with
+ * <code>Transfer-Encoding: chunked</code>.
+ *
+ * The decoder consumes the chunk size lines, the line breaks following the chunk
+ * data and the trailer fields. It stops in front of the data of each chunk and
+ * reports the number of data bytes following ({@link #getChunkRemaining}); the
+ * caller takes the data itself and reports it via {@link #dataRead}. Thus the data
+ * is never copied by the decoder.
+ *
+ * Syntax errors do not throw exceptions, the decoder stops at the error and
+ * provides a message via {@link #getError}.
+ */
+
+final class ChunkedDecoder
+{
+
+	/** reading the hexadecimal size of the next chunk */
+	private static final int STATE_SIZE = 0;
+
+	/** skipping chunk extensions up to the end of the size line */
+	private static final int STATE_EXTENSION = 1;
+
+	/** inside the data of a chunk */
+	private static final int STATE_DATA = 2;
+
+	/** expecting the line break following the data of a chunk */
+	private static final int STATE_DATA_END = 3;
+
+	/** reading the trailer fields following the last chunk */
+	private static final int STATE_TRAILER = 4;
+
+	/** the content has been read completely (or an error has occured) */
+	private static final int STATE_COMPLETE = 5;
+
+
+	private int iState = STATE_SIZE;
+
+	private long lChunkRemaining = 0;
+
+	private int iDigits = 0;
+
+	private HttpRequestParser trailerParser = null;
+
+	private HeaderFields trailer = null;
+
+	private String sError = null;
+
+
+	/**
+	 * parses the framing bytes in the given range
+	 *
+	 * @param    b                   a  byte[]
+	 * @param    off                 index of the first byte to parse
+	 * @param    len                 number of bytes available
+	 *
+	 * @return   the number of consumed bytes, the parsing stops in front of
+	 *           chunk data and at the end of the content
+	 *
+	 */
+	int parse ( byte[] b, int off, int len ) {
+		int iPos = off;
+		int iEnd = off + len;
+
+		while ( iPos < iEnd && iState != STATE_COMPLETE ) {
+			if ( iState == STATE_DATA )
+				return iPos - off;
+
+			if ( iState == STATE_TRAILER ) {
+				iPos += trailerParser.parse ( b, iPos, iEnd - iPos );
+				if ( trailerParser.isComplete() ) {
+					if ( trailerParser.getError() != null )
+						fail ( "Malformed trailer: " + trailerParser.getError() );
+					else {
+						trailer = trailerParser.getHeaderFields();
+						iState = STATE_COMPLETE;
+					}
+				}
+				continue;
+			}
+
+			byte c = b[iPos++];
+
+			switch ( iState ) {
+				case STATE_SIZE:
+					int iDigit = hexValue ( c );
+					if ( iDigit >= 0 ) {
+						if ( ++ iDigits > 15 ) {
+							fail ( "Chunk size is too large!" );
+							break;
+						}
+						lChunkRemaining = lChunkRemaining * 16 + iDigit;
+					} else if ( iDigits == 0 )
+						fail ( "Chunk size line does not start with a hexadecimal number!" );
+					else if ( c == '\n' )
+						endSizeLine ();
+					else
+						iState = STATE_EXTENSION;
+					break;
+
+				case STATE_EXTENSION:
+					if ( c == '\n' )
+						endSizeLine ();
+					break;
+
+				case STATE_DATA_END:
+					if ( c == '\n' )
+						iState = STATE_SIZE;
+					else if ( c != '\r' )
+						fail ( "Chunk data is not followed by a line break!" );
+					break;
+			}
+		}
+
+		return iPos - off;
+	}
+
+
+	/**
+	 * reports data bytes of the current chunk taken by the caller
+	 *
+	 * @param    count               an int
+	 *
+	 */
+	void dataRead ( long count ) {
+		lChunkRemaining -= count;
+
+		if ( lChunkRemaining <= 0 ) {
+			lChunkRemaining = 0;
+			iState = STATE_DATA_END;
+		}
+	}
+
+
+	/**
+	 * returns the number of data bytes of the current chunk, which directly
+	 * follow the consumed bytes
+	 *
+	 * @return   a long
+	 *
+	 */
+	long getChunkRemaining () {
+		return iState == STATE_DATA ? lChunkRemaining : 0;
+	}
+
+
+	/**
+	 * has the last chunk including the trailer been read (or has an error occured)?
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	boolean isComplete () {
+		return iState == STATE_COMPLETE;
+	}
+
+
+	/**
+	 * returns the description of the syntax error in the framing or null
+	 *
+	 * @return   a String
+	 *
+	 */
+	String getError () {
+		return sError;
+	}
+
+
+	/**
+	 * returns the trailer fields or null, if the content has not been read completely
+	 *
+	 * @return   a HeaderFields
+	 *
+	 */
+	HeaderFields getTrailer () {
+		return trailer;
+	}
+
+
+	/**
+	 * the size line is complete, continue with the data or the trailer
+	 *
+	 */
+	private void endSizeLine () {
+		iDigits = 0;
+
+		if ( lChunkRemaining > 0 )
+			iState = STATE_DATA;
+		else {
+			// last chunk
+			trailerParser = new HttpRequestParser ();
+			trailerParser.resetForTrailer();
+			iState = STATE_TRAILER;
+		}
+	}
+
+
+	/**
+	 * stops decoding because of a syntax error
+	 *
+	 * @param    message             a  String
+	 *
+	 */
+	private void fail ( String message ) {
+		sError = message;
+		iState = STATE_COMPLETE;
+	}
+
+
+	private static int hexValue ( byte c ) {
+		if ( c >= '0' && c <= '9' )
+			return c - '0';
+		if ( c >= 'a' && c <= 'f' )
+			return c - 'a' + 10;
+		if ( c >= 'A' && c <= 'F' )
+			return c - 'A' + 10;
+		return -1;
+	}
+
+}
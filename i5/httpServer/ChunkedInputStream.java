@@ -0,0 +1,188 @@
+package i5.httpServer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * InputStream delivering the decoded content of a single request sent with
+ * <code>Transfer-Encoding: chunked</code> from the connection's input.
+ *
+ * The content is decoded while it is read, it is never held completely in memory.
+ * Reading stops after the last chunk and its trailer, so that a following
+ * (pipelined) request on the same connection is neither consumed nor corrupted.
+ */
+
+class ChunkedInputStream extends ContentInputStream
+{
+
+	private InputStream in;
+
+	private ChunkedDecoder decoder = new ChunkedDecoder ();
+
+	private byte[] single = new byte[ 1 ];
+
+	private long lMaxLength;
+
+	private long lDecoded = 0;
+
+	private boolean bTooLarge = false;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param    in                  the input of the connection
+	 * @param    maxLength           the maximal number of content bytes
+	 *
+	 */
+	ChunkedInputStream ( InputStream in, long maxLength ) {
+		super ( in, 0 );
+		this.in = in;
+		this.lMaxLength = maxLength;
+	}
+
+
+	/**
+	 * returns the number of data bytes of the current chunk not read yet
+	 *
+	 * @return   a long
+	 *
+	 */
+	long getRemaining () {
+		return decoder.getChunkRemaining();
+	}
+
+
+	/**
+	 * returns the trailer fields or null, if the content has not been read completely
+	 *
+	 * @return   a HeaderFields
+	 *
+	 */
+	HeaderFields getTrailer () {
+		return decoder.getTrailer();
+	}
+
+
+	/**
+	 * has the content been rejected for exceeding the maximal length?
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	boolean isTooLarge () {
+		return bTooLarge;
+	}
+
+
+	/**
+	 * reports data bytes taken from the connection
+	 *
+	 * @param    count               a long
+	 *
+	 */
+	private void dataRead ( long count ) {
+		decoder.dataRead ( count );
+		lDecoded += count;
+	}
+
+
+	/**
+	 * reads the framing up to the next chunk data
+	 *
+	 * @return   false at the end of the content
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	private boolean nextData () throws IOException {
+		while ( ! decoder.isComplete() && decoder.getChunkRemaining() == 0 ) {
+			int iRead = in.read();
+			if ( iRead < 0 )
+				throw new EOFException ( "Content stream has ended before the last chunk has been received!" );
+
+			single[0] = (byte) iRead;
+			decoder.parse ( single, 0, 1 );
+		}
+
+		if ( decoder.getError() != null )
+			throw new IOException ( decoder.getError() );
+
+		// a chunk exceeding the limit is rejected before its data is read
+		if ( lDecoded + decoder.getChunkRemaining() > lMaxLength ) {
+			bTooLarge = true;
+			throw new IOException ( "Chunked content exceeds the limit of " + lMaxLength + " bytes!" );
+		}
+
+		return ! decoder.isComplete();
+	}
+
+
+	public int read () throws IOException {
+		if ( ! nextData() )
+			return -1;
+
+		int iRead = in.read();
+		if ( iRead < 0 )
+			throw new EOFException ( "Content stream has ended inside of a chunk!" );
+
+		dataRead ( 1 );
+		return iRead;
+	}
+
+
+	public int read ( byte[] b, int off, int len ) throws IOException {
+		if ( len == 0 )
+			return 0;
+		if ( ! nextData() )
+			return -1;
+
+		int iRead = in.read ( b, off, (int) Math.min ( len, decoder.getChunkRemaining() ) );
+		if ( iRead < 0 )
+			throw new EOFException ( "Content stream has ended inside of a chunk!" );
+
+		dataRead ( iRead );
+		return iRead;
+	}
+
+
+	public int available () throws IOException {
+		return (int) Math.min ( in.available(), decoder.getChunkRemaining() );
+	}
+
+
+	/**
+	 * skips the rest of the content, as long as its data does not exceed the
+	 * given limit
+	 *
+	 * @param    limit               the maximal number of content bytes to skip
+	 *
+	 * @return   false, if the rest of the content exceeds the limit
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	boolean drain ( long limit ) throws IOException {
+		long lLeft = limit;
+		while ( nextData() ) {
+			// the size of a chunk is known before its data is read
+			if ( decoder.getChunkRemaining() > lLeft )
+				return false;
+
+			long lSkipped = in.skip ( decoder.getChunkRemaining() );
+			if ( lSkipped <= 0 ) {
+				if ( read() < 0 )
+					break;
+				lLeft --;
+			} else {
+				dataRead ( lSkipped );
+				lLeft -= lSkipped;
+			}
+		}
+
+		return true;
+	}
+
+}
@@ -0,0 +1,92 @@
+package i5.httpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * OutputStream writing the content of a streamed response with
+ * <code>Transfer-Encoding: chunked</code> to the connection's output.
+ *
+ * Every write becomes a single chunk, so the content should be written in
+ * blocks (as {@link HttpResponseImpl} does) rather than byte by byte. Closing
+ * the stream writes the last chunk, the connection itself stays open for
+ * further requests.
+ */
+
+class ChunkedOutputStream extends OutputStream
+{
+
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+
+	private OutputStream out;
+
+	/* chunk size line: up to 16 hex digits and CRLF */
+	private byte[] sizeLine = new byte[ 18 ];
+
+	private boolean bClosed = false;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param    out                 the output of the connection
+	 *
+	 */
+	ChunkedOutputStream ( OutputStream out ) {
+		this.out = out;
+	}
+
+
+	public void write ( int b ) throws IOException {
+		write ( new byte[] { (byte) b }, 0, 1 );
+	}
+
+
+	public void write ( byte[] b, int off, int len ) throws IOException {
+		if ( bClosed )
+			throw new IOException ( "Content has already been completed!" );
+		// an empty chunk would end the content
+		if ( len == 0 )
+			return;
+
+		int iPos = sizeLine.length - 2;
+		sizeLine[iPos] = '\r';
+		sizeLine[iPos + 1] = '\n';
+		int iSize = len;
+		do {
+			sizeLine[--iPos] = HEX[iSize & 0xf];
+			iSize >>>= 4;
+		} while ( iSize != 0 );
+
+		out.write ( sizeLine, iPos, sizeLine.length - iPos );
+		out.write ( b, off, len );
+		out.write ( CRLF );
+	}
+
+
+	public void flush () throws IOException {
+		out.flush();
+	}
+
+
+	/**
+	 * writes the last chunk (without trailer), the connection's output is not closed
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	public void close () throws IOException {
+		if ( bClosed )
+			return;
+		bClosed = true;
+
+		out.write ( LAST_CHUNK );
+	}
+
+}
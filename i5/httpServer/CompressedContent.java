@@ -0,0 +1,30 @@
+package i5.httpServer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * interface of a shared response content, which keeps its compressed forms.
+ *
+ * A content set by {@link HttpResponseImpl#setBufferContent(ByteBuffer, CompressedContent)}
+ * (e.g. a cached file) is sent to many clients. Instead of compressing it for every
+ * response, the server takes the compressed form of the coding it has selected,
+ * which is computed once.
+ *
+ */
+interface CompressedContent
+{
+
+	/**
+	 * returns the content compressed with the given coding
+	 *
+	 * @param    coding              the content coding, "gzip" or "deflate"
+	 *
+	 * @return   a ByteBuffer with its own position, which must not be changed
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	public ByteBuffer getCompressed ( String coding ) throws IOException;
+
+}
@@ -0,0 +1,317 @@
+package i5.httpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+
+/**
+ * OutputStream compressing the content of a response with
+ * <code>Content-Encoding: gzip</code> or <code>deflate</code> while it is written.
+ *
+ * The Deflater is taken from the {@link DeflaterPool} and produces raw deflate
+ * data, the gzip or zlib header and trailer are written by the stream itself.
+ * Flushing the stream sends everything written so far (sync flush), so that a
+ * streamed response still reaches the client in time. {@link #finish} completes
+ * the compressed content without closing the underlying stream and hands the
+ * Deflater back to the pool.
+ */
+
+class CompressingOutputStream extends OutputStream
+{
+
+	/** the compression level, a good compromise of speed and size */
+	static final int DEFAULT_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+	/** size of the compressed blocks written to the underlying stream */
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	/* no flags, no modification time, unknown operating system */
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	/* deflate with 32K window, default compression, (0x789c % 31 == 0) */
+	private static final byte[] ZLIB_HEADER = { 0x78, (byte) 0x9c };
+
+
+	private OutputStream out;
+
+	private boolean bGzip;
+
+	private Deflater deflater;
+
+	private Checksum checksum;
+
+	private byte[] buffer;
+
+	private long lInput = 0;
+
+	private boolean bHeaderWritten = false;
+
+	/* input has been given to the deflater since the last flush */
+	private boolean bPending = false;
+
+	private boolean bFinished = false;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param    out                 the stream to write the compressed content to
+	 * @param    coding              the content coding, "gzip" or "deflate"
+	 * @param    level               the compression level (0-9 or -1 for the default)
+	 *
+	 */
+	CompressingOutputStream ( OutputStream out, String coding, int level ) {
+		this.out = out;
+		this.bGzip = ! "deflate".equals ( coding );
+		this.checksum = bGzip ? (Checksum) new CRC32 () : new Adler32 ();
+		this.deflater = DeflaterPool.getShared().acquire ( level );
+		this.buffer = BufferPool.getShared().acquire ( BUFFER_SIZE );
+	}
+
+
+	/**
+	 * selects the content coding of a response by the Accept-Encoding field of the
+	 * request, gzip is preferred to deflate with the same quality
+	 *
+	 * @param    acceptEncoding      the value of the Accept-Encoding field or null
+	 *
+	 * @return   "gzip", "deflate" or null, if the content is sent uncompressed
+	 *
+	 */
+	static String selectCoding ( String acceptEncoding ) {
+		if ( acceptEncoding == null )
+			return null;
+
+		float fGzip = getQuality ( acceptEncoding, "gzip" );
+		float fDeflate = getQuality ( acceptEncoding, "deflate" );
+
+		if ( fGzip <= 0 && fDeflate <= 0 )
+			return null;
+
+		return fGzip >= fDeflate ? "gzip" : "deflate";
+	}
+
+
+	/**
+	 * returns the quality, with which a content coding is accepted
+	 *
+	 * @param    acceptEncoding      the value of the Accept-Encoding field or null
+	 * @param    coding              "gzip" (including "x-gzip") or "deflate"
+	 *
+	 * @return   the quality value, 0 if the coding is not accepted
+	 *
+	 */
+	static float getQuality ( String acceptEncoding, String coding ) {
+		if ( acceptEncoding == null )
+			return 0;
+
+		boolean bGzip = coding.equals ( "gzip" );
+		float fAny = 0;
+
+		int iStart = 0;
+		while ( iStart < acceptEncoding.length() ) {
+			int iEnd = acceptEncoding.indexOf ( ',', iStart );
+			if ( iEnd < 0 )
+				iEnd = acceptEncoding.length();
+
+			String sElement = acceptEncoding.substring ( iStart, iEnd );
+			iStart = iEnd + 1;
+
+			int iParams = sElement.indexOf ( ';' );
+			String sCoding = ( iParams < 0 ? sElement : sElement.substring ( 0, iParams ) ).trim().toLowerCase ( Locale.ENGLISH );
+			float fQuality = iParams < 0 ? 1 : parseQuality ( sElement.substring ( iParams + 1 ) );
+
+			if ( sCoding.equals ( coding ) || ( bGzip && sCoding.equals ( "x-gzip" ) ) )
+				return fQuality;
+
+			// codings, which are not listed, are covered by "*"
+			if ( sCoding.equals ( "*" ) )
+				fAny = fQuality;
+		}
+
+		return fAny;
+	}
+
+
+	/**
+	 * returns the quality value of the parameters of an Accept-Encoding element
+	 *
+	 * @param    params              the parameters after the first ';'
+	 *
+	 * @return   the value of q, 1 if it is missing, 0 if it is invalid
+	 *
+	 */
+	private static float parseQuality ( String params ) {
+		int iStart = 0;
+		while ( iStart < params.length() ) {
+			int iEnd = params.indexOf ( ';', iStart );
+			if ( iEnd < 0 )
+				iEnd = params.length();
+
+			String sParam = params.substring ( iStart, iEnd ).trim();
+			iStart = iEnd + 1;
+
+			if ( sParam.length() < 2 || Character.toLowerCase ( sParam.charAt ( 0 ) ) != 'q' )
+				continue;
+
+			String sValue = sParam.substring ( 1 ).trim();
+			if ( ! sValue.startsWith ( "=" ) )
+				continue;
+
+			try {
+				return Float.parseFloat ( sValue.substring ( 1 ).trim() );
+			} catch ( NumberFormatException e ) {
+				return 0;
+			}
+		}
+
+		return 1;
+	}
+
+
+	public void write ( int b ) throws IOException {
+		write ( new byte[] { (byte) b }, 0, 1 );
+	}
+
+
+	public void write ( byte[] b, int off, int len ) throws IOException {
+		if ( bFinished )
+			throw new IOException ( "Content has already been completed!" );
+		if ( len == 0 )
+			return;
+
+		writeHeader ();
+
+		checksum.update ( b, off, len );
+		lInput += len;
+		bPending = true;
+
+		deflater.setInput ( b, off, len );
+		while ( ! deflater.needsInput() )
+			deflate ( Deflater.NO_FLUSH );
+	}
+
+
+	/**
+	 * writes the compressed data available so far
+	 *
+	 * @param    flush               the flush mode of the Deflater
+	 *
+	 * @return   the number of bytes written
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	private int deflate ( int flush ) throws IOException {
+		int iLength = deflater.deflate ( buffer, 0, buffer.length, flush );
+		if ( iLength > 0 )
+			out.write ( buffer, 0, iLength );
+		return iLength;
+	}
+
+
+	/**
+	 * writes the gzip or zlib header before the first compressed data
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	private void writeHeader () throws IOException {
+		if ( bHeaderWritten )
+			return;
+
+		bHeaderWritten = true;
+		out.write ( bGzip ? GZIP_HEADER : ZLIB_HEADER );
+	}
+
+
+	/**
+	 * compresses and writes all content written so far, the compression ratio
+	 * suffers from frequent flushes
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	public void flush () throws IOException {
+		if ( bPending && ! bFinished ) {
+			bPending = false;
+			// a full buffer may be followed by further data
+			while ( deflate ( Deflater.SYNC_FLUSH ) == buffer.length )
+				;
+		}
+
+		out.flush();
+	}
+
+
+	/**
+	 * completes the compressed content with the trailer, the underlying stream is
+	 * not closed
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	public void finish () throws IOException {
+		if ( bFinished )
+			return;
+
+		try {
+			writeHeader ();
+
+			deflater.finish();
+			while ( ! deflater.finished() )
+				deflate ( Deflater.NO_FLUSH );
+
+			long lChecksum = checksum.getValue();
+			byte[] trailer;
+			if ( bGzip ) {
+				// CRC-32 and size modulo 2^32, little endian
+				trailer = new byte[] {
+					(byte) lChecksum, (byte) ( lChecksum >> 8 ), (byte) ( lChecksum >> 16 ), (byte) ( lChecksum >> 24 ),
+					(byte) lInput, (byte) ( lInput >> 8 ), (byte) ( lInput >> 16 ), (byte) ( lInput >> 24 ) };
+			} else {
+				// Adler-32, big endian
+				trailer = new byte[] {
+					(byte) ( lChecksum >> 24 ), (byte) ( lChecksum >> 16 ), (byte) ( lChecksum >> 8 ), (byte) lChecksum };
+			}
+			out.write ( trailer );
+		} finally {
+			release ();
+		}
+	}
+
+
+	/**
+	 * hands the Deflater and the buffer back to the pools without completing the
+	 * content, e.g. after the response has been aborted
+	 *
+	 */
+	void release () {
+		bFinished = true;
+
+		if ( deflater != null )
+			DeflaterPool.getShared().release ( deflater );
+		deflater = null;
+
+		if ( buffer != null )
+			BufferPool.getShared().release ( buffer );
+		buffer = null;
+	}
+
+
+	/**
+	 * completes the compressed content, the underlying stream is not closed
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	public void close () throws IOException {
+		finish ();
+	}
+
+}
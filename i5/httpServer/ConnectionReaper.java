@@ -0,0 +1,195 @@
+package i5.httpServer;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Hashed timer wheel reaping connections, whose clients do not deliver their
+ * requests in time.
+ *
+ * All connections of a server share a single wheel and thread. A deadline is put
+ * into the slot of its tick in constant time and the thread only looks at the slot
+ * of the current tick, so that neither a timer per connection nor a scan of all
+ * connections is needed. The deadlines themselves are kept and checked by the
+ * {@link ConnectionWatch} of each connection.
+ */
+
+class ConnectionReaper implements Runnable
+{
+
+	/** duration of a single tick of the wheel in ms */
+	static final int TICK = 100;
+
+	/** number of slots of the wheel, later deadlines take several rounds */
+	private static final int WHEEL_SIZE = 512;
+
+
+	/* doubly linked lists of the scheduled watches per slot */
+	private ConnectionWatch[] slots = new ConnectionWatch[ WHEEL_SIZE ];
+
+	private long lStart = now();
+
+	/* the last processed tick */
+	private long lTick = 0;
+
+	private AtomicLong alReaped = new AtomicLong ( 0 );
+
+	private volatile boolean bStopped = false;
+
+	private Thread thread = null;
+
+
+	/**
+	 * returns the current time in ms of the monotonic clock used for all deadlines
+	 *
+	 * @return   a long
+	 *
+	 */
+	static long now () {
+		return System.nanoTime() / 1000000L;
+	}
+
+
+	/**
+	 * starts the thread of the wheel
+	 *
+	 * @param    name                the name of the thread
+	 *
+	 */
+	void start ( String name ) {
+		thread = new Thread ( this, name );
+		thread.setDaemon ( true );
+		thread.start();
+	}
+
+
+	/**
+	 * stops the thread of the wheel
+	 *
+	 */
+	void stop () {
+		bStopped = true;
+		if ( thread != null )
+			thread.interrupt();
+	}
+
+
+	/**
+	 * (re)schedules the check of a watch
+	 *
+	 * @param    watch               a  ConnectionWatch
+	 * @param    time                the time of the check according to {@link #now}
+	 *
+	 */
+	synchronized void schedule ( ConnectionWatch watch, long time ) {
+		unlink ( watch );
+
+		long lDue = ( time - lStart + TICK - 1 ) / TICK;
+		if ( lDue <= lTick )
+			lDue = lTick + 1;
+
+		int iSlot = (int) ( lDue % WHEEL_SIZE );
+		watch.lDueTick = lDue;
+		watch.iSlot = iSlot;
+		watch.next = slots[iSlot];
+		if ( slots[iSlot] != null )
+			slots[iSlot].prev = watch;
+		slots[iSlot] = watch;
+	}
+
+
+	/**
+	 * removes a watch from the wheel
+	 *
+	 * @param    watch               a  ConnectionWatch
+	 *
+	 */
+	synchronized void cancel ( ConnectionWatch watch ) {
+		unlink ( watch );
+	}
+
+
+	private void unlink ( ConnectionWatch watch ) {
+		if ( watch.iSlot < 0 )
+			return;
+
+		if ( watch.prev != null )
+			watch.prev.next = watch.next;
+		else
+			slots[watch.iSlot] = watch.next;
+		if ( watch.next != null )
+			watch.next.prev = watch.prev;
+
+		watch.prev = null;
+		watch.next = null;
+		watch.iSlot = -1;
+	}
+
+
+	/**
+	 * counts a reaped connection
+	 *
+	 */
+	void countReaped () {
+		alReaped.incrementAndGet();
+	}
+
+
+	/**
+	 * returns the number of connections reaped so far
+	 *
+	 * @return   a long
+	 *
+	 */
+	long getReapedCount () {
+		return alReaped.get();
+	}
+
+
+	/**
+	 * turns the wheel: the watches of each passing tick are checked outside of the
+	 * lock, so that scheduling connections never wait for a reaped one to close
+	 *
+	 */
+	public void run () {
+		ArrayList<ConnectionWatch> alDue = new ArrayList<ConnectionWatch> ();
+
+		while ( ! bStopped ) {
+			long lSleep = lStart + ( lTick + 1 ) * TICK - now();
+			if ( lSleep > 0 ) {
+				try {
+					Thread.sleep ( lSleep );
+				} catch ( InterruptedException e ) {
+				}
+				continue;
+			}
+
+			synchronized ( this ) {
+				lTick ++;
+
+				ConnectionWatch watch = slots[(int) ( lTick % WHEEL_SIZE )];
+				while ( watch != null ) {
+					ConnectionWatch next = watch.next;
+					// watches of later rounds stay in the slot
+					if ( watch.lDueTick <= lTick ) {
+						unlink ( watch );
+						alDue.add ( watch );
+					}
+					watch = next;
+				}
+			}
+
+			long lNow = now();
+			for ( int i = 0; i < alDue.size(); i++ ) {
+				try {
+					alDue.get ( i ).expired ( lNow );
+				} catch ( RuntimeException e ) {
+					ErrorLog.log ( "Exception while closing an expired connection:", e );
+				}
+			}
+			alDue.clear();
+		}
+	}
+
+}
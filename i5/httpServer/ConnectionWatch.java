@@ -0,0 +1,201 @@
+package i5.httpServer;
+
+
+/**
+ * Deadlines of a single connection while it is waiting for its client.
+ *
+ * The header of a request has to be received completely within the header timeout.
+ * While the content is received, the client has to keep up a minimal transfer rate:
+ * after a grace period every further second of waiting has to be paid with the given
+ * number of bytes. Only the time spent waiting for the client is counted, not the time
+ * a request handler spends between its reads of the content.
+ *
+ * A connection missing a deadline is reaped by the {@link ConnectionReaper} via
+ * {@link #reap}.
+ */
+
+abstract class ConnectionWatch
+{
+
+	private static final int PHASE_NONE = 0;
+	private static final int PHASE_HEADER = 1;
+	private static final int PHASE_CONTENT = 2;
+
+
+	/* position in the wheel, guarded by the reaper */
+	ConnectionWatch prev = null;
+	ConnectionWatch next = null;
+	int iSlot = -1;
+	long lDueTick = 0;
+
+	private ConnectionReaper reaper;
+
+	private int iHeaderTimeout;
+	private int iMinContentRate;
+	private int iContentRateGrace;
+
+	private int iPhase = PHASE_NONE;
+	private long lPhaseStart = 0;
+
+	/* bytes of the content received and time spent waiting for them */
+	private long lContentBytes = 0;
+	private long lWaited = 0;
+	private long lReadStart = -1;
+
+	private boolean bReaped = false;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param    reaper              the wheel checking the deadlines
+	 * @param    headerTimeout       time in ms to receive a header, 0 for no limit
+	 * @param    minContentRate      minimal rate of the content in bytes per second, 0 for no limit
+	 * @param    contentRateGrace    time in ms before the rate is enforced
+	 *
+	 */
+	ConnectionWatch ( ConnectionReaper reaper, int headerTimeout, int minContentRate, int contentRateGrace ) {
+		this.reaper = reaper;
+		this.iHeaderTimeout = headerTimeout;
+		this.iMinContentRate = minContentRate;
+		this.iContentRateGrace = contentRateGrace;
+	}
+
+
+	/**
+	 * the connection is waiting for the header of a request
+	 *
+	 */
+	synchronized void expectHeader () {
+		iPhase = PHASE_HEADER;
+		lPhaseStart = ConnectionReaper.now();
+		lReadStart = -1;
+
+		if ( iHeaderTimeout > 0 )
+			reaper.schedule ( this, lPhaseStart + iHeaderTimeout );
+		else
+			reaper.cancel ( this );
+	}
+
+
+	/**
+	 * the content of the current request is going to be received
+	 *
+	 */
+	synchronized void expectContent () {
+		iPhase = PHASE_CONTENT;
+		lPhaseStart = ConnectionReaper.now();
+		lContentBytes = 0;
+		lWaited = 0;
+		lReadStart = -1;
+
+		if ( iMinContentRate > 0 )
+			reaper.schedule ( this, lPhaseStart + iContentRateGrace );
+		else
+			reaper.cancel ( this );
+	}
+
+
+	/**
+	 * the connection is not waiting for its client (anymore)
+	 *
+	 */
+	synchronized void done () {
+		iPhase = PHASE_NONE;
+		lReadStart = -1;
+
+		reaper.cancel ( this );
+	}
+
+
+	/**
+	 * a read waiting for the client starts
+	 *
+	 */
+	synchronized void beginRead () {
+		if ( iPhase == PHASE_CONTENT )
+			lReadStart = ConnectionReaper.now();
+	}
+
+
+	/**
+	 * a read started by {@link #beginRead} has returned
+	 *
+	 * @param    count               the number of read bytes
+	 *
+	 */
+	synchronized void endRead ( int count ) {
+		if ( iPhase != PHASE_CONTENT || lReadStart < 0 )
+			return;
+
+		lWaited += ConnectionReaper.now() - lReadStart;
+		lReadStart = -1;
+		if ( count > 0 )
+			lContentBytes += count;
+	}
+
+
+	/**
+	 * bytes of the content have been received without a blocking read
+	 *
+	 * @param    count               an int
+	 *
+	 */
+	synchronized void received ( int count ) {
+		if ( iPhase == PHASE_CONTENT )
+			lContentBytes += count;
+	}
+
+
+	/**
+	 * has the connection been reaped?
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	synchronized boolean isReaped () {
+		return bReaped;
+	}
+
+
+	/**
+	 * checks the deadline of the current phase (reaper thread only)
+	 *
+	 * @param    now                 the current time according to {@link ConnectionReaper#now}
+	 *
+	 */
+	void expired ( long now ) {
+		synchronized ( this ) {
+			long lDeadline;
+			if ( iPhase == PHASE_HEADER )
+				lDeadline = lPhaseStart + iHeaderTimeout;
+			else if ( iPhase == PHASE_CONTENT ) {
+				long lWaiting = lWaited + ( lReadStart >= 0 ? now - lReadStart : 0 );
+				long lAllowed = iContentRateGrace + lContentBytes * 1000 / iMinContentRate;
+				// the waited time cannot grow faster than the clock, so the check is never late
+				lDeadline = now + lAllowed - lWaiting;
+			} else
+				return;
+
+			if ( now < lDeadline ) {
+				reaper.schedule ( this, lDeadline );
+				return;
+			}
+
+			iPhase = PHASE_NONE;
+			bReaped = true;
+		}
+
+		// closed outside of the lock, the connection's thread may be waiting for it
+		reaper.countReaped();
+		reap ();
+	}
+
+
+	/**
+	 * closes the connection, which has missed its deadline (reaper thread only)
+	 *
+	 */
+	abstract void reap ();
+
+}
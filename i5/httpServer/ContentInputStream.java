@@ -0,0 +1,129 @@
+package i5.httpServer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * InputStream delivering exactly the content of a single request with a known
+ * content length from the connection's input.
+ *
+ * Reading stops at the end of the content, so that a following (pipelined) request
+ * on the same connection is neither consumed nor corrupted.
+ */
+
+class ContentInputStream extends InputStream
+{
+
+	private InputStream in;
+
+	private long lRemaining;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param    in                  the input of the connection
+	 * @param    length              the content length of the request
+	 *
+	 */
+	ContentInputStream ( InputStream in, long length ) {
+		this.in = in;
+		lRemaining = length;
+	}
+
+
+	/**
+	 * returns the number of content bytes not read yet
+	 *
+	 * @return   a long
+	 *
+	 */
+	long getRemaining () {
+		return lRemaining;
+	}
+
+
+	public int read () throws IOException {
+		if ( lRemaining <= 0 )
+			return -1;
+
+		int iRead = in.read();
+		if ( iRead < 0 )
+			throw new EOFException ( "Content stream has ended before content length has been reached!" );
+
+		lRemaining --;
+		return iRead;
+	}
+
+
+	public int read ( byte[] b, int off, int len ) throws IOException {
+		if ( lRemaining <= 0 )
+			return -1;
+		if ( len == 0 )
+			return 0;
+
+		int iRead = in.read ( b, off, (int) Math.min ( len, lRemaining ) );
+		if ( iRead < 0 )
+			throw new EOFException ( "Content stream has ended before content length has been reached!" );
+
+		lRemaining -= iRead;
+		return iRead;
+	}
+
+
+	public int available () throws IOException {
+		return (int) Math.min ( in.available(), lRemaining );
+	}
+
+
+	/**
+	 * skips the rest of the content
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	void drain () throws IOException {
+		drain ( Long.MAX_VALUE );
+	}
+
+
+	/**
+	 * skips the rest of the content, if it does not exceed the given limit
+	 *
+	 * @param    limit               the maximal number of content bytes to skip
+	 *
+	 * @return   false, if the rest of the content exceeds the limit
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	boolean drain ( long limit ) throws IOException {
+		if ( lRemaining > limit )
+			return false;
+
+		while ( lRemaining > 0 ) {
+			long lSkipped = in.skip ( lRemaining );
+			if ( lSkipped <= 0 ) {
+				if ( read() < 0 )
+					break;
+			} else
+				lRemaining -= lSkipped;
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * closing the content does not close the connection, the remaining content is skipped
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	public void close () throws IOException {
+		drain();
+	}
+
+}
@@ -0,0 +1,28 @@
+package i5.httpServer;
+
+/**
+ * interface of a check deciding about a request announcing its content with
+ * <code>Expect: 100-continue</code>, before the content is transferred.
+ *
+ * The check can be set at the server ({@link HttpServer#setContinueCheck}) or be
+ * implemented by the {@link RequestHandler} itself. It gets the request with its
+ * header only (method, path, Content-Length, authorization fields, ...), its content
+ * must not be read. The check may block (e.g. to look up a user), both servers run
+ * it inside of the worker handling the request.
+ *
+ */
+public interface ContinueCheck
+{
+
+	/**
+	 * decides whether the content of the given request is wanted
+	 *
+	 * @param    request             the request without its content
+	 *
+	 * @return   {@link HttpResponse#STATUS_CONTINUE} to receive the content or the
+	 *           final status (e.g. 401, 403, 413) to answer the request with
+	 *
+	 */
+	public int checkContinue ( HttpRequest request );
+
+}
@@ -0,0 +1,152 @@
+package i5.httpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * InputStream decompressing a content sent with <code>Content-Encoding: gzip</code>
+ * or <code>deflate</code> while it is read.
+ *
+ * The number of decompressed bytes is limited, so that a small compressed request
+ * cannot expand to an arbitrary amount of data ("zip bomb"). The decompressor is
+ * created with the first read, thus the construction never blocks.
+ */
+
+class DecompressingInputStream extends InputStream
+{
+
+	/** size of the input buffer of the decompressor */
+	private static final int BUFFER_SIZE = 8192;
+
+
+	private InputStream in;
+
+	private boolean bGzip;
+
+	private long lLimit;
+
+	private long lRead = 0;
+
+	private InputStream decompressor = null;
+
+	private Inflater inflater = null;
+
+	private byte[] single = new byte[ 1 ];
+
+	private boolean bClosed = false;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param    in                  the compressed content
+	 * @param    coding              the content coding, "gzip" or "deflate"
+	 * @param    limit               the maximal number of decompressed bytes
+	 *
+	 */
+	DecompressingInputStream ( InputStream in, String coding, long limit ) {
+		this.in = in;
+		this.bGzip = ! "deflate".equals ( coding );
+		this.lLimit = limit;
+	}
+
+
+	/**
+	 * is the given content coding supported?
+	 *
+	 * @param    coding              a lower case String
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	static boolean isSupported ( String coding ) {
+		return "gzip".equals ( coding ) || "x-gzip".equals ( coding ) || "deflate".equals ( coding );
+	}
+
+
+	/**
+	 * creates the decompressor reading the header of the content
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	private void open () throws IOException {
+		if ( bGzip ) {
+			decompressor = new GZIPInputStream ( in, BUFFER_SIZE );
+			return;
+		}
+
+		// "deflate" is meant to be zlib wrapped, but some clients send raw deflate data
+		PushbackInputStream pushback = new PushbackInputStream ( in, 2 );
+		byte[] header = new byte[ 2 ];
+		int iHeader = 0;
+		while ( iHeader < 2 ) {
+			int iRead = pushback.read ( header, iHeader, 2 - iHeader );
+			if ( iRead < 0 )
+				break;
+			iHeader += iRead;
+		}
+		pushback.unread ( header, 0, iHeader );
+
+		boolean bZlib = iHeader == 2 && ( header[0] & 0x0f ) == 8
+			&& ( ( ( header[0] & 0xff ) << 8 ) | ( header[1] & 0xff ) ) % 31 == 0;
+
+		inflater = new Inflater ( ! bZlib );
+		decompressor = new InflaterInputStream ( pushback, inflater, BUFFER_SIZE );
+	}
+
+
+	public int read () throws IOException {
+		int iRead = read ( single, 0, 1 );
+		return iRead < 0 ? -1 : single[0] & 0xff;
+	}
+
+
+	public int read ( byte[] b, int off, int len ) throws IOException {
+		if ( bClosed )
+			throw new IOException ( "Content stream has been closed!" );
+		if ( decompressor == null )
+			open ();
+
+		int iRead = decompressor.read ( b, off, len );
+		if ( iRead > 0 ) {
+			lRead += iRead;
+			if ( lRead > lLimit )
+				throw new IOException ( "Decompressed content exceeds the limit of " + lLimit + " bytes!" );
+		}
+
+		return iRead;
+	}
+
+
+	public int available () throws IOException {
+		return decompressor == null ? 0 : decompressor.available();
+	}
+
+
+	/**
+	 * releases the decompressor, the compressed content is not read any further
+	 *
+	 */
+	public void close () {
+		bClosed = true;
+
+		if ( inflater != null )
+			inflater.end();
+		else if ( decompressor != null ) {
+			try {
+				// ends the inflater of the gzip stream, which drains the rest of the content
+				decompressor.close();
+			} catch ( IOException e ) {
+			}
+		}
+		decompressor = null;
+		inflater = null;
+	}
+
+}
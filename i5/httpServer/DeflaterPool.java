@@ -0,0 +1,81 @@
+package i5.httpServer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+
+/**
+ * Pool of Deflaters shared by the compressed responses of all servers.
+ *
+ * A Deflater holds native memory of some hundred KB, which is allocated with the
+ * instance and freed by {@link Deflater#end} only. Instead of paying this for every
+ * response, the Deflaters (all of them without zlib wrapper, the header and trailer
+ * are written by {@link CompressingOutputStream}) are reset and reused. Only a
+ * limited number is kept, the others are ended on their release.
+ */
+
+final class DeflaterPool
+{
+
+	/** maximal number of kept Deflaters */
+	private static final int MAX_POOLED = 32;
+
+
+	private static final DeflaterPool shared = new DeflaterPool ();
+
+
+	private ConcurrentLinkedQueue<Deflater> queue = new ConcurrentLinkedQueue<Deflater> ();
+
+	private AtomicInteger count = new AtomicInteger ( 0 );
+
+
+	/**
+	 * returns the pool shared by all servers
+	 *
+	 * @return   a DeflaterPool
+	 *
+	 */
+	static DeflaterPool getShared () {
+		return shared;
+	}
+
+
+	/**
+	 * returns a Deflater producing raw deflate data with the given level
+	 *
+	 * @param    level               the compression level (0-9 or -1 for the default)
+	 *
+	 * @return   a Deflater
+	 *
+	 */
+	Deflater acquire ( int level ) {
+		Deflater result = queue.poll();
+		if ( result == null )
+			return new Deflater ( level, true );
+
+		count.decrementAndGet();
+		// takes effect with the first input, since the Deflater has been reset
+		result.setLevel ( level );
+		return result;
+	}
+
+
+	/**
+	 * hands a Deflater back to the pool, it must not be used afterwards
+	 *
+	 * @param    deflater            a  Deflater
+	 *
+	 */
+	void release ( Deflater deflater ) {
+		if ( count.incrementAndGet() > MAX_POOLED ) {
+			count.decrementAndGet();
+			deflater.end();
+			return;
+		}
+
+		deflater.reset();
+		queue.offer ( deflater );
+	}
+
+}
@@ -0,0 +1,80 @@
+package i5.httpServer;
+
+
+/**
+ * Rate limited output of the errors occurring while connections are served.
+ *
+ * Broken connections and malformed requests are part of the usual traffic of a
+ * public server. Printing each of them (let alone its stack trace) would make the
+ * log a bottleneck under scanner or junk traffic. Thus at most a fixed number of
+ * messages is written per interval, the number of suppressed ones is reported at
+ * the start of the next interval.
+ */
+
+final class ErrorLog
+{
+
+	/** maximal number of messages per interval */
+	private static final int MAX_MESSAGES = 20;
+
+	/** length of an interval in ms */
+	private static final long INTERVAL = 60 * 1000;
+
+
+	private static long lIntervalStart = 0;
+	private static int iMessages = 0;
+	private static int iSuppressed = 0;
+
+
+	private ErrorLog () {
+	}
+
+
+	/**
+	 * writes a message to System.err, unless the limit of the current interval has
+	 * been reached
+	 *
+	 * @param    message             a  String
+	 *
+	 */
+	static void log ( String message ) {
+		log ( message, null );
+	}
+
+
+	/**
+	 * writes a message and the stack trace of the given exception to System.err,
+	 * unless the limit of the current interval has been reached
+	 *
+	 * @param    message             a  String
+	 * @param    cause               a  Throwable, may be null
+	 *
+	 */
+	static void log ( String message, Throwable cause ) {
+		int iReport = 0;
+
+		synchronized ( ErrorLog.class ) {
+			long lNow = System.currentTimeMillis();
+			if ( lNow - lIntervalStart >= INTERVAL ) {
+				iReport = iSuppressed;
+				iSuppressed = 0;
+				iMessages = 0;
+				lIntervalStart = lNow;
+			}
+
+			if ( iMessages >= MAX_MESSAGES ) {
+				iSuppressed ++;
+				return;
+			}
+			iMessages ++;
+		}
+
+		if ( iReport > 0 )
+			System.err.println ( iReport + " further errors have been suppressed" );
+
+		System.err.println ( message );
+		if ( cause != null )
+			cause.printStackTrace();
+	}
+
+}
@@ -0,0 +1,154 @@
+package i5.httpServer;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Simple comparative benchmark of the execution modes of the {@link HttpServer}.
+ *
+ * For every mode a server is started whose handler blocks for a while (like a call
+ * into the las2peer node) and is then flooded with concurrent clients. Throughput,
+ * mean latency and failed requests are printed for each mode.
+ *
+ * understandable commandline parameters:
+ *  -c  number of concurrent clients (default 2000)
+ *  -r  requests per client (default 5)
+ *  -d  blocking time of the handler in ms (default 50)
+ *  -p  first port to use (default 18080)
+ */
+
+public class ExecutionModeBenchmark {
+
+	/**
+	 * handler simulating a blocking call
+	 *
+	 */
+	public static class BlockingHandler implements RequestHandler {
+
+		static int iDelay = 50;
+
+		public void processRequest ( HttpRequest request, HttpResponse response ) throws Exception {
+			Thread.sleep ( iDelay );
+			response.println ( "done" );
+		}
+	}
+
+
+
+	/**
+	 * runs all requests against the server at the given port
+	 *
+	 * @param    port                an int
+	 * @param    clients             an int
+	 * @param    requests            an int
+	 *
+	 * @exception   InterruptedException
+	 *
+	 */
+	private static void runClients ( final int port, int clients, final int requests, String label ) throws InterruptedException {
+		ExecutorService clientExecutor = HttpServer.createVirtualThreadExecutor ( "benchmark-client-" );
+		if ( clientExecutor == null )
+			clientExecutor = Executors.newFixedThreadPool ( clients );
+
+		final CountDownLatch latch = new CountDownLatch ( clients );
+		final AtomicInteger aiFailed = new AtomicInteger ( 0 );
+		final AtomicLong alLatency = new AtomicLong ( 0 );
+		final byte[] request = ( "GET /benchmark HTTP/1.0\r\n\r\n" ).getBytes();
+
+		long lStart = System.nanoTime();
+
+		for ( int i = 0; i < clients; i++ ) {
+			clientExecutor.execute ( new Runnable () {
+				public void run () {
+					byte[] buffer = new byte[ 1024 ];
+					for ( int j = 0; j < requests; j++ ) {
+						long lRequestStart = System.nanoTime();
+						try {
+							Socket socket = new Socket ( "localhost", port );
+							OutputStream out = socket.getOutputStream();
+							out.write ( request );
+							out.flush();
+
+							InputStream in = socket.getInputStream();
+							while ( in.read ( buffer ) >= 0 )
+								;
+							socket.close();
+
+							alLatency.addAndGet ( System.nanoTime() - lRequestStart );
+						} catch ( Exception e ) {
+							aiFailed.incrementAndGet();
+						}
+					}
+					latch.countDown();
+				}
+			} );
+		}
+
+		latch.await();
+		long lDuration = System.nanoTime() - lStart;
+		clientExecutor.shutdown();
+
+		int iTotal = clients * requests;
+		int iSucceeded = iTotal - aiFailed.get();
+		System.out.println ( label
+			+ ": " + ( iSucceeded * 1000000000L / Math.max ( 1, lDuration ) ) + " req/s"
+			+ ", mean latency " + ( alLatency.get() / Math.max ( 1, iSucceeded ) / 1000000 ) + " ms"
+			+ ", failed " + aiFailed.get() + "/" + iTotal );
+	}
+
+
+	/**
+	 * starts the benchmark
+	 *
+	 * @param    argv                a  String[]
+	 *
+	 * @exception   Exception
+	 *
+	 */
+	public static void main ( String[] argv ) throws Exception {
+		int iClients = 2000;
+		int iRequests = 5;
+		int iPort = 18080;
+
+		for ( int i = 0; i < argv.length; i++ ) {
+			if ( argv[i].equals ( "-c" ) )
+				iClients = Integer.parseInt ( argv[++i] );
+			else if ( argv[i].equals ( "-r" ) )
+				iRequests = Integer.parseInt ( argv[++i] );
+			else if ( argv[i].equals ( "-d" ) )
+				BlockingHandler.iDelay = Integer.parseInt ( argv[++i] );
+			else if ( argv[i].equals ( "-p" ) )
+				iPort = Integer.parseInt ( argv[++i] );
+			else
+				System.err.println ( "unknown parameter: " + argv[i] );
+		}
+
+		int[] aiModes = new int[] { HttpServer.EXECUTION_THREAD_PER_CONNECTION, HttpServer.EXECUTION_ELASTIC_POOL, HttpServer.EXECUTION_VIRTUAL_THREADS };
+		String[] asLabels = new String[] { "thread per connection", "elastic pool", "virtual threads" };
+
+		if ( HttpServer.createVirtualThreadExecutor ( "probe-" ) == null )
+			asLabels[2] = "virtual threads (unsupported, elastic pool fallback)";
+
+		for ( int i = 0; i < aiModes.length; i++ ) {
+			HttpServer server = new HttpServer ( BlockingHandler.class.getName(), iPort + i, aiModes[i] );
+			server.setWorkerPoolSize ( 16, 200, 60 * 1000 );
+			server.setWorkerQueueSize ( iClients );
+			server.setSocketTimeout ( 500 );
+			server.start();
+			Thread.sleep ( 500 );
+
+			runClients ( iPort + i, iClients, iRequests, asLabels[i] );
+
+			server.stopServer();
+			server.join();
+		}
+	}
+
+}
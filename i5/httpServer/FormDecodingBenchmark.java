@@ -0,0 +1,158 @@
+package i5.httpServer;
+
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.Hashtable;
+import java.util.List;
+
+
+/**
+ * Micro benchmark comparing the decoding of query strings by {@link FormParameters}
+ * with the former implementation of <code>decodeGetVars</code> based on
+ * <code>String.split</code> and <code>URLDecoder</code>.
+ *
+ * The query strings resemble the ones of search requests with many repeated
+ * <code>id</code> parameters. Each round decodes a query string and reads the
+ * parameters a handler typically asks for. After a warm up phase the mean time
+ * per query string is printed.
+ *
+ * understandable commandline parameters:
+ *  -w  number of warm up rounds (default 20000)
+ *  -r  number of measured rounds (default 100000)
+ *  -n  number of repeated id parameters (default 200)
+ */
+
+public class FormDecodingBenchmark {
+
+	private static final Charset ISO_8859_1 = Charset.forName ( "ISO-8859-1" );
+
+	private static final Charset UTF_8 = Charset.forName ( "UTF-8" );
+
+	/* result of the last decoded query, keeps the work from being optimized away */
+	private static int iSink = 0;
+
+
+	/**
+	 * builds a query string with the given number of id parameters
+	 *
+	 * @param    ids                 an int
+	 * @param    variant             makes the query strings differ
+	 *
+	 * @return   a String
+	 *
+	 */
+	private static String buildQuery ( int ids, int variant ) {
+		StringBuilder sb = new StringBuilder ( "q=s%C3%BC%C3%9Fe+Stra%C3%9Fe&lang=de" );
+		for ( int i = 0; i < ids; i++ )
+			sb.append ( "&id=" ).append ( 4533871291283910L + i * 7919L + variant );
+		sb.append ( "&limit=50&sort=date%2Cdesc" );
+		return sb.toString();
+	}
+
+
+	/**
+	 * the former implementation, only the last of repeated values is kept
+	 *
+	 * @param    query               a  String
+	 *
+	 * @exception   Exception
+	 *
+	 */
+	private static void decodeSplit ( String query ) throws Exception {
+		Hashtable htVars = new Hashtable ();
+
+		String[] asParts = query.split ( "&" );
+		for ( int i = 0; i < asParts.length; i++ ) {
+			String[] asDecode = asParts[i].split ( "=", 2 );
+			asDecode[1] = URLDecoder.decode ( asDecode[1], "UTF-8" );
+			htVars.put ( asDecode[0], asDecode[1] );
+		}
+
+		iSink += ( (String) htVars.get ( "q" ) ).length() + ( (String) htVars.get ( "id" ) ).length()
+			+ ( (String) htVars.get ( "limit" ) ).length();
+	}
+
+
+	/**
+	 * the current implementation, all repeated values are returned
+	 *
+	 * @param    query               a  String
+	 *
+	 */
+	private static void decodeScanning ( String query ) {
+		byte[] data = query.getBytes ( ISO_8859_1 );
+		FormParameters vars = new FormParameters ( data, 0, data.length, UTF_8 );
+
+		List<String> ids = vars.getAll ( "id" );
+		iSink += vars.get ( "q" ).length() + ids.size() + ids.get ( ids.size() - 1 ).length()
+			+ vars.get ( "limit" ).length();
+	}
+
+
+	/**
+	 * runs the given implementation the given number of rounds
+	 *
+	 * @param    split               use the former implementation?
+	 * @param    queries             a  String[]
+	 * @param    rounds              an int
+	 *
+	 * @return   the duration in ns
+	 *
+	 * @exception   Exception
+	 *
+	 */
+	private static long run ( boolean split, String[] queries, int rounds ) throws Exception {
+		long lStart = System.nanoTime();
+
+		for ( int i = 0; i < rounds; i++ ) {
+			String query = queries[i % queries.length];
+			if ( split )
+				decodeSplit ( query );
+			else
+				decodeScanning ( query );
+		}
+
+		return System.nanoTime() - lStart;
+	}
+
+
+	/**
+	 * starts the benchmark
+	 *
+	 * @param    argv                a  String[]
+	 *
+	 * @exception   Exception
+	 *
+	 */
+	public static void main ( String[] argv ) throws Exception {
+		int iWarmUp = 20000;
+		int iRounds = 100000;
+		int iIds = 200;
+
+		for ( int i = 0; i < argv.length; i++ ) {
+			if ( argv[i].equals ( "-w" ) )
+				iWarmUp = Integer.parseInt ( argv[++i] );
+			else if ( argv[i].equals ( "-r" ) )
+				iRounds = Integer.parseInt ( argv[++i] );
+			else if ( argv[i].equals ( "-n" ) )
+				iIds = Integer.parseInt ( argv[++i] );
+			else
+				System.err.println ( "unknown parameter: " + argv[i] );
+		}
+
+		String[] asQueries = new String[ 8 ];
+		for ( int i = 0; i < asQueries.length; i++ )
+			asQueries[i] = buildQuery ( iIds, i );
+
+		run ( true, asQueries, iWarmUp );
+		run ( false, asQueries, iWarmUp );
+
+		long lSplit = run ( true, asQueries, iRounds );
+		long lScanning = run ( false, asQueries, iRounds );
+
+		System.out.println ( "split and URLDecoder: " + ( lSplit / iRounds ) + " ns/query" );
+		System.out.println ( "single pass scanning: " + ( lScanning / iRounds ) + " ns/query" );
+		System.out.println ( "(checksum " + iSink + ")" );
+	}
+
+}
@@ -0,0 +1,321 @@
+package i5.httpServer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+
+/**
+ * Multi-valued parameters of a query string or an
+ * <code>application/x-www-form-urlencoded</code> content.
+ *
+ * The raw bytes are split into parameters in a single pass, which only records
+ * the offsets of names and values. They are read from the given buffer directly,
+ * so a posted form is not copied out of the stored content. A value is percent/plus decoded on its first
+ * access, names are compared with the searched name without decoding them into
+ * Strings. Thus a request with hundreds of parameters costs a single int array
+ * until its parameters are actually used.
+ */
+
+final class FormParameters
+{
+
+	private ByteBuffer data;
+
+	private Charset charset;
+
+	/* four offsets per parameter into data: name start, name end, value start, value end */
+	private int[] offsets;
+	private int iSize = 0;
+
+	/* decoded values, created on first access */
+	private String[] values;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param    data                the encoded parameters, which must not be changed afterwards
+	 * @param    off                 index of the first byte
+	 * @param    len                 number of bytes
+	 * @param    charset             the charset of the decoded bytes
+	 *
+	 */
+	FormParameters ( byte[] data, int off, int len, Charset charset ) {
+		this ( ByteBuffer.wrap ( data, off, len ), charset );
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param    data                the encoded parameters between position and limit,
+	 *                               which must not be changed afterwards
+	 * @param    charset             the charset of the decoded bytes
+	 *
+	 */
+	FormParameters ( ByteBuffer data, Charset charset ) {
+		this.data = data;
+		this.charset = charset;
+
+		offsets = new int[ 4 * 8 ];
+
+		int iEnd = data.limit();
+		int iStart = data.position();
+		int iEquals = -1;
+		for ( int i = iStart; i <= iEnd; i++ ) {
+			if ( i == iEnd || data.get ( i ) == '&' ) {
+				// empty parts like in "a=1&&b=2" are skipped, a name without "=" has an empty value
+				if ( i > iStart ) {
+					if ( iEquals < 0 )
+						add ( iStart, i, i, i );
+					else
+						add ( iStart, iEquals, iEquals + 1, i );
+				}
+				iStart = i + 1;
+				iEquals = -1;
+			} else if ( data.get ( i ) == '=' && iEquals < 0 )
+				iEquals = i;
+		}
+
+		values = new String[ iSize ];
+	}
+
+
+	/**
+	 * creates empty parameters
+	 *
+	 * @return   a FormParameters
+	 *
+	 */
+	static FormParameters empty () {
+		return new FormParameters ( new byte[0], 0, 0, Charset.forName ( "UTF-8" ) );
+	}
+
+
+	private void add ( int nameStart, int nameEnd, int valueStart, int valueEnd ) {
+		if ( 4 * iSize == offsets.length ) {
+			int[] grown = new int[ offsets.length * 2 ];
+			System.arraycopy ( offsets, 0, grown, 0, offsets.length );
+			offsets = grown;
+		}
+
+		offsets[4*iSize] = nameStart;
+		offsets[4*iSize+1] = nameEnd;
+		offsets[4*iSize+2] = valueStart;
+		offsets[4*iSize+3] = valueEnd;
+		iSize ++;
+	}
+
+
+	/**
+	 * returns the number of parameters (including repeated names)
+	 *
+	 * @return   an int
+	 *
+	 */
+	int size () {
+		return iSize;
+	}
+
+
+	/**
+	 * returns the decoded name of the i-th parameter
+	 *
+	 * @param    i                   an int
+	 *
+	 * @return   a String
+	 *
+	 */
+	String getName ( int i ) {
+		return decode ( offsets[4*i], offsets[4*i+1] );
+	}
+
+
+	/**
+	 * returns the decoded value of the i-th parameter
+	 *
+	 * @param    i                   an int
+	 *
+	 * @return   a String
+	 *
+	 */
+	String getValue ( int i ) {
+		if ( values[i] == null )
+			values[i] = decode ( offsets[4*i+2], offsets[4*i+3] );
+
+		return values[i];
+	}
+
+
+	/**
+	 * returns the value of the last parameter with the given name
+	 *
+	 * @param    name                a  String
+	 *
+	 * @return   the value or null, if there is no such parameter
+	 *
+	 */
+	String get ( String name ) {
+		byte[] encodedName = name.getBytes ( charset );
+
+		for ( int i = iSize - 1; i >= 0; i-- )
+			if ( nameEquals ( i, encodedName ) )
+				return getValue ( i );
+
+		return null;
+	}
+
+
+	/**
+	 * returns all values of the parameters with the given name in their order
+	 *
+	 * @param    name                a  String
+	 *
+	 * @return   a List of Strings, empty if there is no such parameter
+	 *
+	 */
+	List<String> getAll ( String name ) {
+		byte[] encodedName = name.getBytes ( charset );
+
+		List<String> result = null;
+		for ( int i = 0; i < iSize; i++ ) {
+			if ( nameEquals ( i, encodedName ) ) {
+				if ( result == null )
+					result = new ArrayList<String> ();
+				result.add ( getValue ( i ) );
+			}
+		}
+
+		if ( result == null )
+			return Collections.emptyList();
+		return Collections.unmodifiableList ( result );
+	}
+
+
+	/**
+	 * returns an enumeration of the distinct parameter names in their order
+	 *
+	 * @return   an Enumeration of Strings
+	 *
+	 */
+	Enumeration<String> names () {
+		LinkedHashSet<String> names = new LinkedHashSet<String> ();
+		for ( int i = 0; i < iSize; i++ )
+			names.add ( getName ( i ) );
+
+		return Collections.enumeration ( names );
+	}
+
+
+	/**
+	 * compares the name of the i-th parameter with the given (charset encoded)
+	 * name, while the percent and plus encoding is removed on the fly
+	 *
+	 * @param    i                   an int
+	 * @param    name                a  byte[]
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	private boolean nameEquals ( int i, byte[] name ) {
+		int iPos = offsets[4*i];
+		int iEnd = offsets[4*i+1];
+
+		// the encoded name cannot be shorter than the decoded one
+		if ( iEnd - iPos < name.length )
+			return false;
+
+		int j = 0;
+		while ( iPos < iEnd ) {
+			if ( j == name.length )
+				return false;
+
+			int iByte = data.get ( iPos );
+			if ( iByte == '+' ) {
+				iByte = ' ';
+				iPos ++;
+			} else if ( iByte == '%' && isEscape ( iPos, iEnd ) ) {
+				iByte = ( hexValue ( data.get ( iPos+1 ) ) << 4 ) | hexValue ( data.get ( iPos+2 ) );
+				iPos += 3;
+			} else
+				iPos ++;
+
+			if ( (byte) iByte != name[j++] )
+				return false;
+		}
+
+		return j == name.length;
+	}
+
+
+	/**
+	 * decodes the given range of the data
+	 *
+	 * @param    start               an int
+	 * @param    end                 an int
+	 *
+	 * @return   a String
+	 *
+	 */
+	private String decode ( int start, int end ) {
+		// most names and values do not need any decoding
+		int i = start;
+		while ( i < end && data.get ( i ) != '%' && data.get ( i ) != '+' )
+			i ++;
+		if ( i == end && data.hasArray() )
+			return new String ( data.array(), data.arrayOffset() + start, end - start, charset );
+
+		byte[] decoded = new byte[ end - start ];
+		int iLength = i - start;
+		ByteBuffer range = data.duplicate();
+		range.position ( start );
+		range.get ( decoded, 0, iLength );
+
+		while ( i < end ) {
+			byte b = data.get ( i );
+			if ( b == '+' ) {
+				decoded[iLength++] = ' ';
+				i ++;
+			} else if ( b == '%' && isEscape ( i, end ) ) {
+				decoded[iLength++] = (byte) ( ( hexValue ( data.get ( i+1 ) ) << 4 ) | hexValue ( data.get ( i+2 ) ) );
+				i += 3;
+			} else {
+				// an invalid escape sequence is kept as it is
+				decoded[iLength++] = b;
+				i ++;
+			}
+		}
+
+		return new String ( decoded, 0, iLength, charset );
+	}
+
+
+	/**
+	 * is the '%' at the given position followed by two hexadecimal digits?
+	 *
+	 * @param    pos                 an int
+	 * @param    end                 an int
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	private boolean isEscape ( int pos, int end ) {
+		return pos + 2 < end && hexValue ( data.get ( pos+1 ) ) >= 0 && hexValue ( data.get ( pos+2 ) ) >= 0;
+	}
+
+
+	private static int hexValue ( byte c ) {
+		if ( c >= '0' && c <= '9' )
+			return c - '0';
+		if ( c >= 'a' && c <= 'f' )
+			return c - 'a' + 10;
+		if ( c >= 'A' && c <= 'F' )
+			return c - 'A' + 10;
+		return -1;
+	}
+
+}
@@ -0,0 +1,662 @@
+package i5.httpServer;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+
+/**
+ * Container for the header fields of a request or a response.
+ *
+ * Field names are case insensitive and a name may occur several times (e.g.
+ * Set-Cookie). The fields keep the order in which they have been added.
+ *
+ * Fields of a received request are kept as the bytes of the header: for each field
+ * only the offsets of its name and value inside the header bytes are stored. Names
+ * and values are decoded to Strings on their first access, so fields a handler never
+ * asks for do not cost any further allocation. The names of received fields are
+ * stored in lower case, fields added as Strings keep the case given.
+ *
+ * Lookups use an open addressing hash table over the distinct names. The hash folds
+ * the case of ASCII letters and is seeded randomly, so that clients cannot construct
+ * colliding names to degrade the lookups. The well known fields Host, Content-Length,
+ * Content-Type and Connection have fixed slots and are found without hashing.
+ *
+ * Instances are not synchronized.
+ */
+
+final class HeaderFields
+{
+
+	private static final Charset UTF_8 = Charset.forName ( "UTF-8" );
+
+	private static final Charset ISO_8859_1 = Charset.forName ( "ISO-8859-1" );
+
+	/** seed of the name hash, chosen at random for each VM */
+	private static final int SEED = new Random().nextInt() ^ (int) System.nanoTime();
+
+	/** the well known fields having fixed slots, the names differ in length */
+	private static final String[] WELL_KNOWN = new String[] { "host", "connection", "content-type", "content-length" };
+
+
+	/* the header bytes containing the names and values of received fields */
+	private byte[] data;
+
+	/* per field: start of the name, end of the name (= start of the value), end of the value
+	   or -1 as start for fields added as Strings */
+	private int[] offsets;
+
+	private int iFields = 0;
+
+	/* decoded names and values, null until first access of a received field */
+	private String[] asNames;
+	private String[] asValues;
+
+	/* next field with the same name or -1; for the first field of a name the last one */
+	private int[] aiNextSame;
+	private int[] aiLastSame;
+
+	/* open addressing table of the first field of each name (index + 1, 0 if empty) */
+	private int[] table;
+	private int iDistinct = 0;
+
+	/* first field of the well known names or -1 */
+	private int[] aiWellKnown = new int[] { -1, -1, -1, -1 };
+
+
+	/**
+	 * Constructor for an empty container
+	 *
+	 */
+	HeaderFields () {
+		this ( null, new int[ 3 * 8 ], 0 );
+	}
+
+
+	/**
+	 * Constructor for the fields of a received header
+	 *
+	 * @param    data                the header bytes
+	 * @param    offsets             three offsets per field into data
+	 * @param    fields              the number of fields
+	 *
+	 */
+	HeaderFields ( byte[] data, int[] offsets, int fields ) {
+		this.data = data;
+		this.offsets = offsets;
+
+		int iCapacity = Math.max ( fields, 8 );
+		asNames = new String[ iCapacity ];
+		asValues = new String[ iCapacity ];
+		aiNextSame = new int[ iCapacity ];
+		aiLastSame = new int[ iCapacity ];
+		table = new int[ tableSize ( fields ) ];
+
+		for ( int i = 0; i < fields; i++ )
+			index ( iFields++ );
+	}
+
+
+	/**
+	 * returns the number of fields (including repeated ones)
+	 *
+	 * @return   an int
+	 *
+	 */
+	int size () {
+		return iFields;
+	}
+
+
+	/**
+	 * returns the name of the field with the given index
+	 *
+	 * @param    index               an int
+	 *
+	 * @return   a String
+	 *
+	 */
+	String getName ( int index ) {
+		if ( asNames[index] == null )
+			asNames[index] = new String ( data, offsets[3*index], offsets[3*index+1] - offsets[3*index], ISO_8859_1 );
+
+		return asNames[index];
+	}
+
+
+	/**
+	 * returns the value of the field with the given index
+	 *
+	 * @param    index               an int
+	 *
+	 * @return   a String
+	 *
+	 */
+	String getValue ( int index ) {
+		if ( asValues[index] == null )
+			asValues[index] = new String ( data, offsets[3*index+1], offsets[3*index+2] - offsets[3*index+1], UTF_8 );
+
+		return asValues[index];
+	}
+
+
+	/**
+	 * returns the value of the field with the given name (ignoring the case),
+	 * if a field is repeated the last one counts
+	 *
+	 * @param    name                a  String
+	 *
+	 * @return   the value or null, if there is no such field
+	 *
+	 */
+	String get ( String name ) {
+		int iFirst = find ( name );
+		if ( iFirst < 0 )
+			return null;
+
+		return getValue ( aiLastSame[iFirst] );
+	}
+
+
+	/**
+	 * returns all values of the fields with the given name in their order
+	 *
+	 * @param    name                a  String
+	 *
+	 * @return   a String[], empty if there is no such field
+	 *
+	 */
+	String[] getAll ( String name ) {
+		int iFirst = find ( name );
+		if ( iFirst < 0 )
+			return new String[ 0 ];
+
+		int iCount = 0;
+		for ( int i = iFirst; i >= 0; i = aiNextSame[i] )
+			iCount ++;
+
+		String[] result = new String[ iCount ];
+		iCount = 0;
+		for ( int i = iFirst; i >= 0; i = aiNextSame[i] )
+			result[iCount++] = getValue ( i );
+
+		return result;
+	}
+
+
+	/**
+	 * is there a field with the given name?
+	 *
+	 * @param    name                a  String
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	boolean contains ( String name ) {
+		return find ( name ) >= 0;
+	}
+
+
+	/**
+	 * returns the names of all fields, repeated fields are enumerated once
+	 *
+	 * @return   an Enumeration
+	 *
+	 */
+	Enumeration<String> names () {
+		return new Enumeration<String> () {
+			private int iNext = nextFirst ( 0 );
+
+			public boolean hasMoreElements () {
+				return iNext < iFields;
+			}
+
+			public String nextElement () {
+				if ( iNext >= iFields )
+					throw new NoSuchElementException ();
+
+				String sName = getName ( iNext );
+				iNext = nextFirst ( iNext + 1 );
+				return sName;
+			}
+		};
+	}
+
+
+	/**
+	 * adds a field without replacing fields of the same name
+	 *
+	 * @param    name                a  String
+	 * @param    value               a  String
+	 *
+	 */
+	void add ( String name, String value ) {
+		if ( iFields == asNames.length ) {
+			int iCapacity = asNames.length * 2;
+			asNames = grow ( asNames, iCapacity );
+			asValues = grow ( asValues, iCapacity );
+			aiNextSame = grow ( aiNextSame, iCapacity );
+			aiLastSame = grow ( aiLastSame, iCapacity );
+		}
+		if ( 3 * iFields == offsets.length )
+			offsets = grow ( offsets, Math.max ( offsets.length * 2, 3 * 8 ) );
+
+		offsets[3*iFields] = -1;
+		asNames[iFields] = name;
+		asValues[iFields] = value;
+
+		index ( iFields++ );
+	}
+
+
+	/**
+	 * sets the field with the given name replacing all fields of the same name
+	 *
+	 * @param    name                a  String
+	 * @param    value               a  String
+	 *
+	 */
+	void set ( String name, String value ) {
+		int iFirst = find ( name );
+		if ( iFirst < 0 ) {
+			add ( name, value );
+			return;
+		}
+
+		if ( aiNextSame[iFirst] >= 0 ) {
+			remove ( name );
+			add ( name, value );
+			return;
+		}
+
+		// replace in place, the position of the field is kept
+		offsets[3*iFirst] = -1;
+		asNames[iFirst] = name;
+		asValues[iFirst] = value;
+	}
+
+
+	/**
+	 * removes all fields with the given name
+	 *
+	 * @param    name                a  String
+	 *
+	 */
+	void remove ( String name ) {
+		int iFirst = find ( name );
+		if ( iFirst < 0 )
+			return;
+
+		// compact the remaining fields and rebuild the index
+		int iKept = 0;
+		for ( int i = 0; i < iFields; i++ ) {
+			if ( nameEquals ( i, name ) )
+				continue;
+
+			offsets[3*iKept] = offsets[3*i];
+			offsets[3*iKept+1] = offsets[3*i+1];
+			offsets[3*iKept+2] = offsets[3*i+2];
+			asNames[iKept] = asNames[i];
+			asValues[iKept] = asValues[i];
+			iKept ++;
+		}
+		for ( int i = iKept; i < iFields; i++ ) {
+			asNames[i] = null;
+			asValues[i] = null;
+		}
+
+		int iCount = iKept;
+		iFields = 0;
+		iDistinct = 0;
+		Arrays.fill ( table, 0 );
+		Arrays.fill ( aiWellKnown, -1 );
+
+		for ( int i = 0; i < iCount; i++ )
+			index ( iFields++ );
+	}
+
+
+	/**
+	 * enters the field with the given index into the index structures
+	 *
+	 * @param    field               an int
+	 *
+	 */
+	private void index ( int field ) {
+		aiNextSame[field] = -1;
+
+		int iWellKnown = wellKnown ( field );
+		if ( iWellKnown >= 0 ) {
+			if ( aiWellKnown[iWellKnown] < 0 ) {
+				aiWellKnown[iWellKnown] = field;
+				aiLastSame[field] = field;
+			} else
+				append ( aiWellKnown[iWellKnown], field );
+			return;
+		}
+
+		if ( 2 * ( iDistinct + 1 ) > table.length )
+			rehash ( table.length * 2 );
+
+		int iMask = table.length - 1;
+		int iSlot = hash ( field ) & iMask;
+		while ( table[iSlot] != 0 ) {
+			int iFirst = table[iSlot] - 1;
+			if ( sameName ( iFirst, field ) ) {
+				append ( iFirst, field );
+				return;
+			}
+			iSlot = ( iSlot + 1 ) & iMask;
+		}
+
+		table[iSlot] = field + 1;
+		aiLastSame[field] = field;
+		iDistinct ++;
+	}
+
+
+	/**
+	 * appends a field to the chain of fields with the same name
+	 *
+	 * @param    first               the first field of the name
+	 * @param    field               an int
+	 *
+	 */
+	private void append ( int first, int field ) {
+		aiNextSame[aiLastSame[first]] = field;
+		aiLastSame[first] = field;
+	}
+
+
+	/**
+	 * enlarges the hash table
+	 *
+	 * @param    size                a power of two
+	 *
+	 */
+	private void rehash ( int size ) {
+		int[] old = table;
+		table = new int[ size ];
+
+		for ( int i = 0; i < old.length; i++ ) {
+			if ( old[i] == 0 )
+				continue;
+
+			int iSlot = hash ( old[i] - 1 ) & ( size - 1 );
+			while ( table[iSlot] != 0 )
+				iSlot = ( iSlot + 1 ) & ( size - 1 );
+			table[iSlot] = old[i];
+		}
+	}
+
+
+	/**
+	 * returns the first field with the given name or -1
+	 *
+	 * @param    name                a  String
+	 *
+	 * @return   an int
+	 *
+	 */
+	private int find ( String name ) {
+		int iWellKnown = wellKnown ( name );
+		if ( iWellKnown >= 0 )
+			return aiWellKnown[iWellKnown];
+
+		int iMask = table.length - 1;
+		int iSlot = hash ( name ) & iMask;
+		while ( table[iSlot] != 0 ) {
+			int iFirst = table[iSlot] - 1;
+			if ( nameEquals ( iFirst, name ) )
+				return iFirst;
+			iSlot = ( iSlot + 1 ) & iMask;
+		}
+
+		return -1;
+	}
+
+
+	/**
+	 * returns the first index starting at the given one, which is the first field of its name
+	 *
+	 * @param    start               an int
+	 *
+	 * @return   an int
+	 *
+	 */
+	private int nextFirst ( int start ) {
+		for ( int i = start; i < iFields; i++ )
+			if ( find ( i ) == i )
+				return i;
+
+		return iFields;
+	}
+
+
+	/**
+	 * returns the first field having the same name as the given one
+	 *
+	 * @param    field               an int
+	 *
+	 * @return   an int
+	 *
+	 */
+	private int find ( int field ) {
+		if ( offsets[3*field] < 0 )
+			return find ( asNames[field] );
+
+		int iWellKnown = wellKnown ( field );
+		if ( iWellKnown >= 0 )
+			return aiWellKnown[iWellKnown];
+
+		int iMask = table.length - 1;
+		int iSlot = hash ( field ) & iMask;
+		while ( table[iSlot] != 0 ) {
+			int iFirst = table[iSlot] - 1;
+			if ( sameName ( iFirst, field ) )
+				return iFirst;
+			iSlot = ( iSlot + 1 ) & iMask;
+		}
+
+		return -1;
+	}
+
+
+	/**
+	 * returns the slot of the well known field with the given name or -1
+	 *
+	 * @param    name                a  String
+	 *
+	 * @return   an int
+	 *
+	 */
+	private static int wellKnown ( String name ) {
+		for ( int i = 0; i < WELL_KNOWN.length; i++ )
+			if ( WELL_KNOWN[i].length() == name.length() )
+				return equalsFolded ( WELL_KNOWN[i], name ) ? i : -1;
+
+		return -1;
+	}
+
+
+	/**
+	 * returns the slot of the well known field with the name of the given field or -1
+	 *
+	 * @param    field               an int
+	 *
+	 * @return   an int
+	 *
+	 */
+	private int wellKnown ( int field ) {
+		if ( offsets[3*field] < 0 )
+			return wellKnown ( asNames[field] );
+
+		int iLength = offsets[3*field+1] - offsets[3*field];
+		for ( int i = 0; i < WELL_KNOWN.length; i++ )
+			if ( WELL_KNOWN[i].length() == iLength )
+				return nameEquals ( field, WELL_KNOWN[i] ) ? i : -1;
+
+		return -1;
+	}
+
+
+	/**
+	 * computes the case insensitive hash of the given name
+	 *
+	 * @param    name                a  String
+	 *
+	 * @return   an int
+	 *
+	 */
+	private static int hash ( String name ) {
+		int h = SEED;
+		for ( int i = 0; i < name.length(); i++ )
+			h = mix ( h, fold ( name.charAt ( i ) ) );
+
+		return finish ( h, name.length() );
+	}
+
+
+	/**
+	 * computes the case insensitive hash of the name of the given field
+	 *
+	 * @param    field               an int
+	 *
+	 * @return   an int
+	 *
+	 */
+	private int hash ( int field ) {
+		if ( offsets[3*field] < 0 )
+			return hash ( asNames[field] );
+
+		int h = SEED;
+		for ( int i = offsets[3*field]; i < offsets[3*field+1]; i++ )
+			h = mix ( h, fold ( (char) ( data[i] & 0xff ) ) );
+
+		return finish ( h, offsets[3*field+1] - offsets[3*field] );
+	}
+
+
+	private static int mix ( int h, int c ) {
+		h ^= c * 0xcc9e2d51;
+		h = Integer.rotateLeft ( h, 13 );
+		return h * 5 + 0xe6546b64;
+	}
+
+
+	private static int finish ( int h, int length ) {
+		h ^= length;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		return h ^ ( h >>> 16 );
+	}
+
+
+	private static char fold ( char c ) {
+		if ( c >= 'A' && c <= 'Z' )
+			return (char) ( c + 'a' - 'A' );
+		return c;
+	}
+
+
+	/**
+	 * compares the name of the field with the given index with a name ignoring the case
+	 *
+	 * @param    field               an int
+	 * @param    name                a  String
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	private boolean nameEquals ( int field, String name ) {
+		int iStart = offsets[3*field];
+		if ( iStart < 0 )
+			return equalsFolded ( asNames[field], name );
+
+		if ( offsets[3*field+1] - iStart != name.length() )
+			return false;
+
+		for ( int i = 0; i < name.length(); i++ )
+			if ( fold ( name.charAt ( i ) ) != fold ( (char) ( data[iStart+i] & 0xff ) ) )
+				return false;
+
+		return true;
+	}
+
+
+	/**
+	 * do the two fields have the same name (ignoring the case)?
+	 *
+	 * @param    field1              an int
+	 * @param    field2              an int
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	private boolean sameName ( int field1, int field2 ) {
+		if ( offsets[3*field2] < 0 )
+			return nameEquals ( field1, asNames[field2] );
+		if ( offsets[3*field1] < 0 )
+			return nameEquals ( field2, asNames[field1] );
+
+		int iStart1 = offsets[3*field1];
+		int iStart2 = offsets[3*field2];
+		int iLength = offsets[3*field1+1] - iStart1;
+		if ( offsets[3*field2+1] - iStart2 != iLength )
+			return false;
+
+		for ( int i = 0; i < iLength; i++ )
+			if ( fold ( (char) ( data[iStart1+i] & 0xff ) ) != fold ( (char) ( data[iStart2+i] & 0xff ) ) )
+				return false;
+
+		return true;
+	}
+
+
+	/**
+	 * compares two names ignoring the case of ASCII letters
+	 *
+	 * @param    name1               a  String
+	 * @param    name2               a  String
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	private static boolean equalsFolded ( String name1, String name2 ) {
+		if ( name1.length() != name2.length() )
+			return false;
+
+		for ( int i = 0; i < name1.length(); i++ )
+			if ( fold ( name1.charAt ( i ) ) != fold ( name2.charAt ( i ) ) )
+				return false;
+
+		return true;
+	}
+
+
+	private static int tableSize ( int fields ) {
+		int iSize = 16;
+		while ( iSize < 2 * fields )
+			iSize *= 2;
+		return iSize;
+	}
+
+
+	private static String[] grow ( String[] a, int size ) {
+		String[] result = new String[ size ];
+		System.arraycopy ( a, 0, result, 0, a.length );
+		return result;
+	}
+
+
+	private static int[] grow ( int[] a, int size ) {
+		int[] result = new int[ size ];
+		System.arraycopy ( a, 0, result, 0, a.length );
+		return result;
+	}
+
+}
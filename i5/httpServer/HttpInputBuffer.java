@@ -0,0 +1,203 @@
+package i5.httpServer;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Buffered input of a single connection.
+ *
+ * All requests of a (persistent) connection are read through the same buffer, so that
+ * pipelined requests which have already been received are not lost between two
+ * requests. Before blocking on the underlying stream, pending output is flushed,
+ * which allows the responses to pipelined requests to be collected and written at once.
+ * The time spent waiting for the client can be reported to a {@link ConnectionWatch}.
+ */
+
+class HttpInputBuffer extends InputStream
+{
+
+	private InputStream in;
+
+	private Flushable flushBeforeRead = null;
+
+	private ConnectionWatch watch = null;
+
+	private byte[] buffer;
+	private int iPos = 0;
+	private int iLimit = 0;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param    in                  the InputStream of the connection
+	 * @param    size                the size of the buffer
+	 *
+	 */
+	HttpInputBuffer ( InputStream in, int size ) {
+		this.in = in;
+		buffer = new byte[ size ];
+	}
+
+
+	/**
+	 * sets the output to flush, before waiting for further input
+	 *
+	 * @param    flushable           a  Flushable
+	 *
+	 */
+	void setFlushBeforeRead ( Flushable flushable ) {
+		flushBeforeRead = flushable;
+	}
+
+
+	/**
+	 * sets the watch to report the reads from the underlying stream to
+	 *
+	 * @param    watch               a  ConnectionWatch
+	 *
+	 */
+	void setWatch ( ConnectionWatch watch ) {
+		this.watch = watch;
+	}
+
+
+	/**
+	 * are there received bytes, which have not been read yet?
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	boolean hasBufferedData () {
+		return iPos < iLimit;
+	}
+
+
+	/**
+	 * refills the (empty) buffer from the underlying stream
+	 *
+	 * @return   the number of read bytes or -1 at the end of the stream
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	private int fill () throws IOException {
+		if ( flushBeforeRead != null )
+			flushBeforeRead.flush();
+
+		iPos = 0;
+		iLimit = 0;
+
+		int iRead = readUnbuffered ( buffer, 0, buffer.length );
+		if ( iRead > 0 )
+			iLimit = iRead;
+
+		return iRead;
+	}
+
+
+	/**
+	 * reads from the underlying stream
+	 *
+	 * @param    b                   a  byte[]
+	 * @param    off                 an int
+	 * @param    len                 an int
+	 *
+	 * @return   the number of read bytes or -1 at the end of the stream
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	private int readUnbuffered ( byte[] b, int off, int len ) throws IOException {
+		if ( watch == null )
+			return in.read ( b, off, len );
+
+		watch.beginRead();
+		int iRead = in.read ( b, off, len );
+		watch.endRead ( iRead );
+
+		return iRead;
+	}
+
+
+	public int read () throws IOException {
+		if ( iPos >= iLimit && fill() <= 0 )
+			return -1;
+
+		return buffer[iPos++] & 0xff;
+	}
+
+
+	public int read ( byte[] b, int off, int len ) throws IOException {
+		if ( len == 0 )
+			return 0;
+
+		if ( iPos >= iLimit ) {
+			// large reads do not need to be copied through the buffer
+			if ( len >= buffer.length ) {
+				if ( flushBeforeRead != null )
+					flushBeforeRead.flush();
+				return readUnbuffered ( b, off, len );
+			}
+
+			if ( fill() <= 0 )
+				return -1;
+		}
+
+		int iCopy = Math.min ( len, iLimit - iPos );
+		System.arraycopy ( buffer, iPos, b, off, iCopy );
+		iPos += iCopy;
+
+		return iCopy;
+	}
+
+
+	public long skip ( long n ) throws IOException {
+		if ( n <= 0 )
+			return 0;
+
+		if ( iPos >= iLimit && fill() <= 0 )
+			return 0;
+
+		int iSkip = (int) Math.min ( n, iLimit - iPos );
+		iPos += iSkip;
+
+		return iSkip;
+	}
+
+
+	public int available () throws IOException {
+		return ( iLimit - iPos ) + in.available();
+	}
+
+
+	public void close () throws IOException {
+		in.close();
+	}
+
+
+	/**
+	 * hands the buffered bytes to the given parser until the header of the next
+	 * request is complete. The bytes following the header remain in the buffer.
+	 *
+	 * @param    parser              a  HttpRequestParser
+	 *
+	 * @return   false, if the stream has ended before the header is complete
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	boolean readHeader ( HttpRequestParser parser ) throws IOException {
+		while ( ! parser.isComplete() ) {
+			if ( iPos >= iLimit && fill() <= 0 )
+				return false;
+
+			iPos += parser.parse ( buffer, iPos, iLimit - iPos );
+		}
+
+		return true;
+	}
+
+}
@@ -1,7 +1,13 @@
 package i5.httpServer;
 
 import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Enumeration;
+import java.util.List;
 
 public interface HttpRequest {
 
@@ -92,6 +98,16 @@ public interface HttpRequest {
 	 */
 	public abstract boolean hasHeaderField(String fieldName);
 
+	/**
+	 * returns all values of a header field, which may be repeated in the request
+	 *
+	 * @param    fieldName           a  String
+	 *
+	 * @return   a String[], empty if the field is not defined
+	 *
+	 */
+	public abstract String[] getHeaderFieldValues(String fieldName);
+
 	/**
 	 * returns the names of all defined header fields as an Enumeration of strings.
 	 *
@@ -159,7 +175,72 @@ public interface HttpRequest {
 	public abstract BufferedReader getContentReader();
 
 	/**
-	 * return the content length of the request's body
+	 * returns the content of this request as (decoded) bytes, null if there is none.
+	 * A chunked content is decoded while it is read.
+	 *
+	 * @return   an InputStream
+	 *
+	 */
+	public abstract InputStream getContentStream();
+
+	/**
+	 * returns the content of this request as channel of (decoded) bytes,
+	 * null if there is none
+	 *
+	 * @return   a ReadableByteChannel
+	 *
+	 */
+	public abstract ReadableByteChannel getContentChannel();
+
+	/**
+	 * returns the value of a trailer field sent after a chunked content. Trailer
+	 * fields are only available after the content has been read completely.
+	 *
+	 * @param    fieldName           a  String
+	 *
+	 * @return   a String
+	 *
+	 */
+	public abstract String getTrailerField(String fieldName);
+
+	/**
+	 * returns a parser reading the parts of a <code>multipart/form-data</code>
+	 * content one after another, null if the request has no such content.
+	 * Temporary files of large parts are deleted after the request has been answered.
+	 *
+	 * @return   a MultipartParser
+	 *
+	 */
+	public abstract MultipartParser getMultipartParser();
+
+	/**
+	 * returns the complete (decoded) content as read only buffer with random access,
+	 * null if there is none or it has already been read otherwise. A content larger
+	 * than the spill threshold of the server is stored in a temporary file, which
+	 * is mapped into memory instead of being copied into the heap.
+	 *
+	 * @return   a ByteBuffer
+	 *
+	 * @exception   IOException      the content cannot be read or is too large to be mapped
+	 *
+	 */
+	public abstract ByteBuffer getContentBuffer() throws IOException;
+
+	/**
+	 * returns the channel of the temporary file holding a content larger than the
+	 * spill threshold of the server, null if the content is kept in the heap
+	 * (@see #getContentBuffer). The file is deleted after the request has been answered.
+	 *
+	 * @return   a FileChannel
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	public abstract FileChannel getContentFileChannel() throws IOException;
+
+	/**
+	 * return the content length of the request's body,
+	 * -1 if the content is sent chunked and its length is unknown
 	 *
 	 * @return   an int
 	 *
@@ -214,6 +295,28 @@ public interface HttpRequest {
 	 */
 	public abstract String getPostVar(String name);
 
+	/**
+	 * returns all values of a variable, which may be repeated in the query string,
+	 * in their order, an empty list if it is not defined
+	 *
+	 * @param    name                a  String
+	 *
+	 * @return   a List of Strings
+	 *
+	 */
+	public abstract List<String> getGetVars(String name);
+
+	/**
+	 * returns all values of a variable, which may be repeated in the (url encoded)
+	 * post content, in their order, an empty list if it is not defined
+	 *
+	 * @param    name                a  String
+	 *
+	 * @return   a List of Strings
+	 *
+	 */
+	public abstract List<String> getPostVars(String name);
+
 	/**
 	 * returns the names of all known get variables as enumeration of Strings
 	 *
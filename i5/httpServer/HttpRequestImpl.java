@@ -3,14 +3,21 @@ package i5.httpServer;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.net.SocketTimeoutException;
 import java.net.URLDecoder;
 import java.util.Enumeration;
 import java.util.Hashtable;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
 import java.io.BufferedReader;
+import java.nio.charset.Charset;
 
 
 
@@ -25,29 +32,67 @@ import java.io.BufferedReader;
 
 public class HttpRequestImpl implements HttpRequest {
 	private int iMethod = METHOD_UNKNOWN;
-	private Hashtable htHeader = new Hashtable();
-	private Hashtable htPostVars = null;
-	private Hashtable htGetVars  = null;
+	private HeaderFields headerFields = null;
+	private FormParameters postVars = null;
+	private FormParameters getVars  = null;
 	
 	
 	private BufferedReader contentReader = null;
 	
+	private InputStream connectionInput = null;
+	
+	private ContentInputStream contentStream = null;
+	
 	private String contentString = null;
 	
 	private boolean bContentRead = false;
 	
+	private boolean bContentReaderUsed = false;
+	
+	private boolean bChunked = false;
+	
+	private String sContentCoding = null;
+	
+	private InputStream decodedStream = null;
+	
+	/** default maximal size in bytes of a decompressed content */
+	public static final long DEFAULT_MAX_DECOMPRESSED_SIZE = 64L * 1024 * 1024;
+	
+	private long lMaxDecompressedSize = DEFAULT_MAX_DECOMPRESSED_SIZE;
+	
+	private long lMaxContentLength = Long.MAX_VALUE;
+	
+	/** size of the buffer a content of known length is read into at first */
+	private static final int INITIAL_CONTENT_BUFFER = 64 * 1024;
+	
+	private MultipartParser multipartParser = null;
+	
+	/** default content size in bytes above which the content is stored in a temporary file */
+	public static final int DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+	
+	private int iSpillThreshold = DEFAULT_SPILL_THRESHOLD;
+	
+	private boolean bContentStored = false;
+	private ByteBuffer contentBuffer = null;
+	private File contentFile = null;
+	private FileChannel contentFileChannel = null;
+	
 	private String sUrl         = null;
 	private String sProtocol    = null;
 	private String sHost        = null;
 	private int    iPort        = -1;
 	private String sPath        = null;
 	private String sQueryString = null;
+	/* the query as received, null if there is none */
+	private byte[] query = null;
 	
 	private int    iContentLength = 0;
 	private int    iProtocolVersion = HTTP_VERSION_UNKNOWN;
 	
+	private static final Charset UTF_8 = Charset.forName ( "UTF-8" );
+	
 	private Socket incomingSocket = null;
-	private String[] _localHeader;
+	private String sRequestLine = null;
 		
 	
 	/**
@@ -62,6 +107,20 @@ public class HttpRequestImpl implements HttpRequest {
 		contentReader = input;
 	}
 	
+	/**
+	 * Constructor reading the content of the request as bytes from the given
+	 * input of the connection, which will not be read beyond the end of this request
+	 *
+	 * @param    input               the input of the connection
+	 * @param    socket              the accepted socket corresponding to this request
+	 *
+	 */
+	HttpRequestImpl ( InputStream input, Socket socket ) {
+		incomingSocket = socket;
+		
+		connectionInput = input;
+	}
+	
 	/**
 	 * Constructor
 	 *
@@ -133,7 +192,10 @@ public class HttpRequestImpl implements HttpRequest {
 	 */
 	@Override
 	public String getHeaderField ( String fieldName ) {
-		return (String) htHeader.get ( fieldName.toLowerCase() );
+		if ( headerFields == null )
+			return null;
+		
+		return headerFields.get ( fieldName );
 	}
 	
 	/* (non-Javadoc)
@@ -144,12 +206,26 @@ public class HttpRequestImpl implements HttpRequest {
 		return getHeaderField(fieldName) != null;
 	}
 	
+	/* (non-Javadoc)
+	 * @see i5.httpServer.HttpRequest#getHeaderFieldValues(java.lang.String)
+	 */
+	@Override
+	public String[] getHeaderFieldValues ( String fieldName ) {
+		if ( headerFields == null )
+			return new String[ 0 ];
+		
+		return headerFields.getAll ( fieldName );
+	}
+	
 	/* (non-Javadoc)
 	 * @see i5.httpServer.HttpRequest#getHeaderFieldNames()
 	 */
 	@Override
 	public Enumeration getHeaderFieldNames () {
-		return htHeader.keys ();
+		if ( headerFields == null )
+			return new Hashtable().keys();
+		
+		return headerFields.names ();
 	}
 	
 	/* (non-Javadoc)
@@ -205,10 +281,372 @@ public class HttpRequestImpl implements HttpRequest {
 	 */
 	@Override
 	public BufferedReader getContentReader () {
-		if ( iContentLength > 0 )
-			return contentReader;
-		else
+		if ( hasContent() ) {
+			bContentReaderUsed = true;
+			return getReader();
+		} else
+			return null;
+	}
+	
+	/* (non-Javadoc)
+	 * @see i5.httpServer.HttpRequest#getContentStream()
+	 */
+	@Override
+	public InputStream getContentStream () {
+		if ( ! hasContent() || connectionInput == null )
+			return null;
+		
+		bContentReaderUsed = true;
+		return getDecodedStream();
+	}
+	
+	/* (non-Javadoc)
+	 * @see i5.httpServer.HttpRequest#getContentChannel()
+	 */
+	@Override
+	public ReadableByteChannel getContentChannel () {
+		InputStream in = getContentStream();
+		if ( in == null )
+			return null;
+		
+		return Channels.newChannel ( in );
+	}
+	
+	/* (non-Javadoc)
+	 * @see i5.httpServer.HttpRequest#getTrailerField(java.lang.String)
+	 */
+	@Override
+	public String getTrailerField ( String fieldName ) {
+		if ( ! ( contentStream instanceof ChunkedInputStream ) )
 			return null;
+		
+		HeaderFields trailer = ((ChunkedInputStream) contentStream).getTrailer();
+		if ( trailer == null )
+			return null;
+		
+		return trailer.get ( fieldName );
+	}
+	
+	/* (non-Javadoc)
+	 * @see i5.httpServer.HttpRequest#getMultipartParser()
+	 */
+	@Override
+	public MultipartParser getMultipartParser () {
+		if ( multipartParser != null )
+			return multipartParser;
+		
+		String sContentType = getContentType();
+		if ( sContentType == null || ! sContentType.toLowerCase().startsWith ( "multipart/form-data" ) )
+			return null;
+		
+		String sBoundary = MultipartPart.getParameter ( sContentType, "boundary" );
+		if ( sBoundary == null || sBoundary.length() == 0 || sBoundary.length() > 200 )
+			return null;
+		
+		InputStream in = getContentStream();
+		if ( in == null )
+			return null;
+		
+		multipartParser = new MultipartParser ( in, sBoundary );
+		return multipartParser;
+	}
+	
+	/* (non-Javadoc)
+	 * @see i5.httpServer.HttpRequest#getContentBuffer()
+	 */
+	@Override
+	public ByteBuffer getContentBuffer () throws IOException {
+		if ( ! bContentStored && ! storeContent() )
+			return null;
+		
+		if ( contentBuffer == null )
+			throw new IOException ( "Content is too large to be mapped into memory!" );
+		
+		// every caller gets its own position and limit
+		return contentBuffer.duplicate();
+	}
+	
+	/* (non-Javadoc)
+	 * @see i5.httpServer.HttpRequest#getContentFileChannel()
+	 */
+	@Override
+	public FileChannel getContentFileChannel () throws IOException {
+		if ( ! bContentStored && ! storeContent() )
+			return null;
+		
+		return contentFileChannel;
+	}
+	
+	/**
+	 * sets the content size in bytes above which the content is stored in a
+	 * temporary file instead of the heap by {@link #getContentBuffer}
+	 *
+	 * @param    threshold           an int
+	 *
+	 */
+	void setSpillThreshold ( int threshold ) {
+		iSpillThreshold = threshold;
+	}
+	
+	/**
+	 * reads the complete content into memory or, if it exceeds the spill
+	 * threshold, into a temporary file mapped into memory
+	 *
+	 * @return   false, if there is no content or it has already been read otherwise
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	private boolean storeContent () throws IOException {
+		if ( bContentRead || bContentReaderUsed )
+			return false;
+		
+		InputStream in = getContentStream();
+		if ( in == null )
+			return false;
+		bContentStored = true;
+		
+		try {
+			// a content up to the threshold is kept in the heap
+			byte[] data = new byte[ 0 ];
+			int iLength = 0;
+			boolean bUnknownLength = ! isLengthKnown();
+			if ( bUnknownLength || iContentLength <= iSpillThreshold ) {
+				data = new byte[ bUnknownLength ? (int) Math.min ( 8192, iSpillThreshold + 1L ) : iContentLength ];
+				
+				boolean bEnd = false;
+				while ( ! bEnd ) {
+					if ( iLength == data.length ) {
+						if ( ! bUnknownLength || data.length > iSpillThreshold )
+							break;
+						
+						byte[] grown = new byte[ (int) Math.min ( Math.min ( data.length * 2L, iSpillThreshold + 1L ), Integer.MAX_VALUE - 8 ) ];
+						System.arraycopy ( data, 0, grown, 0, iLength );
+						data = grown;
+					}
+					
+					int iNowRead = in.read ( data, iLength, data.length - iLength );
+					if ( iNowRead < 0 )
+						bEnd = true;
+					else
+						iLength += iNowRead;
+				}
+				
+				if ( bEnd || ! bUnknownLength ) {
+					contentBuffer = ByteBuffer.wrap ( data, 0, iLength ).slice().asReadOnlyBuffer();
+					return true;
+				}
+			}
+			
+			// too large for the heap, the rest is streamed to a temporary file
+			contentFile = File.createTempFile ( "content", ".tmp" );
+			contentFileChannel = new RandomAccessFile ( contentFile, "rw" ).getChannel();
+			contentFileChannel.write ( ByteBuffer.wrap ( data, 0, iLength ) );
+			
+			BufferPool pool = BufferPool.getShared();
+			byte[] buffer = pool.acquire ( 64 * 1024 );
+			try {
+				int iNowRead;
+				while ( ( iNowRead = in.read ( buffer ) ) >= 0 )
+					contentFileChannel.write ( ByteBuffer.wrap ( buffer, 0, iNowRead ) );
+			} finally {
+				pool.release ( buffer );
+			}
+			
+			long lSize = contentFileChannel.size();
+			contentFileChannel.position ( 0 );
+			if ( lSize <= Integer.MAX_VALUE )
+				contentBuffer = contentFileChannel.map ( FileChannel.MapMode.READ_ONLY, 0, lSize );
+			
+			return true;
+		} catch ( SocketTimeoutException e ) {
+			throw new IOException ( "Timeout while reading the content!", e );
+		}
+	}
+	
+	/**
+	 * releases the resources held for this request after it has been answered,
+	 * e.g. the temporary files of the content or of a multipart content
+	 *
+	 */
+	void releaseResources () {
+		if ( multipartParser != null )
+			multipartParser.close();
+		
+		if ( decodedStream instanceof DecompressingInputStream )
+			((DecompressingInputStream) decodedStream).close();
+		
+		if ( contentFileChannel != null ) {
+			try {
+				contentFileChannel.close();
+			} catch ( IOException e ) {
+			}
+			contentFileChannel = null;
+		}
+		
+		if ( contentFile != null ) {
+			contentFile.delete();
+			contentFile = null;
+		}
+		contentBuffer = null;
+	}
+	
+	/**
+	 * does this request have a content (of known length or chunked)?
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	boolean hasContent () {
+		return iContentLength > 0 || bChunked;
+	}
+	
+	/**
+	 * does the client wait for a <code>100 Continue</code> before sending the content?
+	 * The expectation is ignored for HTTP/1.0 requests.
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	boolean isContinueExpected () {
+		if ( iProtocolVersion != HTTP_VERSION_1_1 || ! hasContent() )
+			return false;
+		
+		String sExpect = getHeaderField ( "Expect" );
+		return sExpect != null && sExpect.toLowerCase().indexOf ( "100-continue" ) >= 0;
+	}
+	
+	/**
+	 * returns the reader for the content, for requests read from the connection's input
+	 * it is limited to the content of this request
+	 *
+	 * @return   a BufferedReader
+	 *
+	 */
+	private BufferedReader getReader () {
+		if ( contentReader == null && connectionInput != null )
+			contentReader = new BufferedReader ( new InputStreamReader ( getDecodedStream(), getContentCharset() ) );
+		
+		return contentReader;
+	}
+	
+	/**
+	 * returns the stream of the content bytes of this request, decompressed
+	 * according to its Content-Encoding
+	 *
+	 * @return   an InputStream
+	 *
+	 */
+	private InputStream getDecodedStream () {
+		if ( decodedStream == null ) {
+			if ( sContentCoding != null )
+				decodedStream = new DecompressingInputStream ( getBodyStream(), sContentCoding, lMaxDecompressedSize );
+			else
+				decodedStream = getBodyStream();
+		}
+		
+		return decodedStream;
+	}
+	
+	/**
+	 * is the number of content bytes known in advance, i.e. the content is neither
+	 * chunked nor compressed?
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	private boolean isLengthKnown () {
+		return ! bChunked && sContentCoding == null;
+	}
+	
+	/**
+	 * can the Content-Encoding of this request be decoded?
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	boolean isContentCodingSupported () {
+		return sContentCoding == null || DecompressingInputStream.isSupported ( sContentCoding );
+	}
+	
+	/**
+	 * sets the maximal number of bytes a compressed content may expand to
+	 *
+	 * @param    maxSize             a long
+	 *
+	 */
+	void setMaxDecompressedSize ( long maxSize ) {
+		lMaxDecompressedSize = maxSize;
+	}
+	
+	/**
+	 * sets the maximal number of bytes of a chunked content, a Content-Length
+	 * is already checked while parsing the header
+	 *
+	 * @param    maxLength           a long
+	 *
+	 */
+	void setMaxContentLength ( long maxLength ) {
+		lMaxContentLength = maxLength;
+	}
+	
+	/**
+	 * has the content been rejected while reading for exceeding the maximal length?
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	boolean isContentTooLarge () {
+		return contentStream instanceof ChunkedInputStream && ((ChunkedInputStream) contentStream).isTooLarge();
+	}
+	
+	/**
+	 * returns the stream of the (dechunked) content bytes of this request as transferred
+	 *
+	 * @return   a ContentInputStream
+	 *
+	 */
+	private ContentInputStream getBodyStream () {
+		if ( contentStream == null ) {
+			if ( bChunked )
+				contentStream = new ChunkedInputStream ( connectionInput, lMaxContentLength );
+			else
+				contentStream = new ContentInputStream ( connectionInput, iContentLength );
+		}
+		
+		return contentStream;
+	}
+	
+	/**
+	 * returns the charset given in the Content-Type field, UTF-8 if there is none
+	 * or if it is not supported
+	 *
+	 * @return   a Charset
+	 *
+	 */
+	Charset getContentCharset () {
+		String sContentType = getContentType();
+		if ( sContentType != null ) {
+			int iStart = sContentType.toLowerCase().indexOf ( "charset=" );
+			if ( iStart >= 0 ) {
+				iStart += 8;
+				int iEnd = sContentType.indexOf ( ';', iStart );
+				if ( iEnd < 0 )
+					iEnd = sContentType.length();
+				
+				String sCharset = sContentType.substring ( iStart, iEnd ).trim();
+				if ( sCharset.length() > 1 && sCharset.charAt ( 0 ) == '"' && sCharset.charAt ( sCharset.length() - 1 ) == '"' )
+					sCharset = sCharset.substring ( 1, sCharset.length() - 1 );
+				
+				try {
+					return Charset.forName ( sCharset );
+				} catch ( IllegalArgumentException e ) {
+					// unknown or illegal charset name
+				}
+			}
+		}
+		
+		return UTF_8;
 	}
 	
 	/* (non-Javadoc)
@@ -255,10 +693,19 @@ public class HttpRequestImpl implements HttpRequest {
 	 */
 	@Override
 	public String getGetVar ( String name ) {
-		if ( htGetVars == null )
-			decodeGetVars();
+		decodeGetVars();
+		
+		return getVars.get ( name );
+	}
+	
+	/* (non-Javadoc)
+	 * @see i5.httpServer.HttpRequest#getGetVars(java.lang.String)
+	 */
+	@Override
+	public List<String> getGetVars ( String name ) {
+		decodeGetVars();
 		
-		return (String) htGetVars.get ( name );
+		return getVars.getAll ( name );
 	}
 		
 	/* (non-Javadoc)
@@ -266,10 +713,19 @@ public class HttpRequestImpl implements HttpRequest {
 	 */
 	@Override
 	public String getPostVar ( String name ) {
-		if ( htGetVars == null )
-			decodePostVars();
+		decodePostVars();
 		
-		return (String) htPostVars.get ( name );
+		return postVars.get ( name );
+	}
+	
+	/* (non-Javadoc)
+	 * @see i5.httpServer.HttpRequest#getPostVars(java.lang.String)
+	 */
+	@Override
+	public List<String> getPostVars ( String name ) {
+		decodePostVars();
+		
+		return postVars.getAll ( name );
 	}
 	
 	/* (non-Javadoc)
@@ -277,10 +733,9 @@ public class HttpRequestImpl implements HttpRequest {
 	 */
 	@Override
 	public Enumeration getGetVarNames () {
-		if ( htGetVars == null )
-			decodeGetVars();
+		decodeGetVars();
 		
-		return htGetVars.keys ();
+		return getVars.names ();
 	}
 	
 	/* (non-Javadoc)
@@ -288,19 +743,18 @@ public class HttpRequestImpl implements HttpRequest {
 	 */
 	@Override
 	public Enumeration getPostVarNames () {
-		if ( htPostVars == null )
-			decodePostVars ();
+		decodePostVars ();
 		
-		return htPostVars.keys();
+		return postVars.names();
 	}
 	
 	public String toString()
 	{
-		String s="";
-		for (int i = 0; i < _localHeader.length; i++) {
-			s+=_localHeader[i]+"\n";
-		}
-		return s;
+		StringBuffer sb = new StringBuffer ();
+		sb.append ( sRequestLine ).append ( "\n" );
+		for (int i = 0; headerFields != null && i < headerFields.size(); i++ )
+			sb.append ( headerFields.getName ( i ) ).append ( ": " ).append ( headerFields.getValue ( i ) ).append ( "\n" );
+		return sb.toString();
 	}
 	
 	
@@ -324,207 +778,171 @@ public class HttpRequestImpl implements HttpRequest {
 	
 	
 	/**
-	 * parses the header of the request and thows the corresponding exceptions
+	 * takes over the header of the request from the parser. Malformed and unsupported
+	 * requests are reported by the status to answer them with instead of an exception,
+	 * so that junk traffic is cheap to reject.
 	 *
-	 * @param    header              a  String[]
+	 * @param    parser              the parser, which has read the complete header
 	 *
-	 * @exception   InvalidMethodException
-	 * @exception   MalformedHeaderException
-	 * @exception   UnsupportedProtocolVersionException
+	 * @return   {@link HttpResponse#STATUS_OK} or the status of the error response
 	 *
 	 */
-	void parseHeader ( String[] header )
-		throws InvalidMethodException, MalformedHeaderException, UnsupportedProtocolVersionException
-	{
-		// first line:
-		_localHeader = header.clone();
-		Pattern pFirstLine = Pattern.compile( "([A-Z]+) (.*) HTTP/([0-9])\\.([0-9])" );
-		Matcher mFirstLine = pFirstLine.matcher( header[0] );
+	int parseHeader ( HttpRequestParser parser ) {
+		sRequestLine = parser.getRequestLine();
 		
-		if ( ! mFirstLine.matches() )
-			throw new MalformedHeaderException ( "Firstline '" + header [0] + "' cannot be matched to a valid request!" );
-			
-		String method = mFirstLine.group( 1 );
+		int iStatus = checkRequestLine ( parser );
+		if ( iStatus != HttpResponse.STATUS_OK )
+			return iStatus;
 		
-		sUrl = mFirstLine.group ( 2 );
-		String mayor = mFirstLine.group ( 3 );
-		String minor = mFirstLine.group ( 4 );
+		sUrl = parser.getTarget();
+		query = parser.getQuery();
+		iMethod = toRequestMethod ( parser.getMethod() );
+		iProtocolVersion = ( parser.getMinorVersion() == 1 ) ? HTTP_VERSION_1_1 : HTTP_VERSION_1_0;
 		
-		// set request method
-		iMethod = getRequestMethod ( method );
+		// parse request String
+		// match http:// (abs url)
+		if ( ! extractUriParts(sUrl) )
+			return HttpResponse.STATUS_BAD_REQUEST;
 		
-		// set protocol verion
-		if ( mayor.equals ( "1" ) )
-			if ( minor.equals ( "1" ) )
-				iProtocolVersion = HTTP_VERSION_1_1;
-			else if ( minor.equals ( "0" ) )
-				iProtocolVersion = HTTP_VERSION_1_0;
+		// header fields, decoded on first access
+		headerFields = parser.getHeaderFields();
 		
-		if ( iProtocolVersion == HTTP_VERSION_UNKNOWN )
-			throw new UnsupportedProtocolVersionException ( mayor + "." + minor );
+		// Content-Length does not fit into an int
+		if ( parser.getContentLength() > Integer.MAX_VALUE )
+			return HttpResponse.STATUS_BAD_REQUEST;
+		iContentLength = (int) parser.getContentLength();
 		
-		// parse request String
-		// match http:// (abs url)
-		extractUriParts(sUrl);
-				
-				
-		// parse header fields
-		for ( int i = 1; i < header.length; i++ ) {
-			String[] asSplit = header[i].split( ":", 2 );
-			
-			if ( asSplit.length < 2 )
-				// malformed header field: no ":" contained
-				throw new MalformedHeaderException ( "Header Line " + i + " does not contain a :!" );
-			
-			// turn to lower case (since the header fiels are case insensitive)
-			asSplit[0] = asSplit[0].toLowerCase();
-			
-			asSplit[1] = asSplit[1];//.toLowerCase(); - BAAAD Idea, if yomething is send Base64 encoded
-			
-			// remove leading whitespaces
-			asSplit[1] = asSplit[1].replaceAll ( "^\\s+", "" );
-			
-			htHeader.put ( asSplit[0], asSplit[1] );
-			
-			if ( asSplit[0].equals ( "content-length" ) ) {
-				try {
-					iContentLength = Integer.valueOf( asSplit[1] ).intValue();
-				} catch (NumberFormatException e) {
-					throw new MalformedHeaderException ( "Content-Length does not contain a valid integer format!" );
-				}
-			}
+		// the length of a chunked content is unknown
+		bChunked = parser.isChunked();
+		if ( bChunked )
+			iContentLength = -1;
+		
+		// the content coding is removed transparently while the content is read
+		sContentCoding = getHeaderField ( "Content-Encoding" );
+		if ( sContentCoding != null ) {
+			sContentCoding = sContentCoding.trim().toLowerCase();
+			if ( sContentCoding.length() == 0 || sContentCoding.equals ( "identity" ) )
+				sContentCoding = null;
 		}
 		
-		checkRequest();
+		return checkRequest();
+	}
+	
+	
+	/**
+	 * checks the request line of a parsed header, which is possible before
+	 * the request is created, e.g. by an event loop
+	 *
+	 * @param    parser              the parser, which has read the complete header
+	 *
+	 * @return   {@link HttpResponse#STATUS_OK} or the status of the error response
+	 *
+	 */
+	static int checkRequestLine ( HttpRequestParser parser ) {
+		if ( parser.getError() != null )
+			return parser.getErrorStatus();
+		
+		if ( toRequestMethod ( parser.getMethod() ) == METHOD_UNKNOWN )
+			return HttpResponse.STATUS_NOT_IMPLEMENTED;
+		
+		if ( parser.getMajorVersion() != 1 || ( parser.getMinorVersion() != 0 && parser.getMinorVersion() != 1 ) )
+			return HttpResponse.STATUS_HTTP_VERSION_NOT_SUPPORTED;
+		
+		return HttpResponse.STATUS_OK;
 	}
 
-	private void extractUriParts(String url) throws MalformedHeaderException {
-		Pattern pRequest = Pattern.compile ( "(https?)://([^:/?]+)(:([0-9]+))?(/[^?]*)?(\\?(.*))?" );
-		Matcher mRequest = pRequest.matcher ( url );
-		if ( mRequest.matches() ) {
-			sProtocol = mRequest.group ( 1 );
-			sHost = mRequest.group ( 2 );
-			if ( mRequest.group ( 3 ) != null )
-				iPort = Integer.valueOf( mRequest.group(4) ).intValue();
-			sPath = mRequest.group ( 5);
-			sQueryString = mRequest.group (7 );
-		} else {
-			// match /  ( abs server path )
-			pRequest = Pattern.compile ( "(/[^?]*)(\\?(.*))?" );
-			mRequest = pRequest.matcher ( url );
-			if ( mRequest.matches() ) {
-				sPath = mRequest.group ( 1 );
-				sQueryString = mRequest.group ( 3 );
-			} else
-				throw new MalformedHeaderException ( "No absolute uri or absolute server path requested!" );
-		}
-		try {
-			if(sQueryString!=null)
-				sQueryString=new String (sQueryString.getBytes(),"UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+	private boolean extractUriParts(String url) {
+		RequestUri uri = RequestUri.parse ( url );
+		if ( uri == null )
+			return false;
+		
+		sProtocol = uri.getProtocol();
+		sHost = uri.getHost();
+		iPort = uri.getPort();
+		sPath = uri.getPath();
+		sQueryString = uri.getQueryString();
+		return true;
 	}
 	
 	
 	/**
 	 * Checks further valitity of this request
 	 *
-	 * @exception   MalformedHeaderException
+	 * @return   {@link HttpResponse#STATUS_OK} or {@link HttpResponse#STATUS_BAD_REQUEST}
 	 *
 	 */
-	private void checkRequest () throws MalformedHeaderException {
+	private int checkRequest () {
 		if ( getProtocolVersion() == HttpRequest.HTTP_VERSION_1_1 ) {
+			// Http 1.1 request lacks host header field
 			if (! hasHeaderField( "Host" ))
-				throw new MalformedHeaderException ( "Http 1.1 request lacks host header field!" );
+				return HttpResponse.STATUS_BAD_REQUEST;
 			else if ( getHost() != null ) {
+				// Host header field has to fit the host in the requested url
 				if ( getPort() > 0 ) {
 					if ( ! getHeaderField("Host").equals ( getHost() + ":" + getPort() ) )
-						throw new MalformedHeaderException ( "Host header field does not fit host in the requested url!" );
+						return HttpResponse.STATUS_BAD_REQUEST;
 				} else {
 					if ( ! getHeaderField("Host").equals ( getHost() ) )
-						throw new MalformedHeaderException ( "Host header field does not fit host in the requested url!" );
+						return HttpResponse.STATUS_BAD_REQUEST;
 				}
 			}
 		}
+		return HttpResponse.STATUS_OK;
 	}
 
 	
 	/**
-	 * Decodes the query string into a hashtable containing the mapping
-	 * var name -> value, which will be stored in htGetVars.
+	 * Splits the query string into its (multi-valued) parameters, which
+	 * are decoded on access.
 	 *
 	 * Will be executed maximal once per request.
 	 *
 	 */
 	private void decodeGetVars() {
-		if ( htGetVars != null ) return;
+		if ( getVars != null ) return;
 		
-		htGetVars = new Hashtable();
-		
-		if ( sQueryString == null ) return ;
-		
-		String[] asParts = sQueryString.split( "&" );
-		
-		for ( int i = 0; i< asParts.length; i++ ) {
-			String[] asDecode = asParts[i].split( "=", 2 );
-			
-			// decode urlencoding
-			asDecode[1] = decodeUrlEncoded( asDecode[1] );
-			
-			htGetVars.put ( asDecode[0], asDecode[1] );
+		if ( sQueryString == null ) {
+			getVars = FormParameters.empty();
+			return;
 		}
+		
+		// the raw bytes, so that percent escapes and unescaped characters are decoded once
+		byte[] data = query != null ? query : sQueryString.getBytes ( UTF_8 );
+		getVars = new FormParameters ( data, 0, data.length, UTF_8 );
 	}
 	
 	/**
 	 * Tries to interpret the content as a post sending of form fields.
 	 * This does only have an effect, if we have content,
-	 * the content is readable as a String
-	 * (i.e. has not been read as bytearray etc.) and the content-type of
-	 * the request is text/url-encoded.
+	 * the content has not been read as stream or via the reader
+	 * and the content-type of the request is application/x-www-form-urlencoded.
 	 *
-	 * After successfull completion the post variables are stored as a mapping
-	 * fieldname -> value into the Hashtable htPostVars.
+	 * After successfull completion the post variables are stored as
+	 * (multi-valued) parameters, which are decoded on access.
 	 *
 	 * Will be executed at most once per request.
 	 */
 	private void decodePostVars () {
-		if ( htPostVars != null ) return;
+		if ( postVars != null ) return;
 		
-		htPostVars = new Hashtable ();
-
-		if ( ! "application/x-www-form-urlencoded".equals(getContentType()) )
+		postVars = FormParameters.empty();
+		
+		String sContentType = getContentType();
+		if ( sContentType == null || ! sContentType.toLowerCase().startsWith ( "application/x-www-form-urlencoded" ) )
 			return;
 		
 		try {
-			if ( contentString == null && !bContentRead )
-				readContentAsString ();
+			// the stored bytes are parsed in place, if the content has not been read as String before
+			ByteBuffer buffer = bContentRead ? null : getContentBuffer();
+			if ( buffer != null )
+				postVars = new FormParameters ( buffer, getContentCharset() );
+			else if ( getContentString() != null ) {
+				byte[] data = contentString.getBytes ( getContentCharset() );
+				postVars = new FormParameters ( data, 0, data.length, getContentCharset() );
+			}
 		} catch (IOException e) {
 			// hmm, what to do?
 			return;
-		} catch ( TimeoutException e ) {
-			// hm, whate to do?
-			
-			e.printStackTrace();
-			
-			return;
-		}
-		
-		if ( contentString == null )
-			return;
-		
-		String[] asParts = contentString.split( "&" );
-		
-		for ( int i = 0; i< asParts.length; i++ ) {
-			String[] asDecode = asParts[i].split( "=", 2 );
-			
-			// decode urlencoding
-			if ( asDecode.length < 2 )
-					continue;
-			asDecode[1] = decodeUrlEncoded( asDecode[1] );
-			
-			htPostVars.put ( asDecode[0], asDecode[1] );
 		}
 	}
 	
@@ -534,59 +952,143 @@ public class HttpRequestImpl implements HttpRequest {
 	 * after successfull completion, the content ist stored in te attribute
 	 * contentString
 	 *
-	 * @exception   UnsupportedEncodingException
 	 * @exception   IOException
+	 * @exception   TimeoutException	no content has been received within the socket's timeout
 	 *
 	 */
-	private void readContentAsString () throws UnsupportedEncodingException, IOException, TimeoutException {
+	private void readContentAsString () throws IOException, TimeoutException {
 		if ( bContentRead ) return;
 		bContentRead = true;
-		String sEncoding = getHeaderField( "Content-Encoding" );
-		if ( sEncoding == null ) {
-			try {
-				String sContentType = getContentType();
-				String[] asTypeParse = sContentType.split ( ";", 2 );
-				String[] asCharsetParse = asTypeParse[1].split ( "=", 2 );
-				if ( asCharsetParse[0].toLowerCase().indexOf( "charset" ) >= 0 ) {
-					sEncoding = asCharsetParse[1];
-					sEncoding = sEncoding.replaceAll( "\\s+", "" );
+		
+		try {
+			if ( bContentStored ) {
+				// the content has been stored by getContentBuffer()
+				if ( contentBuffer != null )
+					contentString = getContentCharset().decode ( contentBuffer.duplicate() ).toString();
+			} else if ( connectionInput != null && ! bContentReaderUsed )
+				contentString = readContentBytes ();
+			else
+				contentString = readContentChars ( getReader() );
+		} catch ( SocketTimeoutException e ) {
+			throw new TimeoutException ();
+		}
+	}
+	
+	/**
+	 * reads exactly the content length bytes into a pooled buffer and decodes them
+	 * with the charset of the request
+	 *
+	 * @return   a String
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	private String readContentBytes () throws IOException {
+		InputStream in = getDecodedStream();
+		boolean bUnknownLength = ! isLengthKnown();
+		BufferPool pool = BufferPool.getShared();
+		// the buffer grows with the received bytes, a claimed Content-Length alone allocates nothing
+		byte[] buffer = pool.acquire ( bUnknownLength ? 8192 : Math.min ( iContentLength, INITIAL_CONTENT_BUFFER ) );
+		
+		try {
+			int iRead = 0;
+			while ( bUnknownLength || iRead < iContentLength ) {
+				if ( iRead == buffer.length ) {
+					int iGrown = buffer.length * 2;
+					if ( ! bUnknownLength )
+						iGrown = (int) Math.min ( iGrown, (long) iContentLength );
+					
+					byte[] grown = pool.acquire ( iGrown );
+					System.arraycopy ( buffer, 0, grown, 0, iRead );
+					pool.release ( buffer );
+					buffer = grown;
 				}
-			} catch ( NullPointerException e ) {
-				//occurs, if the header field is not ste or does not contain
-				// a charset information
-			} catch ( ArrayIndexOutOfBoundsException e ) {
-				// occurs, if split "fails"
+				
+				int iNowRead = in.read ( buffer, iRead, bUnknownLength ? buffer.length - iRead : Math.min ( buffer.length, iContentLength ) - iRead );
+				if ( iNowRead < 0 )
+					break;
+				iRead += iNowRead;
 			}
+			
+			return new String ( buffer, 0, iRead, getContentCharset() );
+		} finally {
+			pool.release ( buffer );
 		}
-		int iDesired = getContentLength();
-		char[] read = new char[ iDesired ];
-		int iRead = 0;
-		int iWaited = 0;
-		String s = "";
-		while ( s.trim().getBytes().length < iDesired) {
-			int iNowRead = contentReader.read ( read, iRead, iDesired-iRead );
-			s = new String(read);
-			iRead += iNowRead;
-			if ( iNowRead == 0 ) {
-				// Check if accidentially removed a control symbol with .trim()
-				if (s.trim().getBytes().length + 1 >= iDesired) {
+	}
+	
+	/**
+	 * reads the (remaining) content from a reader, which may not be limited to the
+	 * content, so no more characters than bytes missing are requested
+	 *
+	 * @param    reader              a  BufferedReader
+	 *
+	 * @return   a String
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	private String readContentChars ( BufferedReader reader ) throws IOException {
+		StringBuilder sb = new StringBuilder ( Math.max ( iContentLength, 16 ) );
+		boolean bUnknownLength = ! isLengthKnown();
+		char[] buffer = new char[ bUnknownLength ? 4096 : Math.min ( iContentLength, 4096 ) ];
+		
+		long lBytes = 0;
+		while ( bUnknownLength || lBytes < iContentLength ) {
+			int iNowRead = reader.read ( buffer, 0, bUnknownLength ? buffer.length : (int) Math.min ( buffer.length, iContentLength - lBytes ) );
+			if ( iNowRead < 0 ) {
+				// the content stream of the connection ends exactly at the content length
+				if ( contentStream != null )
 					break;
-				}
-				iWaited += 200;
-				try {
-					Thread.sleep ( 200 );
-				} catch (InterruptedException e) {
-				}
-				
-				if ( iWaited >= 10*1000 )
-					throw new TimeoutException ();
-			} else if ( iNowRead == -1 ) {
 				throw new IOException ( "Content stream has ended before content length has been reached!" );
-			} else {
-				iWaited = 0;
 			}
-		}	
-		contentString = (new String (read)).trim();
+			
+			sb.append ( buffer, 0, iNowRead );
+			for ( int i = 0; i < iNowRead; i++ ) {
+				char c = buffer[i];
+				lBytes += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate ( c ) ? 2 : 3;
+			}
+		}
+		
+		return sb.toString();
+	}
+	
+	
+	/**
+	 * reads the rest of the content, if it has not been read by the handler,
+	 * so that the next request on the same connection can be read
+	 *
+	 * @param    limit               the maximal number of content bytes to skip
+	 *
+	 * @return   false, if the end of the content cannot be determined or the
+	 *           rest of the content exceeds the limit
+	 *
+	 */
+	boolean skipContent ( long limit ) {
+		if ( ! hasContent() )
+			return true;
+		
+		if ( connectionInput != null ) {
+			try {
+				return getBodyStream().drain ( limit );
+			} catch ( IOException e ) {
+				return false;
+			}
+		}
+		
+		if ( bContentRead )
+			return true;
+		
+		// the handler may have read an unknown part of the content itself
+		if ( bContentReaderUsed )
+			return false;
+		
+		try {
+			readContentAsString ();
+		} catch ( Exception e ) {
+			return false;
+		}
+		
+		return contentString != null;
 	}
 	
 	
@@ -648,7 +1150,7 @@ public class HttpRequestImpl implements HttpRequest {
 	}
 	
 	/* matching method name -> method constant */
-	private static Hashtable<String, Integer> htMethods = null;
+	private static volatile Hashtable<String, Integer> htMethods = null;
 	
 	/**
 	 * Matches a string name of a http method to the corresponding constant
@@ -659,22 +1161,44 @@ public class HttpRequestImpl implements HttpRequest {
 	 *
 	 */
 	public static int getRequestMethod ( String method ) throws InvalidMethodException {
-		if ( htMethods == null ) {
-			htMethods = new Hashtable<String, Integer> ( 8 );
-			htMethods.put ( "POST",    new Integer ( METHOD_POST ) );
-			htMethods.put ( "GET" ,    new Integer ( METHOD_GET  ) );
-			htMethods.put ( "HEAD" ,   new Integer ( METHOD_HEAD  ) );
-			htMethods.put ( "PUT" ,    new Integer ( METHOD_PUT  ) );
-			htMethods.put ( "DELETE" , new Integer ( METHOD_DELETE  ) );
-			htMethods.put ( "TRACE" ,  new Integer ( METHOD_TRACE  ) );
-			htMethods.put ( "OPTIONS", new Integer ( METHOD_OPTIONS  ) );
-			htMethods.put ( "CONNECT", new Integer ( METHOD_CONNECT  ) );
+		int iResult = toRequestMethod ( method );
+		
+		if ( iResult == METHOD_UNKNOWN )
+			throw new InvalidMethodException (method);
+		
+		return iResult;
+	}
+	
+	
+	/**
+	 * Matches a string name of a http method to the corresponding constant
+	 * without throwing an exception
+	 *
+	 * @param    method              a  String
+	 *
+	 * @return   the constant or {@link HttpRequest#METHOD_UNKNOWN}
+	 *
+	 */
+	static int toRequestMethod ( String method ) {
+		Hashtable<String, Integer> methods = htMethods;
+		if ( methods == null ) {
+			// filled before it is published, the event loop and the workers look up concurrently
+			methods = new Hashtable<String, Integer> ( 8 );
+			methods.put ( "POST",    new Integer ( METHOD_POST ) );
+			methods.put ( "GET" ,    new Integer ( METHOD_GET  ) );
+			methods.put ( "HEAD" ,   new Integer ( METHOD_HEAD  ) );
+			methods.put ( "PUT" ,    new Integer ( METHOD_PUT  ) );
+			methods.put ( "DELETE" , new Integer ( METHOD_DELETE  ) );
+			methods.put ( "TRACE" ,  new Integer ( METHOD_TRACE  ) );
+			methods.put ( "OPTIONS", new Integer ( METHOD_OPTIONS  ) );
+			methods.put ( "CONNECT", new Integer ( METHOD_CONNECT  ) );
+			htMethods = methods;
 		}
 		
-		Integer res = htMethods.get ( method );
+		Integer res = methods.get ( method );
 		
 		if ( res == null )
-			throw new InvalidMethodException (method);
+			return METHOD_UNKNOWN;
 		
 		return res.intValue();
 	}
@@ -0,0 +1,652 @@
+package i5.httpServer;
+
+import java.nio.charset.Charset;
+
+
+/**
+ * Resumable parser for the header of a http request working directly on the
+ * received bytes.
+ *
+ * The header may be handed over in arbitrary fragments (e.g. as received from a
+ * non-blocking channel); the parser keeps its state between the calls of
+ * {@link #parse} and stops at the first byte following the header, so that the
+ * content of the request remains in the caller's buffer.
+ *
+ * Empty lines in front of the request line are skipped, header lines beginning with
+ * whitespaces are joined to the line before, sequences of whitespaces inside field
+ * values are collapsed to a single space and leading and trailing whitespaces are
+ * removed. Field names are turned to lower case while parsing, since they are case
+ * insensitive.
+ *
+ * Syntax errors do not throw exceptions, the parser stops at the error and
+ * provides a message via {@link #getError}.
+ */
+
+class HttpRequestParser
+{
+
+	/** skipping empty lines in front of the request line */
+	private static final int STATE_START = 0;
+
+	/** reading the request line */
+	private static final int STATE_REQUEST_LINE = 1;
+
+	/** at the beginning of a header line */
+	private static final int STATE_LINE_START = 2;
+
+	/** reading the name of a header field */
+	private static final int STATE_FIELD_NAME = 3;
+
+	/** reading the value of a header field */
+	private static final int STATE_FIELD_VALUE = 4;
+
+	/** the header has been read completely (or an error has occured) */
+	private static final int STATE_COMPLETE = 5;
+
+
+	private static final Charset UTF_8 = Charset.forName ( "UTF-8" );
+
+	private static final Charset ISO_8859_1 = Charset.forName ( "ISO-8859-1" );
+
+
+	private int iState = STATE_START;
+
+	/* bytes of the request line or of the header fields read so far */
+	private byte[] line = new byte[ 512 ];
+	private int iLineLength = 0;
+
+	/* start and end of the current field's name, -1 if there is no field pending */
+	private int iFieldStart = 0;
+	private int iNameEnd = -1;
+	private boolean bPendingSpace = false;
+
+	private int iLines = 0;
+
+	private String sRequestLine = null;
+	private String sMethod = null;
+	private String sTarget = null;
+	/* raw bytes of the query of the request target, null if there is none */
+	private byte[] query = null;
+	private int iMajorVersion = -1;
+	private int iMinorVersion = -1;
+
+	/* three offsets per field into line: name start, name end (= value start), value end */
+	private int[] fieldOffsets = new int[ 3 * 16 ];
+	private int iFields = 0;
+
+	private long lContentLength = 0;
+	private boolean bContentLength = false;
+
+	private boolean bChunked = false;
+
+	private boolean bExpectation = false;
+
+	private String sError = null;
+	private int iErrorStatus = HttpResponse.STATUS_BAD_REQUEST;
+
+	/* limits, which are kept over resets */
+	private int iMaxRequestLine = DEFAULT_MAX_REQUEST_LINE;
+	private int iMaxFields = DEFAULT_MAX_FIELDS;
+	private int iMaxHeaderSize = DEFAULT_MAX_HEADER_SIZE;
+	private long lMaxContentLength = Long.MAX_VALUE;
+
+	/* number of bytes of the header parsed so far (without leading empty lines) */
+	private int iHeaderBytes = 0;
+
+
+	/** default maximal length of the request line in bytes */
+	static final int DEFAULT_MAX_REQUEST_LINE = 8 * 1024;
+
+	/** default maximal number of header fields */
+	static final int DEFAULT_MAX_FIELDS = 100;
+
+	/** default maximal size of the complete header in bytes */
+	static final int DEFAULT_MAX_HEADER_SIZE = 64 * 1024;
+
+
+	/**
+	 * sets the limits enforced while parsing. A violation stops the parser with
+	 * an error and the status the request has to be answered with ({@link #getErrorStatus}).
+	 *
+	 * @param    maxRequestLine      maximal length of the request line in bytes (414)
+	 * @param    maxFields           maximal number of header fields (431)
+	 * @param    maxHeaderSize       maximal size of the complete header in bytes (431)
+	 * @param    maxContentLength    maximal value of the Content-Length field (413)
+	 *
+	 */
+	void setLimits ( int maxRequestLine, int maxFields, int maxHeaderSize, long maxContentLength ) {
+		iMaxRequestLine = maxRequestLine;
+		iMaxFields = maxFields;
+		iMaxHeaderSize = maxHeaderSize;
+		lMaxContentLength = maxContentLength;
+	}
+
+
+	/**
+	 * resets the parser for the next request
+	 *
+	 */
+	void reset () {
+		iState = STATE_START;
+		iLineLength = 0;
+		iFieldStart = 0;
+		iNameEnd = -1;
+		bPendingSpace = false;
+		iLines = 0;
+
+		sRequestLine = null;
+		sMethod = null;
+		sTarget = null;
+		query = null;
+		iMajorVersion = -1;
+		iMinorVersion = -1;
+
+		iFields = 0;
+
+		lContentLength = 0;
+		bContentLength = false;
+		bChunked = false;
+		bExpectation = false;
+		sError = null;
+		iErrorStatus = HttpResponse.STATUS_BAD_REQUEST;
+		iHeaderBytes = 0;
+	}
+
+
+	/**
+	 * resets the parser for reading the trailer fields following the last chunk
+	 * of a chunked content, i.e. a header without request line
+	 *
+	 */
+	void resetForTrailer () {
+		reset();
+		iState = STATE_LINE_START;
+	}
+
+
+	/**
+	 * parses the given bytes as the next part of the header
+	 *
+	 * @param    b                   a  byte[]
+	 * @param    off                 index of the first byte to parse
+	 * @param    len                 number of bytes available
+	 *
+	 * @return   the number of bytes belonging to the header, the parsing stops
+	 *           at the end of the header
+	 *
+	 */
+	int parse ( byte[] b, int off, int len ) {
+		int iPos = off;
+		int iEnd = off + len;
+
+		while ( iPos < iEnd && iState != STATE_COMPLETE ) {
+			byte c = b[iPos++];
+
+			// the limits are checked before the byte is buffered
+			if ( iState != STATE_START && ++ iHeaderBytes > iMaxHeaderSize ) {
+				fail ( "Request header is larger than " + iMaxHeaderSize + " bytes!", HttpResponse.STATUS_REQUEST_HEADER_FIELDS_TOO_LARGE );
+				break;
+			}
+
+			switch ( iState ) {
+				case STATE_START:
+					if ( c != '\r' && c != '\n' ) {
+						iState = STATE_REQUEST_LINE;
+						iHeaderBytes = 1;
+						append ( c );
+					}
+					break;
+
+				case STATE_REQUEST_LINE:
+					if ( c == '\n' ) {
+						parseRequestLine ();
+						if ( iState != STATE_COMPLETE )
+							iState = STATE_LINE_START;
+					} else if ( iLineLength >= iMaxRequestLine )
+						fail ( "Request line is longer than " + iMaxRequestLine + " bytes!", HttpResponse.STATUS_REQUEST_URI_TOO_LONG );
+					else
+						append ( c );
+					break;
+
+				case STATE_LINE_START:
+					if ( ( c == ' ' || c == '\t' ) && iNameEnd >= 0 ) {
+						// continuation of the value in the previous line
+						iState = STATE_FIELD_VALUE;
+						bPendingSpace = iLineLength > iNameEnd;
+					} else if ( c == '\r' ) {
+						// empty line, wait for the line feed
+					} else {
+						if ( iNameEnd >= 0 )
+							addField ();
+
+						if ( c == '\n' ) {
+							if ( iState != STATE_COMPLETE ) {
+								// both would allow to smuggle a request behind the content
+								if ( bChunked && bContentLength )
+									fail ( "Request contains both Content-Length and chunked Transfer-Encoding!" );
+								iState = STATE_COMPLETE;
+								return iPos - off;
+							}
+						} else if ( iState != STATE_COMPLETE ) {
+							if ( iFields >= iMaxFields ) {
+								fail ( "Request header contains more than " + iMaxFields + " fields!", HttpResponse.STATUS_REQUEST_HEADER_FIELDS_TOO_LARGE );
+								break;
+							}
+							iState = STATE_FIELD_NAME;
+							iLines ++;
+							appendName ( c );
+						}
+					}
+					break;
+
+				case STATE_FIELD_NAME:
+					if ( c == ':' ) {
+						// trailing whitespaces are not part of the name
+						while ( iLineLength > iFieldStart && ( line[iLineLength-1] == ' ' || line[iLineLength-1] == '\t' ) )
+							iLineLength --;
+						iNameEnd = iLineLength;
+						bPendingSpace = false;
+						iState = STATE_FIELD_VALUE;
+					} else if ( c == '\n' )
+						fail ( "Header Line " + iLines + " does not contain a :!" );
+					else if ( c != '\r' )
+						appendName ( c );
+					break;
+
+				case STATE_FIELD_VALUE:
+					if ( c == '\n' )
+						iState = STATE_LINE_START;
+					else if ( c == ' ' || c == '\t' || c == '\r' )
+						// leading whitespaces are dropped, inner ones collapsed
+						bPendingSpace = iLineLength > iNameEnd;
+					else {
+						if ( bPendingSpace ) {
+							append ( (byte) ' ' );
+							bPendingSpace = false;
+						}
+						append ( c );
+					}
+					break;
+			}
+		}
+
+		return iPos - off;
+	}
+
+
+	/**
+	 * has the header been read completely (or has an error occured)?
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	boolean isComplete () {
+		return iState == STATE_COMPLETE;
+	}
+
+
+	/**
+	 * have any bytes besides empty lines been parsed yet?
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	boolean hasStarted () {
+		return iState != STATE_START;
+	}
+
+
+	/**
+	 * returns the description of the syntax error in the header or null
+	 *
+	 * @return   a String
+	 *
+	 */
+	String getError () {
+		return sError;
+	}
+
+
+	/**
+	 * returns the status a request has to be answered with, if the parsing
+	 * has failed: 400 for syntax errors, 413, 414 or 431 for violated limits
+	 *
+	 * @return   an int
+	 *
+	 */
+	int getErrorStatus () {
+		return iErrorStatus;
+	}
+
+
+	/**
+	 * returns the request line
+	 *
+	 * @return   a String
+	 *
+	 */
+	String getRequestLine () {
+		return sRequestLine;
+	}
+
+
+	/**
+	 * returns the method name of the request line
+	 *
+	 * @return   a String
+	 *
+	 */
+	String getMethod () {
+		return sMethod;
+	}
+
+
+	/**
+	 * returns the request target (url) of the request line
+	 *
+	 * @return   a String
+	 *
+	 */
+	String getTarget () {
+		return sTarget;
+	}
+
+
+	/**
+	 * returns the raw bytes of the query (after the first '?') of the request target
+	 *
+	 * @return   a byte[] or null, if the target has no query
+	 *
+	 */
+	byte[] getQuery () {
+		return query;
+	}
+
+
+	/**
+	 * returns the mayor protocol version
+	 *
+	 * @return   an int
+	 *
+	 */
+	int getMajorVersion () {
+		return iMajorVersion;
+	}
+
+
+	/**
+	 * returns the minor protocol version
+	 *
+	 * @return   an int
+	 *
+	 */
+	int getMinorVersion () {
+		return iMinorVersion;
+	}
+
+
+	/**
+	 * returns the fields of the completely parsed header. The header bytes are
+	 * copied, so that the parser can be reused for the next request.
+	 *
+	 * @return   a HeaderFields
+	 *
+	 */
+	HeaderFields getHeaderFields () {
+		byte[] data = new byte[ iLineLength ];
+		System.arraycopy ( line, 0, data, 0, iLineLength );
+
+		int[] offsets = new int[ 3 * iFields ];
+		System.arraycopy ( fieldOffsets, 0, offsets, 0, offsets.length );
+
+		return new HeaderFields ( data, offsets, iFields );
+	}
+
+
+	/**
+	 * is the content sent with <code>Transfer-Encoding: chunked</code>?
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	boolean isChunked () {
+		return bChunked;
+	}
+
+
+	/**
+	 * does the header contain an <code>Expect</code> field?
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	boolean hasExpectation () {
+		return bExpectation;
+	}
+
+
+	/**
+	 * returns the value of the content-length field, 0 if there is none
+	 *
+	 * @return   a long
+	 *
+	 */
+	long getContentLength () {
+		return lContentLength;
+	}
+
+
+	/**
+	 * appends a byte to the current line
+	 *
+	 * @param    c                   a  byte
+	 *
+	 */
+	private void append ( byte c ) {
+		if ( iLineLength == line.length ) {
+			byte[] grown = new byte[ line.length * 2 ];
+			System.arraycopy ( line, 0, grown, 0, iLineLength );
+			line = grown;
+		}
+		line[iLineLength++] = c;
+	}
+
+
+	/**
+	 * appends a byte of a field name turned to lower case
+	 *
+	 * @param    c                   a  byte
+	 *
+	 */
+	private void appendName ( byte c ) {
+		if ( c >= 'A' && c <= 'Z' )
+			c += 'a' - 'A';
+		append ( c );
+	}
+
+
+	/**
+	 * stops parsing because of a syntax error
+	 *
+	 * @param    message             a  String
+	 *
+	 */
+	private void fail ( String message ) {
+		fail ( message, HttpResponse.STATUS_BAD_REQUEST );
+	}
+
+
+	/**
+	 * stops parsing because of an error
+	 *
+	 * @param    message             a  String
+	 * @param    status              the status to answer the request with
+	 *
+	 */
+	private void fail ( String message, int status ) {
+		// the first error is kept
+		if ( sError != null )
+			return;
+
+		sError = message;
+		iErrorStatus = status;
+		iState = STATE_COMPLETE;
+	}
+
+
+	/**
+	 * splits the complete request line into method, target and version
+	 *
+	 */
+	private void parseRequestLine () {
+		int iLength = iLineLength;
+		while ( iLength > 0 && isWhitespace ( line[iLength-1] ) )
+			iLength --;
+
+		sRequestLine = new String ( line, 0, iLength, UTF_8 );
+		iLineLength = 0;
+
+		int iMethodEnd = 0;
+		while ( iMethodEnd < iLength && line[iMethodEnd] >= 'A' && line[iMethodEnd] <= 'Z' )
+			iMethodEnd ++;
+
+		int iVersionStart = iLength;
+		while ( iVersionStart > iMethodEnd && ! isWhitespace ( line[iVersionStart-1] ) )
+			iVersionStart --;
+
+		int iTargetStart = iMethodEnd;
+		while ( iTargetStart < iVersionStart && isWhitespace ( line[iTargetStart] ) )
+			iTargetStart ++;
+
+		int iTargetEnd = iVersionStart;
+		while ( iTargetEnd > iTargetStart && isWhitespace ( line[iTargetEnd-1] ) )
+			iTargetEnd --;
+
+		// METHOD SP target SP HTTP/d.d
+		if ( iMethodEnd == 0 || iTargetStart == iMethodEnd || iTargetEnd == iTargetStart
+				|| iLength - iVersionStart != 8
+				|| line[iVersionStart] != 'H' || line[iVersionStart+1] != 'T' || line[iVersionStart+2] != 'T'
+				|| line[iVersionStart+3] != 'P' || line[iVersionStart+4] != '/' || line[iVersionStart+6] != '.'
+				|| ! isDigit ( line[iVersionStart+5] ) || ! isDigit ( line[iVersionStart+7] ) ) {
+			fail ( "Firstline '" + sRequestLine + "' cannot be matched to a valid request!" );
+			return;
+		}
+
+		sMethod = new String ( line, 0, iMethodEnd, ISO_8859_1 );
+		sTarget = new String ( line, iTargetStart, iTargetEnd - iTargetStart, UTF_8 );
+
+		// the query is kept as bytes, only its percent escapes are decoded later
+		for ( int i = iTargetStart; i < iTargetEnd; i++ ) {
+			if ( line[i] == '?' ) {
+				query = new byte[ iTargetEnd - i - 1 ];
+				System.arraycopy ( line, i + 1, query, 0, query.length );
+				break;
+			}
+		}
+		iMajorVersion = line[iVersionStart+5] - '0';
+		iMinorVersion = line[iVersionStart+7] - '0';
+	}
+
+
+	/**
+	 * stores the offsets of the completely read current field
+	 *
+	 */
+	private void addField () {
+		if ( 3 * iFields == fieldOffsets.length ) {
+			int[] grown = new int[ fieldOffsets.length * 2 ];
+			System.arraycopy ( fieldOffsets, 0, grown, 0, fieldOffsets.length );
+			fieldOffsets = grown;
+		}
+		fieldOffsets[3*iFields] = iFieldStart;
+		fieldOffsets[3*iFields+1] = iNameEnd;
+		fieldOffsets[3*iFields+2] = iLineLength;
+		iFields ++;
+
+		if ( nameEquals ( iFieldStart, iNameEnd, "content-length" ) ) {
+			long lLength = parseContentLength ( iNameEnd, iLineLength );
+			if ( lLength < 0 )
+				fail ( "Content-Length does not contain a valid integer format!" );
+			else if ( bContentLength && lLength != lContentLength )
+				// a proxy taking the other value would frame the request differently
+				fail ( "Request contains different Content-Length values!" );
+			else if ( lLength > lMaxContentLength )
+				fail ( "Content-Length exceeds the limit of " + lMaxContentLength + " bytes!", HttpResponse.STATUS_REQUEST_ENTITY_TOO_LONG );
+			else
+				lContentLength = lLength;
+			bContentLength = true;
+		} else if ( nameEquals ( iFieldStart, iNameEnd, "transfer-encoding" ) ) {
+			// only the chunked framing is removed, so any further coding would reach
+			// the handler undecoded
+			boolean bOnlyChunked = ! bChunked && iLineLength - iNameEnd == 7;
+			for ( int i = 0; bOnlyChunked && i < 7; i++ )
+				bOnlyChunked = ( line[iNameEnd+i] | 0x20 ) == "chunked".charAt ( i );
+
+			if ( bOnlyChunked )
+				bChunked = true;
+			else
+				fail ( "Transfer-Encoding other than a single chunked coding is not supported!", HttpResponse.STATUS_NOT_IMPLEMENTED );
+		} else if ( nameEquals ( iFieldStart, iNameEnd, "expect" ) )
+			bExpectation = true;
+
+		iFieldStart = iLineLength;
+		iNameEnd = -1;
+	}
+
+
+	/**
+	 * compares the (lower case) name in the given range of the line with the given name
+	 *
+	 * @param    start               an int
+	 * @param    end                 an int
+	 * @param    name                a lower case String
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	private boolean nameEquals ( int start, int end, String name ) {
+		if ( end - start != name.length() )
+			return false;
+
+		for ( int i = 0; i < name.length(); i++ )
+			if ( line[start+i] != name.charAt ( i ) )
+				return false;
+
+		return true;
+	}
+
+
+	/**
+	 * parses the decimal number in the given range of the current line
+	 *
+	 * @param    start               an int
+	 * @param    end                 an int
+	 *
+	 * @return   the number or -1, if the range does not contain a valid one
+	 *
+	 */
+	private long parseContentLength ( int start, int end ) {
+		if ( start == end || end - start > 18 )
+			return -1;
+
+		long lResult = 0;
+		for ( int i = start; i < end; i++ ) {
+			if ( ! isDigit ( line[i] ) )
+				return -1;
+			lResult = lResult * 10 + ( line[i] - '0' );
+		}
+
+		return lResult;
+	}
+
+
+	private static boolean isWhitespace ( byte c ) {
+		return c == ' ' || c == '\t' || c == '\r';
+	}
+
+
+	private static boolean isDigit ( byte c ) {
+		return c >= '0' && c <= '9';
+	}
+
+}
@@ -1,6 +1,9 @@
 package i5.httpServer;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
 
 public interface HttpResponse {
 
@@ -41,6 +44,7 @@ public interface HttpResponse {
 	public static final int STATUS_UNSUPPORTED_MEDIA_TYPE = 415; // Unsupported Media Type (HTTP/1.1)
 	public static final int STATUS_REQUEST_RANGE_NOT_SATISFIABLE = 416; // Requested Range Not Satisfiable (HTTP/1.1)
 	public static final int STATUS_EXPECTATION_FAILED = 417; // Expectation Failed (HTTP/1.1)
+	public static final int STATUS_REQUEST_HEADER_FIELDS_TOO_LARGE = 431; // Request Header Fields Too Large (RFC 6585)
 	// 5XX ? Error of the server
 	public static final int STATUS_INTERNAL_SERVER_ERROR = 500; // Internal Server Error
 	public static final int STATUS_NOT_IMPLEMENTED = 501; // Not Implemented
@@ -112,7 +116,7 @@ public interface HttpResponse {
 	public abstract void print(Object o);
 
 	/**
-	 * prints a byte to the response
+	 * writes a single byte to the response as it is (without encoding)
 	 *
 	 * @param    b                   a  byte
 	 *
@@ -175,6 +179,16 @@ public interface HttpResponse {
 	 */
 	public abstract void setHeaderField(String field, String value);
 
+	/**
+	 * Adds a http header field to send to the client without overwriting set
+	 * headers with the same name (e.g. for several Set-Cookie fields)
+	 *
+	 * @param    field               a  String
+	 * @param    value               a  String
+	 *
+	 */
+	public abstract void addHeaderField(String field, String value);
+
 	/**
 	 * Returns the current value of a header field of the http response
 	 *
@@ -202,4 +216,45 @@ public interface HttpResponse {
 	 */
 	public abstract Writer getOutputWriter();
 
+	/**
+	 * returns an OutputStream to which binary content can be written directly,
+	 * without any character encoding. It may be mixed with the print methods.
+	 *
+	 * @return   an OutputStream
+	 *
+	 */
+	public abstract OutputStream getOutputStream();
+
+	/**
+	 * returns a channel to which binary content can be written directly, e.g.
+	 * from (direct) ByteBuffers. It may be mixed with the print methods.
+	 *
+	 * @return   a WritableByteChannel
+	 *
+	 */
+	public abstract WritableByteChannel getChannel();
+
+	/**
+	 * sends the content written so far to the client. The first call commits the
+	 * response: status and header fields are sent and cannot be changed anymore,
+	 * the content is streamed (chunked for HTTP/1.1 clients) instead of being sent
+	 * as a whole with a Content-Length. A response, which is not handled by a
+	 * server, is not affected.
+	 *
+	 * The server flushes a response on its own, when the content exceeds its
+	 * buffer size (see {@link HttpServer#setResponseBufferSize}).
+	 *
+	 * @exception   IOException	the connection has failed, further content is discarded
+	 *
+	 */
+	public abstract void flush() throws IOException;
+
+	/**
+	 * returns true, if the header of the response has already been sent
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	public abstract boolean isCommitted();
+
 }
\ No newline at end of file
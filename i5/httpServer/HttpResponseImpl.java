@@ -1,11 +1,12 @@
 package i5.httpServer;
 
-import java.util.Hashtable;
-import java.util.Enumeration;
-
-import java.io.StringWriter;
+import java.io.Flushable;
+import java.io.IOException;
 import java.io.Writer;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 
 
@@ -13,16 +14,27 @@ import java.io.OutputStream;
  * Class for generating a valid http response.
  *
  * The default response is a STATUS_OK (200) response with content type text/plain.
- * The StringWriter collects all data to be returns to the requesting client.
+ * A {@link ResponseBuffer} collects all data to be returns to the requesting client,
+ * encoded as UTF-8 while it is printed. Binary content written via
+ * {@link #getOutputStream} or {@link #getChannel} is collected as it is.
  *
  * After successfull processing the collected data will be written to the socket
  * output by the HttpServer.
  *
+ * A response handled by a server can be streamed instead: when the handler calls
+ * {@link #flush} or the content exceeds the buffer size of the server, the header is
+ * committed and the content written so far is sent. Further content follows with
+ * each flush, <code>Transfer-Encoding: chunked</code> on HTTP/1.1 connections, on
+ * HTTP/1.0 connections until the connection is closed.
+ *
+ * If the client accepts it, the server compresses the content of a response with
+ * a suitable content type (see {@link HttpServer#setCompression}).
+ *
  * @author Holger Janen
  * @version $Revision: 1.1 $, $Date: 2013/11/21 02:00:54 $
  */
 
-public class HttpResponseImpl implements HttpResponse
+public class HttpResponseImpl implements HttpResponse, Flushable
 {
 	
 	// 1XX ? information messages
@@ -32,14 +44,48 @@ public class HttpResponseImpl implements HttpResponse
 	private String sContentType = "text/plain";
 	private String sRedirectionLocation = null;
 	
-	private StringWriter sw = new StringWriter ();
+	private ResponseBuffer content = new ResponseBuffer ();
+	
+	/** default number of content bytes buffered before a response is streamed */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	
+	/* connection to stream the response to, null if it is sent as a whole */
+	private ResponseCommitter committer = null;
+	private boolean bCommitted = false;
+	
+	/* stream of the content after the commit, null to discard it */
+	private OutputStream stream = null;
+	
+	/* error of the streamed content, further content is discarded */
+	private IOException streamError = null;
+	
+	private boolean bAborted = false;
+	
+	/** size of the buffer copying files to connections without a channel */
+	private static final int FILE_COPY_BUFFER_SIZE = 64 * 1024;
+	
+	/** size of a block, which is written directly to the stream of a committed response */
+	private static final int DIRECT_WRITE_SIZE = 8192;
+	
+	private ContentStream contentStream = null;
+	
+	/* shared bytes sent after the buffered content, null if there are none */
+	private ByteBuffer bufferContent = null;
+	
+	/* compressed forms of the shared bytes, null if they are not kept */
+	private CompressedContent variants = null;
+	
+	/* region of a file sent after the buffered content, null if there is none */
+	private FileChannel fileContent = null;
+	private long lFilePosition = 0;
+	private long lFileLength = 0;
 	
 	// private boolean bFixed = false;
 	
 	
 	private HttpRequest request = null;
 	
-	private Hashtable htHeaders = new Hashtable();
+	private HeaderFields headers = new HeaderFields();
 	
 	private int iProtocolVersion = HttpRequest.HTTP_VERSION_1_0;
 	
@@ -130,7 +176,11 @@ public class HttpResponseImpl implements HttpResponse
 	public void print( String s )  {
 		//if ( bFixed )
 		//	throw new IllegalAccessException ();
-		sw.write( s );
+		try {
+			content.write( s );
+		} catch ( IOException e ) {
+			// kept as stream error, the server closes the connection
+		}
 	}
 	
 	/* (non-Javadoc)
@@ -146,7 +196,11 @@ public class HttpResponseImpl implements HttpResponse
 	 */
 	@Override
 	public void print ( byte b ) {
-		sw.write ( b );
+		try {
+			content.writeByte ( b );
+		} catch ( IOException e ) {
+			// kept as stream error, the server closes the connection
+		}
 	}
 	
 	/* (non-Javadoc)
@@ -154,7 +208,7 @@ public class HttpResponseImpl implements HttpResponse
 	 */
 	@Override
 	public void print ( int i ) {
-		sw.write ( i );
+		print ( (char) i );
 	}
 	
 	/* (non-Javadoc)
@@ -162,7 +216,7 @@ public class HttpResponseImpl implements HttpResponse
 	 */
 	@Override
 	public void print ( boolean b ) {
-		sw.write ( ""+b );
+		print ( ""+b );
 	}
 	
 	/* (non-Javadoc)
@@ -170,7 +224,11 @@ public class HttpResponseImpl implements HttpResponse
 	 */
 	@Override
 	public void print ( char c ) {
-		sw.write ( c );
+		try {
+			content.write ( c );
+		} catch ( IOException e ) {
+			// kept as stream error, the server closes the connection
+		}
 	}
 	
 	/* (non-Javadoc)
@@ -197,7 +255,10 @@ public class HttpResponseImpl implements HttpResponse
 	 */
 	@Override
 	public void clearContent () {
-		sw = new StringWriter ();
+		content.reset();
+		bufferContent = null;
+		variants = null;
+		closeFileContent();
 	}
 	
 	/* (non-Javadoc)
@@ -211,9 +272,20 @@ public class HttpResponseImpl implements HttpResponse
 			return;
 		
 		if ( value == null )
-			htHeaders.remove( field );
+			headers.remove( field );
 		else
-			htHeaders.put ( field, value );
+			headers.set ( field, value );
+	}
+	
+	/* (non-Javadoc)
+	 * @see i5.httpServer.HttpResponse#addHeaderField(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void addHeaderField ( String field, String value )  {
+		if ( field == null || field.equals ("") || value == null || value.equals ( "" ) )
+			return;
+		
+		headers.add ( field, value );
 	}
 	
 	/* (non-Javadoc)
@@ -221,7 +293,7 @@ public class HttpResponseImpl implements HttpResponse
 	 */
 	@Override
 	public String getHeaderField ( String field ) {
-		return (String) htHeaders.get ( field );
+		return headers.get ( field );
 	}
 	
 	
@@ -239,7 +311,115 @@ public class HttpResponseImpl implements HttpResponse
 	 */
 	@Override
 	public Writer getOutputWriter () {
-		return sw;
+		return content;
+	}
+	
+	
+	/* (non-Javadoc)
+	 * @see i5.httpServer.HttpResponse#getOutputStream()
+	 */
+	@Override
+	public OutputStream getOutputStream () {
+		if ( contentStream == null )
+			contentStream = new ContentStream ();
+		return contentStream;
+	}
+	
+	
+	/* (non-Javadoc)
+	 * @see i5.httpServer.HttpResponse#getChannel()
+	 */
+	@Override
+	public WritableByteChannel getChannel () {
+		if ( contentStream == null )
+			contentStream = new ContentStream ();
+		return contentStream;
+	}
+	
+	
+	/* (non-Javadoc)
+	 * @see i5.httpServer.HttpResponse#flush()
+	 */
+	@Override
+	public void flush () throws IOException {
+		if ( streamError != null ) {
+			content.drainTo ( null );
+			throw streamError;
+		}
+		
+		// a response, which is not handled by a server, is sent as a whole
+		if ( committer == null )
+			return;
+		
+		try {
+			if ( ! bCommitted ) {
+				bCommitted = true;
+				stream = committer.commit ( this );
+			}
+			
+			content.drainTo ( stream );
+			if ( bufferContent != null ) {
+				if ( stream != null )
+					copyBuffer ( bufferContent, stream );
+				bufferContent = null;
+			}
+			if ( fileContent != null ) {
+				// a streamed file cannot be sent by the server on its own
+				if ( stream != null )
+					copyFile ( fileContent, lFilePosition, lFileLength, stream );
+				closeFileContent();
+			}
+			if ( stream != null )
+				stream.flush();
+		} catch ( IOException e ) {
+			streamError = e;
+			throw e;
+		}
+	}
+	
+	
+	/* (non-Javadoc)
+	 * @see i5.httpServer.HttpResponse#isCommitted()
+	 */
+	@Override
+	public boolean isCommitted () {
+		return bCommitted;
+	}
+	
+	
+	/**
+	 * enables streaming the response to the given connection
+	 *
+	 * @param    committer           a  ResponseCommitter
+	 * @param    bufferSize          number of content bytes, after which the response
+	 *                               is flushed, 0 to flush on demand only
+	 *
+	 */
+	void setCommitter ( ResponseCommitter committer, int bufferSize ) {
+		this.committer = committer;
+		content.setFlushTarget ( this, bufferSize );
+	}
+	
+	
+	/**
+	 * marks a committed response as incomplete, e.g. after an exception of the
+	 * request handler, so that it is not terminated properly
+	 *
+	 */
+	void abort () {
+		bAborted = true;
+		content.setFlushTarget ( null, 0 );
+	}
+	
+	
+	/**
+	 * has the committed response been aborted or has writing its content failed?
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	boolean isBroken () {
+		return bAborted || streamError != null;
 	}
 	
 	
@@ -252,42 +432,405 @@ public class HttpResponseImpl implements HttpResponse
 	String getHeaders() {
 		StringBuffer result = new StringBuffer ("" );
 		
-		if ( getContentLength() >= 0 )
-			htHeaders.put ( "Content-Length", ""+getContentLength() );
+		// the length of a streamed content is not known in advance
+		if ( bCommitted )
+			headers.remove ( "Content-Length" );
+		else if ( getContentLength() >= 0 )
+			headers.set ( "Content-Length", ""+getContentLength() );
 		
-		htHeaders.put ( "Content-Type", sContentType );
+		headers.set ( "Content-Type", sContentType );
 		
-		Enumeration keys = htHeaders.keys();
-		while ( keys.hasMoreElements() ) {
-			String field = (String) keys.nextElement();
-			String value = (String) htHeaders.get ( field );
-			
-			result.append ( field ).append(": ").append( value ) .append( "\r\n" );
-		}
+		for ( int i = 0; i < headers.size(); i++ )
+			result.append ( headers.getName ( i ) ).append(": ").append( headers.getValue ( i ) ) .append( "\r\n" );
 				
 		return new String ( result );
 	}
 	
 	
 	/**
-	 * returns the (current) content length of this response
+	 * returns the (current) content length of this response in bytes
 	 *
 	 * @return   a long
 	 *
 	 */
 	long getContentLength () {
-		return sw.getBuffer().length();
+		return content.size() + ( bufferContent != null ? bufferContent.remaining() : 0 ) + lFileLength;
 	}
 	
 	
 	/**
-	 * returns the current content as string
+	 * returns the current content as string, i.e. the content not streamed yet
 	 *
 	 * @return   a String
 	 *
 	 */
 	String getContent () {
-		return sw.toString();
+		return content.toString();
+	}
+	
+	
+	/**
+	 * writes the encoded content to the given stream
+	 *
+	 * @param    out                 an OutputStream
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	void writeContent ( OutputStream out ) throws IOException {
+		content.writeTo ( out );
+	}
+	
+	
+	/**
+	 * hands the buffer of the content back to the pool, after the response
+	 * has been written
+	 *
+	 */
+	void releaseContent () {
+		content.release();
+		bufferContent = null;
+		variants = null;
+		closeFileContent();
+	}
+	
+	
+	/**
+	 * sets bytes to be sent after the buffered content, e.g. a cached file. The
+	 * buffer is not copied, its remaining bytes must not change until the response
+	 * has been written.
+	 *
+	 * @param    buffer              a  ByteBuffer, heap, direct or mapped
+	 *
+	 */
+	void setBufferContent ( ByteBuffer buffer ) {
+		if ( bCommitted )
+			throw new IllegalStateException ( "Response has already been committed!" );
+		
+		bufferContent = buffer;
+		variants = null;
+	}
+	
+	
+	/**
+	 * sets bytes to be sent after the buffered content like
+	 * {@link #setBufferContent(ByteBuffer)}, whose compressed forms are kept by
+	 * the given object, so that the server does not compress them per response
+	 *
+	 * @param    buffer              a  ByteBuffer, heap, direct or mapped
+	 * @param    variants            the compressed forms of the buffer
+	 *
+	 */
+	void setBufferContent ( ByteBuffer buffer, CompressedContent variants ) {
+		setBufferContent ( buffer );
+		this.variants = variants;
+	}
+	
+	
+	/**
+	 * returns, if the content consists of shared bytes only, whose compressed forms
+	 * are kept
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	boolean hasCompressedForms () {
+		return variants != null && bufferContent != null && content.size() == 0 && fileContent == null;
+	}
+	
+	
+	/**
+	 * returns, if the server may compress the content. Shared bytes without kept
+	 * compressed forms and files are sent as they are, since they would be
+	 * compressed again for every response.
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	boolean canCompress () {
+		if ( fileContent != null )
+			return false;
+		if ( bufferContent != null )
+			return hasCompressedForms();
+		return true;
+	}
+	
+	
+	/**
+	 * returns the bytes to send after the buffered content or null
+	 *
+	 * @return   a ByteBuffer
+	 *
+	 */
+	ByteBuffer getBufferContent () {
+		return bufferContent;
+	}
+	
+	
+	/**
+	 * sets a region of a file to be sent after the buffered content. The server
+	 * writes it directly to the connection, if possible, and closes the channel
+	 * after the response has been written.
+	 *
+	 * @param    file                a  FileChannel
+	 * @param    position            the offset of the region in the file
+	 * @param    length              the length of the region in bytes
+	 *
+	 */
+	void setFileContent ( FileChannel file, long position, long length ) {
+		if ( bCommitted )
+			throw new IllegalStateException ( "Response has already been committed!" );
+		
+		closeFileContent();
+		fileContent = file;
+		lFilePosition = position;
+		lFileLength = length;
+	}
+	
+	
+	/**
+	 * returns the file to send after the buffered content or null
+	 *
+	 * @return   a FileChannel
+	 *
+	 */
+	FileChannel getFileContent () {
+		return fileContent;
+	}
+	
+	
+	/**
+	 * returns the offset of the file region to send
+	 *
+	 * @return   a long
+	 *
+	 */
+	long getFilePosition () {
+		return lFilePosition;
+	}
+	
+	
+	/**
+	 * returns the length of the file region to send
+	 *
+	 * @return   a long
+	 *
+	 */
+	long getFileLength () {
+		return lFileLength;
+	}
+	
+	
+	/**
+	 * replaces the content (buffered, shared and file content) by its compressed
+	 * form and sets the Content-Encoding field accordingly. Shared bytes with kept
+	 * compressed forms are replaced by the form of the coding.
+	 *
+	 * @param    coding              the content coding, "gzip" or "deflate"
+	 *
+	 * @exception   IOException      if the file content cannot be read
+	 *
+	 */
+	void compressContent ( String coding ) throws IOException {
+		if ( bCommitted )
+			throw new IllegalStateException ( "Response has already been committed!" );
+		
+		if ( hasCompressedForms() ) {
+			bufferContent = variants.getCompressed ( coding );
+			variants = null;
+			headers.set ( "Content-Encoding", coding );
+			return;
+		}
+		
+		final ResponseBuffer compressed = new ResponseBuffer ();
+		OutputStream target = new OutputStream () {
+			public void write ( int b ) throws IOException {
+				compressed.writeByte ( b );
+			}
+			
+			public void write ( byte[] b, int off, int len ) throws IOException {
+				compressed.writeBytes ( b, off, len );
+			}
+		};
+		
+		CompressingOutputStream out = new CompressingOutputStream ( target, coding, CompressingOutputStream.DEFAULT_LEVEL );
+		boolean bDone = false;
+		try {
+			content.writeTo ( out );
+			if ( bufferContent != null )
+				copyBuffer ( bufferContent, out );
+			if ( fileContent != null )
+				copyFile ( fileContent, lFilePosition, lFileLength, out );
+			out.finish();
+			bDone = true;
+		} finally {
+			if ( ! bDone ) {
+				out.release();
+				compressed.release();
+			}
+		}
+		
+		content.release();
+		content = compressed;
+		bufferContent = null;
+		closeFileContent();
+		
+		headers.set ( "Content-Encoding", coding );
+	}
+	
+	
+	/**
+	 * closes the file to send, if any
+	 *
+	 */
+	private void closeFileContent () {
+		if ( fileContent == null )
+			return;
+		
+		try {
+			fileContent.close();
+		} catch ( IOException e ) {
+		}
+		fileContent = null;
+		lFilePosition = 0;
+		lFileLength = 0;
+	}
+	
+	
+	/**
+	 * writes the remaining bytes of a buffer to the given stream, the bytes of a
+	 * direct or mapped buffer through a pooled array
+	 *
+	 * @param    buffer              a  ByteBuffer
+	 * @param    out                 an OutputStream
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	static void copyBuffer ( ByteBuffer buffer, OutputStream out ) throws IOException {
+		if ( buffer.hasArray() ) {
+			out.write ( buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining() );
+			buffer.position ( buffer.limit() );
+			return;
+		}
+		
+		byte[] copy = BufferPool.getShared().acquire ( Math.min ( buffer.remaining(), FILE_COPY_BUFFER_SIZE ) );
+		try {
+			while ( buffer.hasRemaining() ) {
+				int iCopy = Math.min ( buffer.remaining(), copy.length );
+				buffer.get ( copy, 0, iCopy );
+				out.write ( copy, 0, iCopy );
+			}
+		} finally {
+			BufferPool.getShared().release ( copy );
+		}
+	}
+	
+	
+	/**
+	 * copies a region of a file to the given stream through a pooled buffer, for
+	 * connections, which cannot be written by the file system
+	 *
+	 * @param    file                a  FileChannel
+	 * @param    position            an offset in the file
+	 * @param    length              a number of bytes
+	 * @param    out                 an OutputStream
+	 *
+	 * @exception   IOException      also if the file has become shorter
+	 *
+	 */
+	static void copyFile ( FileChannel file, long position, long length, OutputStream out ) throws IOException {
+		byte[] buffer = BufferPool.getShared().acquire ( (int) Math.min ( length, FILE_COPY_BUFFER_SIZE ) );
+		try {
+			ByteBuffer bb = ByteBuffer.wrap ( buffer );
+			while ( length > 0 ) {
+				bb.clear();
+				if ( bb.remaining() > length )
+					bb.limit ( (int) length );
+				
+				int iRead = file.read ( bb, position );
+				if ( iRead < 0 )
+					throw new IOException ( "File has been truncated while it was sent!" );
+				
+				out.write ( buffer, 0, iRead );
+				position += iRead;
+				length -= iRead;
+			}
+		} finally {
+			BufferPool.getShared().release ( buffer );
+		}
+	}
+	
+	
+	/**
+	 * writes a block of a committed response directly to its stream after the
+	 * buffered content, instead of copying it into the buffer
+	 *
+	 * @param    b                   a  byte[]
+	 * @param    off                 an int
+	 * @param    len                 an int
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	private void writeDirect ( byte[] b, int off, int len ) throws IOException {
+		flush();
+		if ( stream == null )
+			return;
+		
+		try {
+			stream.write ( b, off, len );
+		} catch ( IOException e ) {
+			streamError = e;
+			throw e;
+		}
+	}
+	
+	
+	/**
+	 * binary access to the content, as stream and as channel. Closing it has no
+	 * effect, the response is completed by the server.
+	 *
+	 */
+	private class ContentStream extends OutputStream implements WritableByteChannel {
+		
+		public void write ( int b ) throws IOException {
+			content.writeByte ( b );
+		}
+		
+		public void write ( byte[] b, int off, int len ) throws IOException {
+			if ( off < 0 || len < 0 || off + len > b.length || off + len < 0 )
+				throw new IndexOutOfBoundsException ();
+			
+			// large blocks of a streamed response are not copied
+			if ( bCommitted && ! isBroken() && len >= DIRECT_WRITE_SIZE )
+				writeDirect ( b, off, len );
+			else
+				content.writeBytes ( b, off, len );
+		}
+		
+		public int write ( ByteBuffer src ) throws IOException {
+			int iLength = src.remaining();
+			
+			if ( src.hasArray() ) {
+				write ( src.array(), src.arrayOffset() + src.position(), iLength );
+				src.position ( src.limit() );
+			} else
+				content.writeBytes ( src );
+			
+			return iLength;
+		}
+		
+		public void flush () throws IOException {
+			HttpResponseImpl.this.flush();
+		}
+		
+		public boolean isOpen () {
+			return true;
+		}
+		
+		public void close () {
+		}
 	}
 	
 	
@@ -335,6 +878,7 @@ public class HttpResponseImpl implements HttpResponse
 			else if ( status == STATUS_UNSUPPORTED_MEDIA_TYPE        ) return "Unsupported Media Type";
 			else if ( status == STATUS_REQUEST_RANGE_NOT_SATISFIABLE ) return "Requested Range Not Satisfiable";
 			else if ( status == STATUS_EXPECTATION_FAILED            ) return "Expectation Failed";
+			else if ( status == STATUS_REQUEST_HEADER_FIELDS_TOO_LARGE ) return "Request Header Fields Too Large";
 		} else if ( status >= 300 ) {
 			if ( status == STATUS_MULTIPLE_CHOICES)    return "Multiple Choices";
 			else if ( status == STATUS_MOVED_PERM)     return "Moved Permanently";
@@ -1,5 +1,6 @@
 package i5.httpServer;
 
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
@@ -7,15 +8,27 @@ import java.net.SocketTimeoutException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.BufferedOutputStream;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
 import java.net.SocketException;
 
 import java.util.Hashtable;
 import java.util.Enumeration;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -37,15 +50,15 @@ public class HttpServer extends Thread
 	 * in a single thread
 	 *
 	 */
-	protected class SocketRequestHandler implements Runnable {
+	protected class SocketRequestHandler implements Runnable, ResponseCommitter {
 		
 		protected Socket socket;
-		protected InputStream input;
-		protected BufferedReader reader;
+		protected HttpInputBuffer input;
+		protected OutputStream output;
 		
 		protected RequestHandler handler;
 		
-		protected String[] header;
+		protected HttpRequestParser parser;
 		
 		protected HttpRequestImpl request;
 		protected HttpResponseImpl response;
@@ -54,6 +67,22 @@ public class HttpServer extends Thread
 		protected String allowedOrigin = null;
 		protected int preflightRequestMaxAge = -1;
 		
+		protected int requestCount = 0;
+		protected boolean malformedRequest = false;
+		protected boolean keepAlive = false;
+		
+		/* precomputed answer to a request, which cannot be handled, instead of the response */
+		protected byte[] cannedResponse = null;
+		
+		/* deadlines of the connection, null if they are not enforced */
+		protected ConnectionWatch watch = null;
+		
+		/* content stream of a committed HTTP/1.1 response, null otherwise */
+		protected ChunkedOutputStream chunkedOutput = null;
+		
+		/* compressor of a committed response, null if it is not compressed */
+		protected CompressingOutputStream compressedOutput = null;
+		
 		
 		/**
 		 * Generates a new Socket request handler
@@ -81,11 +110,36 @@ public class HttpServer extends Thread
 		 *
 		 */
 		public SocketRequestHandler ( Socket socket, RequestHandler handler, String allowedOrigin, int preflightRequestMaxAge) throws IOException {
+			this ( socket, socket.getInputStream(), socket.getOutputStream(), handler, allowedOrigin, preflightRequestMaxAge );
+			
+			if ( reaper != null ) {
+				watch = new SocketWatch ( socket );
+				input.setWatch ( watch );
+			}
+		}
+		
+		
+		/**
+		 * Generates a new request handler reading the request from and writing the response to
+		 * the given streams instead of the socket's own ones, e.g. for non-blocking transports
+		 *
+		 * @param    socket              the Socket of the connection, used for its addresses
+		 * @param    input               the InputStream to read the request from
+		 * @param    output              the OutputStream to write the response to
+		 * @param    handler             the http request handler building a HttpResponse
+		 * 								 from the generated HttpRequest
+		 *
+		 * @exception   IOException
+		 *
+		 */
+		public SocketRequestHandler ( Socket socket, InputStream input, OutputStream output, RequestHandler handler, String allowedOrigin, int preflightRequestMaxAge) throws IOException {
 			this.socket = socket;
 			this.handler = handler;
 			
-			input = socket.getInputStream();
-			reader = new BufferedReader ( new InputStreamReader ( input ) );
+			// responses are collected and written, when no further (pipelined) request is waiting
+			this.output = new BufferedOutputStream ( output, OUTPUT_BUFFER_SIZE );
+			this.input = new HttpInputBuffer ( input, INPUT_BUFFER_SIZE );
+			this.input.setFlushBeforeRead ( this.output );
 			
 			this.allowedOrigin = allowedOrigin;
 			this.preflightRequestMaxAge = preflightRequestMaxAge;
@@ -98,42 +152,36 @@ public class HttpServer extends Thread
 		/**
 		 * try to read the header of a http request
 		 *
+		 * @return   false, if the connection has been closed (or timed out) before
+		 *           a new request started
+		 *
 		 * @exception   MalformedHeaderException 	IO error reading the header
 		 *
 		 */
-		protected void readHeader () throws MalformedHeaderException {
+		protected boolean readHeader () throws MalformedHeaderException {
+			if ( parser == null )
+				parser = createParser ();
+			else
+				parser.reset();
+			
+			if ( watch != null )
+				watch.expectHeader();
+			
 			try {
-				StringBuffer sbRead = new StringBuffer ();
-				
-				// read the complete header (until first empty line)
-				String line = null;
-				boolean emptyRead = false;
-				while ( ! emptyRead && (line = reader.readLine()) != null) {
-					// readLine does not return the line termination char!
-					if ( line == null || line.equals( "" ) )
-						emptyRead = true;
-					else
-						sbRead.append ( line ).append("\n");
-				}
-				
-				// remove last newline
-				String header = sbRead.substring( 0, Math.max(0, sbRead.length()-1) );
-				
-				// protocol compliance modifications
-				// join lines beginning with whitespaces to the line before
-				header = header.replaceAll ( "\n[\\t ]+", " " );
+				// parse the bytes of the header (until first empty line)
+				if ( input.readHeader ( parser ) )
+					return true;
 				
-				// collapse multiple whitespaces
-				header = header.replaceAll ( "[ \\t]+", " " );
+				if ( ! parser.hasStarted() )
+					return false;
 				
-				// remove trailing whitespaces
-				header = header.replaceAll ( "\\s\n", "\n" );
-				header = header.replaceAll ( "\\s+$", "" );
-				
-				// split header fileds
-				this.header = header.split ( "\n" );
+				throw INCOMPLETE_HEADER;
 			} catch (IOException e) {
-				throw new MalformedHeaderException ( "Unable to read a complete HTTP header from the input!", e );
+				// idle connection closed or timed out, or a slow client reaped
+				if ( ! parser.hasStarted() || watch != null && watch.isReaped() )
+					return false;
+				
+				throw INCOMPLETE_HEADER;
 			}
 		}
 		
@@ -146,19 +194,45 @@ public class HttpServer extends Thread
 		 *
 		 */
 		public void handleRequest () throws IOException {
-			request = new HttpRequestImpl ( reader, socket );
+			request = new HttpRequestImpl ( input, socket );
+			request.setSpillThreshold ( iContentSpillThreshold );
+			request.setMaxDecompressedSize ( lMaxDecompressedSize );
+			request.setMaxContentLength ( lMaxContentLength );
 			response = null;
+			cannedResponse = null;
+			malformedRequest = false;
 			
-			try {
-				request.parseHeader ( header );
-			} catch (InvalidMethodException e) {
-				response = new HttpResponseImpl ( request, HttpResponse.STATUS_NOT_IMPLEMENTED );
-			} catch (MalformedHeaderException e) {
-				response = new HttpResponseImpl ( request, HttpResponse.STATUS_BAD_REQUEST );
-			} catch (UnsupportedProtocolVersionException e) {
-				response = new HttpResponseImpl ( request, HttpResponse.STATUS_HTTP_VERSION_NOT_SUPPORTED );
+			// syntax errors (400), violated limits (413, 414, 431), unknown methods (501)
+			// and versions (505) are answered with a precomputed response
+			int iStatus = request.parseHeader ( parser );
+			if ( iStatus != HttpResponse.STATUS_OK ) {
+				malformedRequest = true;
+				cannedResponse = getCannedResponse ( iStatus );
+				if ( cannedResponse == null )
+					response = new HttpResponseImpl ( request, iStatus );
+				return;
 			}
 
+			if ( response == null && request.hasContent() && ! request.isContentCodingSupported() ) {
+				response = new HttpResponseImpl ( request, HttpResponse.STATUS_UNSUPPORTED_MEDIA_TYPE );
+				// the content cannot be used, so it is not read
+				response.setHeaderField ( "Connection", "close" );
+			}
+			
+			if ( response == null && isContentTooLarge() )
+				rejectContent ();
+			
+			// a stalled upload is detected via the socket timeout while reading the content
+			if ( response == null && request.hasContent() ) {
+				socket.setSoTimeout ( CONTENT_TIMEOUT );
+				if ( watch != null )
+					watch.expectContent();
+			}
+			
+			// a client waiting for a 100 Continue gets it or the final answer before the content
+			if ( response == null && request.isContinueExpected() )
+				answerExpectation ();
+			
 			if ( response == null )	{
 				if ( request.getMethod() == HttpRequest.METHOD_POST
 					|| request.getMethod() == HttpRequest.METHOD_GET
@@ -167,6 +241,7 @@ public class HttpServer extends Thread
 					|| request.getMethod() == HttpRequest.METHOD_PUT)
 					 {
 					response = new HttpResponseImpl ( request );
+					response.setCommitter ( this, iResponseBufferSize );
 
 					try {
 						handler.processRequest ( request, response );
@@ -174,10 +249,21 @@ public class HttpServer extends Thread
 						if (enableXOriginResSharing)
 							addXOriginResSharingHeaderFields();
 					} catch ( Exception e ) {
-						response = new HttpResponseImpl ( request, HttpResponse.STATUS_INTERNAL_SERVER_ERROR );
+						// the header of a streamed response has been sent already
+						if ( response.isCommitted() )
+							response.abort();
+						else
+							replaceResponse ( new HttpResponseImpl ( request, HttpResponse.STATUS_INTERNAL_SERVER_ERROR ) );
 						
-						e.printStackTrace();
+						if ( watch == null || ! watch.isReaped() )
+							ErrorLog.log ( "Exception in request handler for " + request.getUrl() + ":", e );
+					} finally {
+						request.releaseResources();
 					}
+					
+					// a chunked content has exceeded the limit while the handler read it
+					if ( isContentTooLarge() && ! response.isCommitted() )
+						rejectContent ();
 				} else if (request.getMethod() == HttpRequest.METHOD_OPTIONS && enableXOriginResSharing) {
 					//this is a Preflight Access Control Request
 					response = new HttpResponseImpl(request, HttpResponse.STATUS_OK);
@@ -188,6 +274,86 @@ public class HttpServer extends Thread
 			}
 		}
 		
+		/**
+		 * has the content of the current request been found to exceed the limit?
+		 *
+		 * @return   a boolean
+		 *
+		 */
+		protected boolean isContentTooLarge () {
+			return request.isContentTooLarge();
+		}
+		
+		
+		/**
+		 * replaces the response of the current request, e.g. by an error response.
+		 * The content of the replaced response is released, so that a file set by
+		 * the request handler is closed and pooled buffers are handed back.
+		 *
+		 * @param    replacement         a  HttpResponseImpl
+		 *
+		 */
+		protected void replaceResponse ( HttpResponseImpl replacement ) {
+			if ( response != null )
+				response.releaseContent();
+			response = replacement;
+		}
+		
+		
+		/**
+		 * answers the current request with 413, the rest of its content is not read
+		 *
+		 */
+		protected void rejectContent () {
+			replaceResponse ( new HttpResponseImpl ( request, HttpResponse.STATUS_REQUEST_ENTITY_TOO_LONG ) );
+			response.setHeaderField ( "Connection", "close" );
+		}
+		
+		
+		/**
+		 * answers the <code>Expect: 100-continue</code> of the current request
+		 * with a 100 Continue or, if it does not pass the checks, with the final
+		 * response, so that the content is not transferred in vain
+		 *
+		 * @exception   IOException
+		 *
+		 */
+		protected void answerExpectation () throws IOException {
+			int iStatus = checkExpectation ();
+			
+			if ( iStatus == HttpResponse.STATUS_CONTINUE )
+				sendContinue ();
+			else {
+				replaceResponse ( new HttpResponseImpl ( request, iStatus ) );
+				// the client may send the content anyway, it is not read
+				response.setHeaderField ( "Connection", "close" );
+			}
+		}
+		
+		
+		/**
+		 * runs the checks of the server and the handler on the current request
+		 *
+		 * @return   the status to answer the expectation with
+		 *
+		 */
+		protected int checkExpectation () {
+			return checkContinue ( request, handler );
+		}
+		
+		
+		/**
+		 * writes the interim response <code>100 Continue</code>
+		 *
+		 * @exception   IOException
+		 *
+		 */
+		protected void sendContinue () throws IOException {
+			output.write ( CONTINUE_RESPONSE );
+			output.flush();
+		}
+		
+		
 		/**
 		 * add additional fields to the header to enable Cross-Origin Resource Sharing
 		 *
@@ -213,32 +379,419 @@ public class HttpServer extends Thread
 		 *
 		 */
 		public void writeResponse () throws IOException {
-			// keep alive not yet implemented
-			if ( request != null && request.hasHeaderField( "connection" ) )
+			if ( cannedResponse != null ) {
+				// the connection is closed after a request, which cannot be handled
+				keepAlive = false;
+				output.write ( cannedResponse );
+				output.flush();
+				return;
+			}
+			
+			if ( ! response.isCommitted() ) {
+				String sCoding = getContentCoding ( true );
+				if ( sCoding != null ) {
+					// a large content is compressed while it is streamed in chunks
+					if ( response.getProtocolVersion() == HttpRequest.HTTP_VERSION_1_1 && ! response.hasCompressedForms()
+						&& iResponseBufferSize > 0 && response.getContentLength() > iResponseBufferSize )
+						response.flush();
+					else
+						response.compressContent ( sCoding );
+				}
+			}
+			
+			if ( response.isCommitted() ) {
+				finishStreamedResponse ();
+				return;
+			}
+			
+			keepAlive = isKeepAlivePossible ();
+			
+			writeHead ();
+			
+			try {
+				// the answer to a HEAD request must not contain a body
+				if ( request == null || ! request.isHeadRequest() ) {
+					response.writeContent ( output );
+					
+					if ( response.getBufferContent() != null )
+						transferBuffer ( response.getBufferContent() );
+					if ( response.getFileContent() != null )
+						transferFile ( response.getFileContent(), response.getFilePosition(), response.getFileLength() );
+				}
+			} finally {
+				response.releaseContent();
+			}
+			
+			// the output is flushed before waiting for the next request
+			if ( ! keepAlive )
+				output.flush();
+		}
+		
+		
+		/**
+		 * writes shared bytes (e.g. of a cached file) after the header and the buffered
+		 * content of the response. The bytes of a direct or mapped buffer are written
+		 * to a blocking socket channel directly, without being copied into the heap.
+		 *
+		 * @param    buffer              a  ByteBuffer
+		 *
+		 * @exception   IOException
+		 *
+		 */
+		protected void transferBuffer ( ByteBuffer buffer ) throws IOException {
+			SocketChannel channel = socket.getChannel();
+			if ( buffer.hasArray() || channel == null || ! channel.isBlocking() ) {
+				HttpResponseImpl.copyBuffer ( buffer, output );
+				return;
+			}
+			
+			// the header is still waiting in the buffer of the stream
+			output.flush();
+			
+			while ( buffer.hasRemaining() )
+				channel.write ( buffer );
+		}
+		
+		
+		/**
+		 * writes a region of a file after the header and the buffered content of the
+		 * response. On a blocking socket channel the file is sent by the operating
+		 * system from its cache (sendfile), without being copied into the heap, other
+		 * connections (e.g. SSL) get it through a pooled buffer.
+		 *
+		 * @param    file                a  FileChannel
+		 * @param    position            an offset in the file
+		 * @param    length              a number of bytes
+		 *
+		 * @exception   IOException
+		 *
+		 */
+		protected void transferFile ( FileChannel file, long position, long length ) throws IOException {
+			SocketChannel channel = socket.getChannel();
+			if ( channel == null || ! channel.isBlocking() ) {
+				HttpResponseImpl.copyFile ( file, position, length, output );
+				return;
+			}
+			
+			// the header is still waiting in the buffer of the stream
+			output.flush();
+			
+			while ( length > 0 ) {
+				long lSent = file.transferTo ( position, length, channel );
+				if ( lSent <= 0 && position >= file.size() )
+					throw new IOException ( "File has been truncated while it was sent!" );
+				
+				position += lSent;
+				length -= lSent;
+			}
+		}
+		
+		
+		/**
+		 * writes the header of the response streamed by the request handler, called
+		 * on its first flush
+		 *
+		 * @param    response            the response of the current request
+		 *
+		 * @return   the stream for the content, null for a HEAD request
+		 *
+		 * @exception   IOException
+		 *
+		 */
+		public OutputStream commit ( HttpResponseImpl response ) throws IOException {
+			if ( enableXOriginResSharing )
+				addXOriginResSharingHeaderFields();
+			
+			// without chunks the end of the content is marked by closing the connection
+			boolean bChunked = response.getProtocolVersion() == HttpRequest.HTTP_VERSION_1_1;
+			keepAlive = bChunked && isPersistencePossible ();
+			
+			if ( bChunked )
+				response.setHeaderField ( "Transfer-Encoding", "chunked" );
+			
+			// the size of a streamed content is not known, so it is not checked
+			String sCoding = getContentCoding ( false );
+			if ( sCoding != null )
+				response.setHeaderField ( "Content-Encoding", sCoding );
+			
+			writeHead ();
+			
+			if ( request.isHeadRequest() )
+				return null;
+			
+			OutputStream stream = output;
+			if ( bChunked ) {
+				chunkedOutput = new ChunkedOutputStream ( output );
+				stream = chunkedOutput;
+			}
+			
+			if ( sCoding == null )
+				return stream;
+			
+			compressedOutput = new CompressingOutputStream ( stream, sCoding, CompressingOutputStream.DEFAULT_LEVEL );
+			return compressedOutput;
+		}
+		
+		
+		/**
+		 * selects the content coding of the current response by the Accept-Encoding
+		 * field of the request and the compression settings of the server. If the
+		 * response is compressible, the field Vary is set, since its content depends
+		 * on the request.
+		 *
+		 * @param    checkSize           is the minimal size for compression applied?
+		 *
+		 * @return   "gzip", "deflate" or null, if the content is sent uncompressed
+		 *
+		 */
+		protected String getContentCoding ( boolean checkSize ) {
+			if ( request == null || iCompressionThreshold < 0 || request.isHeadRequest() )
+				return null;
+			
+			// responses without content and partial contents are not compressed
+			int iStatus = response.getStatus();
+			if ( iStatus < HttpResponse.STATUS_OK || iStatus == HttpResponse.STATUS_NO_CONTENT
+				|| iStatus == HttpResponse.STATUS_PARTIAL_CONTENT || iStatus == HttpResponse.STATUS_NOT_MODIFIED )
+				return null;
+			
+			// e.g. a precompressed file
+			if ( response.getHeaderField ( "Content-Encoding" ) != null )
+				return null;
+			
+			if ( ! isCompressible ( response.getContentType() ) )
+				return null;
+			
+			// shared or file content would be compressed for every response
+			if ( ! response.canCompress() )
+				return null;
+			
+			if ( checkSize && response.getContentLength() < iCompressionThreshold )
+				return null;
+			
+			addVary ( response, "Accept-Encoding" );
+			
+			return CompressingOutputStream.selectCoding ( request.getHeaderField ( "Accept-Encoding" ) );
+		}
+		
+		
+		/**
+		 * writes the rest of a streamed response and ends its content
+		 *
+		 * @exception   IOException
+		 *
+		 */
+		protected void finishStreamedResponse () throws IOException {
+			ChunkedOutputStream chunks = chunkedOutput;
+			chunkedOutput = null;
+			CompressingOutputStream compressor = compressedOutput;
+			compressedOutput = null;
+			
+			try {
+				// an incomplete content is marked by closing the connection without the last chunk
+				if ( response.isBroken() ) {
+					keepAlive = false;
+					output.flush();
+					return;
+				}
+				
+				response.flush();
+				if ( compressor != null )
+					compressor.finish();
+				if ( chunks != null )
+					chunks.close();
+				
+				// the next request can only be found, if the body of this one has been consumed
+				if ( keepAlive && ! request.skipContent ( MAX_SKIPPED_CONTENT ) )
+					keepAlive = false;
+			} finally {
+				if ( compressor != null )
+					compressor.release();
+				response.releaseContent();
+			}
+			
+			if ( ! keepAlive )
+				output.flush();
+		}
+		
+		
+		/**
+		 * writes the status line and the header fields of the response, including
+		 * the fields managing the connection according to <code>keepAlive</code>
+		 *
+		 * @exception   IOException
+		 *
+		 */
+		protected void writeHead () throws IOException {
+			if ( ! keepAlive )
 				response.setHeaderField ( "Connection", "close" );
+			else if ( request.getProtocolVersion() == HttpRequest.HTTP_VERSION_1_0 ) {
+				response.setHeaderField ( "Connection", "keep-alive" );
+				response.setHeaderField ( "Keep-Alive", "timeout=" + ( iKeepAliveTimeout / 1000 ) + ", max=" + ( iMaxKeepAliveRequests - requestCount ) );
+			}
 			
-			OutputStream out = socket.getOutputStream();
-			OutputStreamWriter osw = new OutputStreamWriter ( new BufferedOutputStream (out ) );
+			StringBuffer sbHead = new StringBuffer ();
 			
 			if ( response.getProtocolVersion() == HttpRequest.HTTP_VERSION_1_1 )
-				osw.write( "HTTP/1.1 " );
+				sbHead.append( "HTTP/1.1 " );
 			else
-				osw.write ( "HTTP/1.0 " );
+				sbHead.append ( "HTTP/1.0 " );
 	
-			osw.write ( ""+response.getStatus() );
-			osw.write ( " " );
-			osw.write ( HttpResponseImpl.getStatusMessage( response.getStatus() ) );
-			osw.write ( "\r\n" );
+			sbHead.append ( response.getStatus() );
+			sbHead.append ( " " );
+			sbHead.append ( HttpResponseImpl.getStatusMessage( response.getStatus() ) );
+			sbHead.append ( "\r\n" );
+			
+			sbHead.append ( response.getHeaders () );
+			
+			sbHead.append ( "\r\n" );
+			
+			output.write ( sbHead.toString().getBytes() );
+		}
+		
+		
+		/**
+		 * decides, whether the connection can be used for a further request after
+		 * the current response
+		 *
+		 * @return   a boolean
+		 *
+		 */
+		protected boolean isKeepAlivePossible () {
+			// the next request can only be found, if the body of this one has been consumed.
+			// A larger unread content is discarded after the response by closing the
+			// connection, so that the response is not delayed by the upload.
+			return isPersistencePossible () && request.skipContent ( MAX_SKIPPED_CONTENT );
+		}
+		
+		
+		/**
+		 * decides by the header fields and the state of the server, whether the
+		 * connection may be kept open after the current response
+		 *
+		 * @return   a boolean
+		 *
+		 */
+		protected boolean isPersistencePossible () {
+			if ( request == null || malformedRequest || isStopped() )
+				return false;
+			
+			if ( requestCount >= iMaxKeepAliveRequests )
+				return false;
+			
+			if ( "close".equalsIgnoreCase ( response.getHeaderField ( "Connection" ) ) )
+				return false;
+			
+			String sConnection = request.getHeaderField ( "Connection" );
+			if ( sConnection != null )
+				sConnection = sConnection.toLowerCase();
+			
+			if ( request.getProtocolVersion() == HttpRequest.HTTP_VERSION_1_1 )
+				return sConnection == null || sConnection.indexOf ( "close" ) < 0;
+			else
+				return sConnection != null && sConnection.indexOf ( "keep-alive" ) >= 0;
+		}
+		
+		
+		/**
+		 * reads, handles and answers a single request of the connection
+		 *
+		 * @return   true, if the connection can be used for a further request
+		 *
+		 * @exception   IOException
+		 * @exception   MalformedHeaderException
+		 *
+		 */
+		protected boolean serveRequest () throws IOException, MalformedHeaderException {
+			if ( ! readHeader () )
+				return false;
+			
+			if ( watch != null )
+				watch.done();
 			
-			osw.write ( response.getHeaders () );
+			requestCount ++;
 			
-			osw.write ( "\r\n" );
+			handleRequest();
+			writeResponse ();
 			
-			osw.write ( response.getContent() );
+			if ( watch != null )
+				watch.done();
+			
+			return keepAlive;
+		}
+		
+		
+		/**
+		 * closes the connection after the response has been written
+		 *
+		 * @exception   IOException
+		 *
+		 */
+		protected void closeConnection () throws IOException {
+			try {
+				output.flush();
+				
+				// the content of the request may not have been read
+				if ( request != null && ( malformedRequest || request.hasContent() ) )
+					drainBeforeClose ();
+			} finally {
+				socket.close();
+			}
+		}
+		
+		
+		/**
+		 * half closes the connection and discards the data still sent by the client
+		 * for a short time. Closing a socket with unread data resets the connection,
+		 * which may destroy the response before the client has read it.
+		 *
+		 */
+		protected void drainBeforeClose () {
+			byte[] discard = BufferPool.getShared().acquire ( 4096 );
+			try {
+				socket.shutdownOutput();
+				InputStream in = socket.getInputStream();
+				
+				long lEnd = System.currentTimeMillis() + LINGER_TIMEOUT;
+				long lLeft;
+				while ( ( lLeft = lEnd - System.currentTimeMillis() ) > 0 ) {
+					socket.setSoTimeout ( (int) lLeft );
+					if ( in.read ( discard ) < 0 )
+						break;
+				}
+			} catch ( IOException e ) {
+				// timed out or reset by the client
+			} catch ( UnsupportedOperationException e ) {
+				// SSL sockets cannot be half closed
+			} finally {
+				BufferPool.getShared().release ( discard );
+			}
+		}
+		
+		
+		
+		/**
+		 * answers the connection with the given status without reading the request
+		 * and closes it, e.g. if no worker is available for it
+		 *
+		 * @param    status              an int
+		 *
+		 */
+		public void reject ( int status ) {
+			cannedResponse = getCannedResponse ( status );
+			if ( cannedResponse == null ) {
+				response = new HttpResponseImpl ( status );
+				response.setHeaderField ( "Connection", "close" );
+			}
 			
-			osw.flush();
+			try {
+				writeResponse ();
+			} catch ( IOException e ) {
+			}
 			
-			socket.close();
+			try {
+				closeConnection();
+			} catch ( IOException e ) {
+			}
 		}
 		
 		
@@ -256,19 +809,52 @@ public class HttpServer extends Thread
 		 */
 		public void run() {
 			try {
-				readHeader ();
-				handleRequest();
-				writeResponse ();
+				while ( serveRequest () ) {
+					// wait at most the keep alive timeout for the next request
+					socket.setSoTimeout ( iKeepAliveTimeout );
+				}
 			} catch (IOException e) {
-				e.printStackTrace();
+				// the socket of a reaped connection has been closed on purpose
+				if ( watch == null || ! watch.isReaped() )
+					ErrorLog.log ( "I/O error on connection from " + socket.getRemoteSocketAddress() + ": " + e );
 			} catch (MalformedHeaderException e ) {
-				e.printStackTrace();
+				ErrorLog.log ( e.getMessage() + " (" + socket.getRemoteSocketAddress() + ")" );
+			} finally {
+				if ( watch != null )
+					watch.done();
+				try {
+					closeConnection();
+				} catch ( IOException e ) {
+				}
 			}
 		}
 		
 	} // nested class RequestHandler
 	
 	
+	/**
+	 * deadlines of a blocking connection, which is closed when reaped,
+	 * so that its thread returns from the waiting read
+	 *
+	 */
+	private class SocketWatch extends ConnectionWatch {
+		
+		private Socket socket;
+		
+		SocketWatch ( Socket socket ) {
+			super ( reaper, iHeaderTimeout, iMinContentRate, iContentRateGrace );
+			this.socket = socket;
+		}
+		
+		void reap () {
+			try {
+				socket.close();
+			} catch ( IOException e ) {
+			}
+		}
+	}
+	
+	
 	
 	
 	
@@ -289,9 +875,116 @@ public class HttpServer extends Thread
 	private String sAllowedOrigin = null;
 	private int iPreflightRequestMaxAge = 60; // default: 1 minute
 	
+	private ContinueCheck continueCheck = null;
+	
+	private int iContentSpillThreshold = HttpRequestImpl.DEFAULT_SPILL_THRESHOLD;
+	
+	private long lMaxDecompressedSize = HttpRequestImpl.DEFAULT_MAX_DECOMPRESSED_SIZE;
+	
+	private int iResponseBufferSize = HttpResponseImpl.DEFAULT_BUFFER_SIZE;
+	
+	/** default minimal size of a content in bytes, which is compressed (1 KB) */
+	public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+	
+	/** content types compressed by default: text, scripts and structured data */
+	private static final String[] DEFAULT_COMPRESSIBLE_TYPES = new String[] {
+		"text/*", "application/json", "application/javascript", "application/xml",
+		"application/xhtml+xml", "image/svg+xml" };
+	
+	private int iCompressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+	private String[] asCompressibleTypes = DEFAULT_COMPRESSIBLE_TYPES;
+	
+	/** default maximal size of a request's content in bytes (1 GB) */
+	public static final long DEFAULT_MAX_CONTENT_LENGTH = 1024L * 1024 * 1024;
+	
+	private int iMaxRequestLine = HttpRequestParser.DEFAULT_MAX_REQUEST_LINE;
+	private int iMaxHeaderFields = HttpRequestParser.DEFAULT_MAX_FIELDS;
+	private int iMaxHeaderSize = HttpRequestParser.DEFAULT_MAX_HEADER_SIZE;
+	private long lMaxContentLength = DEFAULT_MAX_CONTENT_LENGTH;
+	
+	private int iMaxKeepAliveRequests = 100;
+	private int iKeepAliveTimeout = 5 * 1000;  // default: 5 seconds
+	
+	private int iHeaderTimeout = 20 * 1000;  // default: 20 seconds
+	private int iMinContentRate = 500;  // default: 500 bytes per second
+	private int iContentRateGrace = 20 * 1000;  // default: 20 seconds
+	
+	private ConnectionReaper reaper = null;
+	
+	
+	/** every accepted connection is handled by a newly created thread */
+	public static final int EXECUTION_THREAD_PER_CONNECTION = 0;
+	
+	/** accepted connections are handled by a fixed number of worker threads */
+	public static final int EXECUTION_FIXED_POOL = 1;
+	
+	/** accepted connections are handled by a worker pool growing and shrinking between a minimal and a maximal size */
+	public static final int EXECUTION_ELASTIC_POOL = 2;
+	
+	/**
+	 * every accepted connection is handled by a new virtual thread (Java 21+).
+	 * On older virtual machines {@link #EXECUTION_ELASTIC_POOL} is used instead.
+	 */
+	public static final int EXECUTION_VIRTUAL_THREADS = 3;
+	
+	private int iExecutionMode = EXECUTION_THREAD_PER_CONNECTION;
+	
+	private int iMinWorkers = 16;
+	private int iMaxWorkers = 200;
+	private int iWorkerQueueSize = 100;
+	private int iWorkerIdleTimeout = 60 * 1000;  // default: 1 minute
+	
+	private ThreadPoolExecutor workerPool = null;
+	
+	private ExecutorService virtualThreadExecutor = null;
+	
+	private AtomicInteger aiActiveVirtualThreads = new AtomicInteger ( 0 );
+	
+	private AtomicInteger aiThreadCounter = new AtomicInteger ( 0 );
 	
 	private ThreadGroup tgRequestHandlers = new ThreadGroup ( "request handlers" );
 	
+	/** size of the receive buffer of each connection */
+	private static final int INPUT_BUFFER_SIZE = 8192;
+	
+	/** size of the buffer collecting the responses of each connection */
+	private static final int OUTPUT_BUFFER_SIZE = 8192;
+	
+	/** interim response to a request expecting a 100 Continue */
+	protected static final byte[] CONTINUE_RESPONSE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes();
+	
+	/** statuses of the precomputed responses to requests, which cannot be handled */
+	private static final int[] CANNED_STATUS = new int[] {
+		HttpResponse.STATUS_BAD_REQUEST,
+		HttpResponse.STATUS_REQUEST_ENTITY_TOO_LONG,
+		HttpResponse.STATUS_REQUEST_URI_TOO_LONG,
+		HttpResponse.STATUS_REQUEST_HEADER_FIELDS_TOO_LARGE,
+		HttpResponse.STATUS_NOT_IMPLEMENTED,
+		HttpResponse.STATUS_SERVICE_UNAVAILABLE,
+		HttpResponse.STATUS_HTTP_VERSION_NOT_SUPPORTED
+	};
+	
+	private static final byte[][] CANNED_RESPONSES = new byte[ CANNED_STATUS.length ][];
+	
+	static {
+		for ( int i = 0; i < CANNED_STATUS.length; i++ )
+			CANNED_RESPONSES[i] = ( "HTTP/1.1 " + CANNED_STATUS[i] + " " + HttpResponseImpl.getStatusMessage ( CANNED_STATUS[i] )
+				+ "\r\nConnection: close\r\nContent-Length: 0\r\nContent-Type: text/plain\r\n\r\n" ).getBytes();
+	}
+	
+	/** thrown (without stack trace) on connections closed in the middle of a header */
+	private static final MalformedHeaderException INCOMPLETE_HEADER =
+		new MalformedHeaderException ( "Unable to read a complete HTTP header from the input!", false );
+	
+	/** maximal time in ms to wait for further bytes of a request's content */
+	static final int CONTENT_TIMEOUT = 10 * 1000;
+	
+	/** maximal amount of unread content in bytes, which is skipped to keep a connection alive */
+	private static final int MAX_SKIPPED_CONTENT = 64 * 1024;
+	
+	/** maximal time in ms to discard unread content before closing a connection */
+	static final int LINGER_TIMEOUT = 2 * 1000;
+	
 	protected ServerSocket serverSocket;
 	
 	
@@ -321,6 +1014,19 @@ public class HttpServer extends Thread
 		iPort = port;
 	}
 	
+	/**
+	 * generates a new instance if the server
+	 *
+	 * @param    handlerClass        a  String
+	 * @param    port                an int
+	 * @param    executionMode       an int, one of the EXECUTION_* constants
+	 *
+	 */
+	public HttpServer ( String handlerClass, int port, int executionMode ) {
+		this ( handlerClass, port );
+		setExecutionMode ( executionMode );
+	}
+	
 	/**
 	 * generates a new instance if the server
 	 *
@@ -391,6 +1097,586 @@ public class HttpServer extends Thread
 		iSocketTimeout = timeoutMs;
 	}
 	
+	/**
+	 * Sets the way accepted connections are executed, see the EXECUTION_* constants.
+	 * <b>Note:</b> The mode can only be set if the server is not running.
+	 *
+	 * @param    mode                an int
+	 *
+	 */
+	public void setExecutionMode ( int mode ) {
+		if ( bIsRunning ) throw new IllegalStateException ( "Cannot change execution mode, if server is already running!" );
+		
+		if ( mode != EXECUTION_THREAD_PER_CONNECTION && mode != EXECUTION_FIXED_POOL && mode != EXECUTION_ELASTIC_POOL
+				&& mode != EXECUTION_VIRTUAL_THREADS )
+			throw new IllegalArgumentException ( "Unknown execution mode " + mode + "!" );
+		
+		iExecutionMode = mode;
+	}
+	
+	/**
+	 * returns the execution mode of this server (see the EXECUTION_* constants)
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getExecutionMode () {
+		return iExecutionMode;
+	}
+	
+	/**
+	 * Sets the bounds of the worker pool. In {@link #EXECUTION_FIXED_POOL} mode only
+	 * the maximal number is used. In {@link #EXECUTION_ELASTIC_POOL} mode a new thread
+	 * is started, whenever all threads are busy, until the maximal number is reached,
+	 * only then connections wait in the queue. Threads above the minimal number are
+	 * released after being idle for the given time.
+	 * <b>Note:</b> The sizes can only be set if the server is not running.
+	 *
+	 * @param    minWorkers          an int
+	 * @param    maxWorkers          an int
+	 * @param    idleTimeoutMs       an int
+	 *
+	 */
+	public void setWorkerPoolSize ( int minWorkers, int maxWorkers, int idleTimeoutMs ) {
+		if ( bIsRunning ) throw new IllegalStateException ( "Cannot change worker pool, if server is already running!" );
+		
+		if ( minWorkers < 0 || maxWorkers < 1 || maxWorkers < minWorkers )
+			throw new IllegalArgumentException ( "Invalid worker pool bounds " + minWorkers + " - " + maxWorkers + "!" );
+		
+		iMinWorkers = minWorkers;
+		iMaxWorkers = maxWorkers;
+		iWorkerIdleTimeout = idleTimeoutMs;
+	}
+	
+	/**
+	 * Sets the number of accepted connections that may wait for a free worker.
+	 * Connections exceeding this bound are answered with 503 Service Unavailable.
+	 * <b>Note:</b> The size can only be set if the server is not running.
+	 *
+	 * @param    queueSize           an int
+	 *
+	 */
+	public void setWorkerQueueSize ( int queueSize ) {
+		if ( bIsRunning ) throw new IllegalStateException ( "Cannot change worker queue, if server is already running!" );
+		
+		if ( queueSize < 1 )
+			throw new IllegalArgumentException ( "Worker queue size has to be positive!" );
+		
+		iWorkerQueueSize = queueSize;
+	}
+	
+	/**
+	 * returns the number of threads currently handling connections or waiting for them
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getWorkerPoolSize () {
+		if ( workerPool != null )
+			return workerPool.getPoolSize();
+		else if ( virtualThreadExecutor != null )
+			return aiActiveVirtualThreads.get();
+		else
+			return tgRequestHandlers.activeCount();
+	}
+	
+	/**
+	 * returns the number of threads currently handling a connection
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getActiveWorkerCount () {
+		if ( workerPool != null )
+			return workerPool.getActiveCount();
+		else if ( virtualThreadExecutor != null )
+			return aiActiveVirtualThreads.get();
+		else
+			return tgRequestHandlers.activeCount();
+	}
+	
+	/**
+	 * returns the number of accepted connections waiting for a free worker
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getWorkerQueueDepth () {
+		if ( workerPool != null )
+			return workerPool.getQueue().size();
+		else
+			return 0;
+	}
+	
+	/**
+	 * Configures persistent connections. A connection is closed after the given number
+	 * of requests or if no new request arrives within the timeout. A maximum of one
+	 * request disables keep alive.
+	 * <b>Note:</b> The values can only be set if the server is not running.
+	 *
+	 * @param    maxRequests         an int
+	 * @param    timeoutMs           an int
+	 *
+	 */
+	public void setKeepAlive ( int maxRequests, int timeoutMs ) {
+		if ( bIsRunning ) throw new IllegalStateException ( "Cannot change keep alive, if server is already running!" );
+		
+		if ( maxRequests < 1 || timeoutMs < 0 )
+			throw new IllegalArgumentException ( "Invalid keep alive settings!" );
+		
+		iMaxKeepAliveRequests = maxRequests;
+		iKeepAliveTimeout = timeoutMs;
+	}
+	
+	/**
+	 * Sets the check deciding about requests sending <code>Expect: 100-continue</code>
+	 * before their content is received. If the handler implements {@link ContinueCheck}
+	 * itself, it is asked after this check has passed.
+	 * <b>Note:</b> The check can only be set if the server is not running.
+	 *
+	 * @param    check               a  ContinueCheck or null
+	 *
+	 */
+	public void setContinueCheck ( ContinueCheck check ) {
+		if ( bIsRunning ) throw new IllegalStateException ( "Cannot change continue check, if server is already running!" );
+		
+		continueCheck = check;
+	}
+	
+	/**
+	 * returns the check of requests expecting a 100 Continue or null
+	 *
+	 * @return   a ContinueCheck
+	 *
+	 */
+	public ContinueCheck getContinueCheck () {
+		return continueCheck;
+	}
+	
+	/**
+	 * decides about a request expecting a 100 Continue by asking the check of the
+	 * server and the handler (if it implements {@link ContinueCheck})
+	 *
+	 * @param    request             the request without its content
+	 * @param    handler             the handler in charge of the request
+	 *
+	 * @return   {@link HttpResponse#STATUS_CONTINUE} or the final status of the request
+	 *
+	 */
+	protected int checkContinue ( HttpRequest request, RequestHandler handler ) {
+		int iStatus = HttpResponse.STATUS_CONTINUE;
+		
+		try {
+			if ( continueCheck != null )
+				iStatus = continueCheck.checkContinue ( request );
+			
+			if ( iStatus == HttpResponse.STATUS_CONTINUE && handler instanceof ContinueCheck )
+				iStatus = ((ContinueCheck) handler).checkContinue ( request );
+		} catch ( Exception e ) {
+			ErrorLog.log ( "Exception in continue check for " + request.getUrl() + ":", e );
+			iStatus = HttpResponse.STATUS_INTERNAL_SERVER_ERROR;
+		}
+		
+		return iStatus;
+	}
+	
+	/**
+	 * Sets the content size in bytes above which {@link HttpRequest#getContentBuffer}
+	 * stores a request's content in a temporary file instead of the heap.
+	 * <b>Note:</b> The value can only be set if the server is not running.
+	 *
+	 * @param    threshold           an int
+	 *
+	 */
+	public void setContentSpillThreshold ( int threshold ) {
+		if ( bIsRunning ) throw new IllegalStateException ( "Cannot change spill threshold, if server is already running!" );
+		
+		if ( threshold < 0 )
+			throw new IllegalArgumentException ( "Invalid spill threshold!" );
+		
+		iContentSpillThreshold = threshold;
+	}
+	
+	/**
+	 * returns the content size in bytes above which a content is stored in a temporary file
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getContentSpillThreshold () {
+		return iContentSpillThreshold;
+	}
+	
+	/**
+	 * Sets the number of content bytes a response collects, before it is streamed
+	 * to the client (see {@link HttpResponse#flush}). 0 disables streaming, unless
+	 * the request handler flushes the response itself.
+	 * <b>Note:</b> The value can only be set if the server is not running.
+	 *
+	 * @param    size                an int
+	 *
+	 */
+	public void setResponseBufferSize ( int size ) {
+		if ( bIsRunning ) throw new IllegalStateException ( "Cannot change response buffer size, if server is already running!" );
+		
+		if ( size < 0 )
+			throw new IllegalArgumentException ( "Invalid response buffer size!" );
+		
+		iResponseBufferSize = size;
+	}
+	
+	/**
+	 * returns the number of content bytes a response collects, before it is streamed
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getResponseBufferSize () {
+		return iResponseBufferSize;
+	}
+	
+	/**
+	 * Sets the compression of responses. The content of a response is compressed
+	 * with gzip or deflate, if the client accepts it (Accept-Encoding), its content
+	 * type is one of the given types and it has at least the given size. The content
+	 * of a response streamed by the request handler is compressed regardless of its
+	 * size. A request handler setting the field Content-Encoding itself (e.g. for a
+	 * precompressed file) prevents the compression.
+	 * <b>Note:</b> The values can only be set if the server is not running.
+	 *
+	 * @param    minSize             the minimal size of a content in bytes, -1 to
+	 *                               disable the compression
+	 * @param    contentTypes        media types (e.g. "application/json") or ranges
+	 *                               (e.g. "text/*"), null for the default types (text,
+	 *                               JSON, JavaScript, XML, XHTML and SVG)
+	 *
+	 */
+	public void setCompression ( int minSize, String[] contentTypes ) {
+		if ( bIsRunning ) throw new IllegalStateException ( "Cannot change compression, if server is already running!" );
+		
+		if ( minSize < -1 )
+			throw new IllegalArgumentException ( "Invalid compression threshold!" );
+		
+		iCompressionThreshold = minSize;
+		
+		if ( contentTypes == null )
+			asCompressibleTypes = DEFAULT_COMPRESSIBLE_TYPES;
+		else {
+			asCompressibleTypes = new String[ contentTypes.length ];
+			for ( int i = 0; i < contentTypes.length; i++ )
+				asCompressibleTypes[i] = contentTypes[i].trim().toLowerCase ( Locale.ENGLISH );
+		}
+	}
+	
+	/**
+	 * returns the minimal size of a content in bytes, which is compressed, -1 if
+	 * the compression is disabled
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getCompressionThreshold () {
+		return iCompressionThreshold;
+	}
+	
+	/**
+	 * checks, whether a content of the given type is compressed
+	 *
+	 * @param    contentType         a  String, possibly with parameters
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	public boolean isCompressible ( String contentType ) {
+		if ( contentType == null )
+			return false;
+		
+		int iParams = contentType.indexOf ( ';' );
+		if ( iParams >= 0 )
+			contentType = contentType.substring ( 0, iParams );
+		contentType = contentType.trim().toLowerCase ( Locale.ENGLISH );
+		
+		for ( int i = 0; i < asCompressibleTypes.length; i++ ) {
+			String sType = asCompressibleTypes[i];
+			if ( sType.endsWith ( "/*" ) ) {
+				if ( contentType.startsWith ( sType.substring ( 0, sType.length() - 1 ) ) )
+					return true;
+			} else if ( sType.equals ( contentType ) )
+				return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * adds a field name to the Vary field of a response, unless it is contained
+	 * already
+	 *
+	 * @param    response            a  HttpResponse
+	 * @param    field               the name of a request header field
+	 *
+	 */
+	static void addVary ( HttpResponse response, String field ) {
+		String sVary = response.getHeaderField ( "Vary" );
+		if ( sVary == null ) {
+			response.setHeaderField ( "Vary", field );
+			return;
+		}
+		
+		if ( sVary.toLowerCase ( Locale.ENGLISH ).indexOf ( field.toLowerCase ( Locale.ENGLISH ) ) < 0 && ! sVary.equals ( "*" ) )
+			response.setHeaderField ( "Vary", sVary + ", " + field );
+	}
+	
+	/**
+	 * Sets the maximal number of bytes a gzip or deflate compressed request content
+	 * may expand to. Reading beyond fails with an IOException.
+	 * <b>Note:</b> The value can only be set if the server is not running.
+	 *
+	 * @param    maxSize             a long
+	 *
+	 */
+	public void setMaxDecompressedSize ( long maxSize ) {
+		if ( bIsRunning ) throw new IllegalStateException ( "Cannot change decompression limit, if server is already running!" );
+		
+		if ( maxSize < 0 )
+			throw new IllegalArgumentException ( "Invalid decompression limit!" );
+		
+		lMaxDecompressedSize = maxSize;
+	}
+	
+	/**
+	 * returns the maximal number of bytes a compressed request content may expand to
+	 *
+	 * @return   a long
+	 *
+	 */
+	public long getMaxDecompressedSize () {
+		return lMaxDecompressedSize;
+	}
+	
+	/**
+	 * Sets the limits of a request's header, which are enforced while it is read.
+	 * A longer request line is answered with 414, too many fields or a larger header
+	 * with 431 and the connection is closed.
+	 * <b>Note:</b> The values can only be set if the server is not running.
+	 *
+	 * @param    maxRequestLine      maximal length of the request line in bytes
+	 * @param    maxHeaderFields     maximal number of header fields
+	 * @param    maxHeaderSize       maximal size of the complete header in bytes
+	 *
+	 */
+	public void setRequestLimits ( int maxRequestLine, int maxHeaderFields, int maxHeaderSize ) {
+		if ( bIsRunning ) throw new IllegalStateException ( "Cannot change request limits, if server is already running!" );
+		
+		if ( maxRequestLine < 16 || maxHeaderFields < 0 || maxHeaderSize < maxRequestLine )
+			throw new IllegalArgumentException ( "Invalid request limits!" );
+		
+		iMaxRequestLine = maxRequestLine;
+		iMaxHeaderFields = maxHeaderFields;
+		iMaxHeaderSize = maxHeaderSize;
+	}
+	
+	/**
+	 * returns the maximal length of a request line in bytes
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getMaxRequestLine () {
+		return iMaxRequestLine;
+	}
+	
+	/**
+	 * returns the maximal number of header fields of a request
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getMaxHeaderFields () {
+		return iMaxHeaderFields;
+	}
+	
+	/**
+	 * returns the maximal size of a request header in bytes
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getMaxHeaderSize () {
+		return iMaxHeaderSize;
+	}
+	
+	/**
+	 * Sets the maximal size of a request's content in bytes. A larger Content-Length
+	 * is answered with 413 before the content is read, a chunked content as soon as
+	 * it exceeds the limit.
+	 * <b>Note:</b> The value can only be set if the server is not running.
+	 *
+	 * @param    maxLength           a long
+	 *
+	 */
+	public void setMaxContentLength ( long maxLength ) {
+		if ( bIsRunning ) throw new IllegalStateException ( "Cannot change content limit, if server is already running!" );
+		
+		if ( maxLength < 0 )
+			throw new IllegalArgumentException ( "Invalid content limit!" );
+		
+		lMaxContentLength = maxLength;
+	}
+	
+	/**
+	 * returns the maximal size of a request's content in bytes
+	 *
+	 * @return   a long
+	 *
+	 */
+	public long getMaxContentLength () {
+		return lMaxContentLength;
+	}
+	
+	/**
+	 * Sets the time in ms within which the header of a request has to be received
+	 * completely, counted from the start of waiting for it. Connections exceeding it
+	 * are closed. 0 disables the limit.
+	 * <b>Note:</b> The timeout can only be set if the server is not running.
+	 *
+	 * @param    timeoutMs           an int
+	 *
+	 */
+	public void setHeaderTimeout ( int timeoutMs ) {
+		if ( bIsRunning ) throw new IllegalStateException ( "Cannot change header timeout, if server is already running!" );
+		
+		if ( timeoutMs < 0 )
+			throw new IllegalArgumentException ( "Invalid header timeout!" );
+		
+		iHeaderTimeout = timeoutMs;
+	}
+	
+	/**
+	 * returns the time in ms within which the header of a request has to be received
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getHeaderTimeout () {
+		return iHeaderTimeout;
+	}
+	
+	/**
+	 * Sets the minimal rate at which the content of a request has to be received.
+	 * After the grace period every further second spent waiting for the content has
+	 * to bring the given number of bytes, otherwise the connection is closed.
+	 * 0 disables the limit.
+	 * <b>Note:</b> The rate can only be set if the server is not running.
+	 *
+	 * @param    bytesPerSecond      an int
+	 * @param    graceMs             an int
+	 *
+	 */
+	public void setMinContentRate ( int bytesPerSecond, int graceMs ) {
+		if ( bIsRunning ) throw new IllegalStateException ( "Cannot change content rate, if server is already running!" );
+		
+		if ( bytesPerSecond < 0 || graceMs < 0 )
+			throw new IllegalArgumentException ( "Invalid content rate!" );
+		
+		iMinContentRate = bytesPerSecond;
+		iContentRateGrace = graceMs;
+	}
+	
+	/**
+	 * returns the minimal rate of a request's content in bytes per second
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getMinContentRate () {
+		return iMinContentRate;
+	}
+	
+	/**
+	 * returns the time in ms before the minimal content rate is enforced
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getContentRateGrace () {
+		return iContentRateGrace;
+	}
+	
+	/**
+	 * returns the number of connections closed so far, because their clients
+	 * have missed the header timeout or the minimal content rate
+	 *
+	 * @return   a long
+	 *
+	 */
+	public long getReapedConnectionCount () {
+		return reaper == null ? 0 : reaper.getReapedCount();
+	}
+	
+	/**
+	 * returns the wheel reaping slow connections or null, if no deadlines are enforced
+	 *
+	 * @return   a ConnectionReaper
+	 *
+	 */
+	ConnectionReaper getReaper () {
+		return reaper;
+	}
+	
+	/**
+	 * creates a parser for request headers enforcing the limits of this server
+	 *
+	 * @return   a HttpRequestParser
+	 *
+	 */
+	HttpRequestParser createParser () {
+		HttpRequestParser parser = new HttpRequestParser ();
+		parser.setLimits ( iMaxRequestLine, iMaxHeaderFields, iMaxHeaderSize, lMaxContentLength );
+		return parser;
+	}
+	
+	/**
+	 * returns the maximal number of requests served via a single connection
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getMaxKeepAliveRequests () {
+		return iMaxKeepAliveRequests;
+	}
+	
+	/**
+	 * returns the time in ms an idle persistent connection is kept open
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getKeepAliveTimeout () {
+		return iKeepAliveTimeout;
+	}
+	
+	/**
+	 * returns the origin allowed for Cross-Origin Resource Sharing or null,
+	 * if it is not enabled
+	 *
+	 * @return   a String
+	 *
+	 */
+	public String getAllowedOrigin () {
+		return sAllowedOrigin;
+	}
+	
+	/**
+	 * returns the max age of preflight requests for Cross-Origin Resource Sharing
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getPreflightRequestMaxAge () {
+		return iPreflightRequestMaxAge;
+	}
+	
 	/**
 	 * returns the port number of this server
 	 *
@@ -449,8 +1735,16 @@ public class HttpServer extends Thread
 		System.out.println("Starting HTTP-Server on port " + iPort );
 		
 		try {
-			serverSocket = new ServerSocket ( iPort );
+			// a socket created via a channel has a channel itself, so files can be sent with transferTo
+			serverSocket = ServerSocketChannel.open().socket();
+			serverSocket.bind ( new InetSocketAddress ( iPort ) );
 		} catch (IOException e) {
+			if ( serverSocket != null ) {
+				try {
+					serverSocket.close();
+				} catch ( IOException e2 ) {
+				}
+			}
 			System.err.println ( "Unable to generate server socket on port " + iPort + "!" );
 			throw new UnableToStartServerException ( e );
 		}
@@ -465,6 +1759,214 @@ public class HttpServer extends Thread
 	}
 	
 	
+	/**
+	 * creates the worker pool according to the execution mode
+	 *
+	 */
+	protected void startWorkers () {
+		if ( iExecutionMode == EXECUTION_THREAD_PER_CONNECTION )
+			return;
+		
+		if ( iExecutionMode == EXECUTION_VIRTUAL_THREADS ) {
+			virtualThreadExecutor = createVirtualThreadExecutor ( "http-" + iPort + "-virtual-" );
+			if ( virtualThreadExecutor != null )
+				return;
+			
+			System.err.println ( "Virtual threads are not supported by this VM, using an elastic worker pool!" );
+		}
+		
+		if ( iExecutionMode == EXECUTION_FIXED_POOL ) {
+			workerPool = new ThreadPoolExecutor ( iMaxWorkers, iMaxWorkers, iWorkerIdleTimeout, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable> ( iWorkerQueueSize ),
+				new WorkerThreadFactory (),
+				new RejectedConnectionHandler () );
+			workerPool.prestartAllCoreThreads();
+			return;
+		}
+		
+		ElasticQueue queue = new ElasticQueue ( iWorkerQueueSize );
+		workerPool = new ThreadPoolExecutor ( iMinWorkers, iMaxWorkers, iWorkerIdleTimeout, TimeUnit.MILLISECONDS,
+			queue,
+			new WorkerThreadFactory (),
+			new RejectedConnectionHandler () );
+		queue.setPool ( workerPool );
+	}
+	
+	
+	/**
+	 * returns the precomputed, complete response with the given error status,
+	 * after which the connection is closed
+	 *
+	 * @param    status              an int
+	 *
+	 * @return   a byte[] (not to be modified) or null, if there is none for the status
+	 *
+	 */
+	protected static byte[] getCannedResponse ( int status ) {
+		for ( int i = 0; i < CANNED_STATUS.length; i++ )
+			if ( CANNED_STATUS[i] == status )
+				return CANNED_RESPONSES[i];
+		
+		return null;
+	}
+	
+	
+	/**
+	 * starts the wheel reaping connections of slow clients
+	 *
+	 */
+	protected void startReaper () {
+		if ( iHeaderTimeout == 0 && iMinContentRate == 0 )
+			return;
+		
+		reaper = new ConnectionReaper ();
+		reaper.start ( "http-" + iPort + "-reaper" );
+	}
+	
+	
+	/**
+	 * hands an accepted connection over to a worker according to the execution mode
+	 *
+	 * @param    requestHandler      a  SocketRequestHandler
+	 *
+	 */
+	protected void dispatch ( final SocketRequestHandler requestHandler ) {
+		if ( workerPool != null ) {
+			workerPool.execute( requestHandler );
+		} else if ( virtualThreadExecutor != null ) {
+			virtualThreadExecutor.execute ( new Runnable () {
+				public void run () {
+					aiActiveVirtualThreads.incrementAndGet();
+					try {
+						requestHandler.run();
+					} finally {
+						aiActiveVirtualThreads.decrementAndGet();
+					}
+				}
+			} );
+		} else {
+			Thread handlerThread = new Thread ( tgRequestHandlers, requestHandler, nextThreadName() );
+			handlerThread.start();
+		}
+	}
+	
+	
+	/**
+	 * creates an executor starting a new named virtual thread per task via reflection,
+	 * so that the server still runs on virtual machines without virtual threads
+	 *
+	 * @param    namePrefix          a  String
+	 *
+	 * @return   an ExecutorService or null, if virtual threads are not supported
+	 *
+	 */
+	public static ExecutorService createVirtualThreadExecutor ( String namePrefix ) {
+		try {
+			Object builder = Thread.class.getMethod ( "ofVirtual" ).invoke ( null );
+			Class<?> clBuilder = Class.forName ( "java.lang.Thread$Builder" );
+			builder = clBuilder.getMethod ( "name", String.class, long.class ).invoke ( builder, namePrefix, Long.valueOf ( 1 ) );
+			ThreadFactory factory = (ThreadFactory) clBuilder.getMethod ( "factory" ).invoke ( builder );
+			
+			return (ExecutorService) Executors.class
+				.getMethod ( "newThreadPerTaskExecutor", ThreadFactory.class ).invoke ( null, factory );
+		} catch ( Exception e ) {
+			// no virtual threads before Java 21
+			return null;
+		}
+	}
+	
+	
+	/**
+	 * returns a name for a new request handling thread
+	 *
+	 * @return   a String
+	 *
+	 */
+	private String nextThreadName () {
+		return "http-" + iPort + "-worker-" + aiThreadCounter.incrementAndGet();
+	}
+	
+	
+	/**
+	 * factory creating the named threads of the worker pool inside the
+	 * request handler thread group
+	 *
+	 */
+	private class WorkerThreadFactory implements ThreadFactory {
+		public Thread newThread ( Runnable r ) {
+			Thread thread = new Thread ( tgRequestHandlers, r, nextThreadName() );
+			thread.setDaemon ( false );
+			return thread;
+		}
+	}
+	
+	
+	/**
+	 * answers connections not fitting into the worker queue with
+	 * 503 Service Unavailable
+	 *
+	 */
+	private class RejectedConnectionHandler implements RejectedExecutionHandler {
+		public void rejectedExecution ( Runnable r, ThreadPoolExecutor executor ) {
+			// the elastic pool has reached its maximal size meanwhile, so the connection waits
+			if ( ! executor.isShutdown() && executor.getQueue() instanceof ElasticQueue
+				&& ((ElasticQueue) executor.getQueue()).enqueue ( r ) )
+				return;
+			
+			if ( ! ( r instanceof SocketRequestHandler ) )
+				throw new RejectedExecutionException ();
+			
+			((SocketRequestHandler) r).reject ( HttpResponse.STATUS_SERVICE_UNAVAILABLE );
+		}
+	}
+	
+	
+	/**
+	 * Queue of the elastic worker pool. A ThreadPoolExecutor starts threads above
+	 * its core size only, if its queue refuses a task, i.e. only when the queue is
+	 * full. This queue refuses a connection instead, as long as all workers are busy
+	 * and the pool may still grow, so connections wait only when the pool has
+	 * reached its maximal size.
+	 */
+	private static class ElasticQueue extends ArrayBlockingQueue<Runnable> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private ThreadPoolExecutor pool = null;
+		
+		ElasticQueue ( int capacity ) {
+			super ( capacity );
+		}
+		
+		void setPool ( ThreadPoolExecutor pool ) {
+			this.pool = pool;
+		}
+		
+		public boolean offer ( Runnable r ) {
+			if ( pool != null ) {
+				int iPoolSize = pool.getPoolSize();
+				// an idle worker takes the connection from the queue
+				if ( iPoolSize < pool.getMaximumPoolSize() && pool.getActiveCount() >= iPoolSize )
+					return false;
+			}
+			
+			return super.offer ( r );
+		}
+		
+		/**
+		 * queues a connection refused before, if there is space left
+		 *
+		 * @param    r                   a  Runnable
+		 *
+		 * @return   a boolean
+		 *
+		 */
+		boolean enqueue ( Runnable r ) {
+			return super.offer ( r );
+		}
+	}
+	
+	
 	/**
 	 * The main part of the server thread: the listening loop
 	 *
@@ -474,14 +1976,14 @@ public class HttpServer extends Thread
 	protected void startListeningLoop () throws InterruptedException {
 		bIsRunning = true;
 		
-		while ( !isInterrupted() && ! bStopped ) {
+		while ( ! isStopped() ) {
 			try {
-				Socket incoming = serverSocket.accept();
-				
-				Thread handlerThread = new Thread ( tgRequestHandlers, new SocketRequestHandler ( incoming, standardHandler, sAllowedOrigin, iPreflightRequestMaxAge ));
-				handlerThread.start();
+				listen();
 			} catch ( SocketTimeoutException e ) {
 			} catch (IOException e) {
+				// the interrupt of stopServer closes a channel based server socket
+				if ( isStopped() )
+					break;
 				System.err.println("Error getting request socket!");
 				e.printStackTrace();
 			}
@@ -489,6 +1991,31 @@ public class HttpServer extends Thread
 	}
 	
 	
+	/**
+	 * waits for the next incoming connection and hands it over to a worker.
+	 * Returns at the latest after the socket timeout.
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	protected void listen () throws IOException {
+		Socket incoming = serverSocket.accept();
+		
+		dispatch ( new SocketRequestHandler ( incoming, standardHandler, sAllowedOrigin, iPreflightRequestMaxAge ) );
+	}
+	
+	
+	/**
+	 * has this server been stopped?
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	protected boolean isStopped () {
+		return isInterrupted() || bStopped;
+	}
+	
+	
 	/**
 	 * close the server socket and stop all left handler threads
 	 *
@@ -503,13 +2030,30 @@ public class HttpServer extends Thread
 			e.printStackTrace();
 		}
 		
+		if ( workerPool != null )
+			workerPool.shutdown();
+		if ( virtualThreadExecutor != null )
+			virtualThreadExecutor.shutdown();
+		if ( reaper != null )
+			reaper.stop();
+		
 		// try friendly
 		tgRequestHandlers.interrupt();
+		
+		// clear the interrupt of stopServer, otherwise the grace period is skipped
+		Thread.interrupted();
 		try {
-			Thread.sleep( 2000 );
+			if ( workerPool != null )
+				workerPool.awaitTermination ( 2000, TimeUnit.MILLISECONDS );
+			else
+				Thread.sleep( 2000 );
 		} catch (InterruptedException e) {
 		}
 		
+		// virtual threads do not belong to the thread group
+		if ( virtualThreadExecutor != null )
+			virtualThreadExecutor.shutdownNow();
+		
 		// ok, then kill everything left
 		tgRequestHandlers.stop();
 		
@@ -531,6 +2075,8 @@ public class HttpServer extends Thread
 		try {
 			initializeHandler();
 			openServerSocket();
+			startWorkers();
+			startReaper();
 			startListeningLoop();
 		} catch ( InterruptedException ie ) {
 			ie.printStackTrace();
@@ -23,5 +23,18 @@ public class MalformedHeaderException extends Exception
 		super ( message, cause );
 	}
 	
+	
+	/**
+	 * creates an exception without stack trace, which can be preallocated
+	 * and thrown repeatedly at no cost
+	 *
+	 * @param    message             a  String
+	 * @param    writableStackTrace  false for an exception without stack trace
+	 *
+	 */
+	MalformedHeaderException ( String message, boolean writableStackTrace ) {
+		super ( message, null, false, writableStackTrace );
+	}
+	
 }
 
@@ -0,0 +1,430 @@
+package i5.httpServer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+
+/**
+ * Streaming parser of a <code>multipart/form-data</code> content (RFC 7578).
+ *
+ * The parts are read one after another from the content stream by {@link #nextPart}.
+ * The data of a part is kept in memory up to a threshold, larger parts (e.g. file
+ * uploads) are written to a temporary file. Once the parts kept in memory have used
+ * up the memory budget of the parser, all further parts are written to temporary
+ * files. Thus the content is never held in memory as a whole.
+ *
+ * The parser keeps no reference to the parts it has returned, only the temporary
+ * files are recorded. They are deleted by {@link #close}, which is called by the
+ * server after the request has been answered.
+ *
+ * Usage:
+ * <pre>
+ *   MultipartParser parser = request.getMultipartParser();
+ *   MultipartPart part;
+ *   while ( ( part = parser.nextPart() ) != null ) {
+ *     ...
+ *   }
+ * </pre>
+ */
+
+public class MultipartParser
+{
+
+	/** default size in bytes up to which the data of a part is kept in memory */
+	public static final int DEFAULT_MEMORY_THRESHOLD = 64 * 1024;
+
+	/** default size in bytes up to which the data of all parts together is kept in memory */
+	public static final long DEFAULT_MEMORY_BUDGET = 1024 * 1024;
+
+	/** maximal size of the header of a single part */
+	private static final int MAX_PART_HEADER_SIZE = 16 * 1024;
+
+	/** size of the read buffer */
+	private static final int BUFFER_SIZE = 8192;
+
+
+	private InputStream in;
+
+	/* the delimiter of the parts including the leading line break */
+	private byte[] delimiter;
+
+	private byte[] buffer;
+	private int iPos = 0;
+	private int iLimit = 0;
+	private boolean bEndOfStream = false;
+
+	private boolean bStarted = false;
+	private boolean bFinished = false;
+
+	private int iMemoryThreshold = DEFAULT_MEMORY_THRESHOLD;
+	private long lMemoryBudget = DEFAULT_MEMORY_BUDGET;
+	private long lMemoryUsed = 0;
+	private File tempDirectory = null;
+
+	/* the temporary files of the parts read so far */
+	private ArrayList<File> alFiles = new ArrayList<File> ();
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param    in                  the (decoded) content of the request
+	 * @param    boundary            the boundary given in the Content-Type of the request
+	 *
+	 */
+	public MultipartParser ( InputStream in, String boundary ) {
+		if ( boundary == null || boundary.length() == 0 || boundary.length() > 200 )
+			throw new IllegalArgumentException ( "Invalid multipart boundary!" );
+
+		this.in = in;
+
+		String sDelimiter = "\r\n--" + boundary;
+		delimiter = new byte[ sDelimiter.length() ];
+		for ( int i = 0; i < delimiter.length; i++ )
+			delimiter[i] = (byte) sDelimiter.charAt ( i );
+
+		buffer = new byte[ Math.max ( BUFFER_SIZE, 2 * delimiter.length ) ];
+
+		// the first delimiter may directly start the content without a line break
+		buffer[0] = '\r';
+		buffer[1] = '\n';
+		iLimit = 2;
+	}
+
+
+	/**
+	 * sets the size in bytes up to which the data of a part is kept in memory
+	 *
+	 * @param    threshold           an int
+	 *
+	 */
+	public void setMemoryThreshold ( int threshold ) {
+		if ( threshold < 0 )
+			throw new IllegalArgumentException ( "Invalid memory threshold!" );
+
+		iMemoryThreshold = threshold;
+	}
+
+	/**
+	 * returns the size in bytes up to which the data of a part is kept in memory
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getMemoryThreshold () {
+		return iMemoryThreshold;
+	}
+
+	/**
+	 * sets the size in bytes up to which the data of all parts together is kept
+	 * in memory
+	 *
+	 * @param    budget              a  long
+	 *
+	 */
+	public void setMemoryBudget ( long budget ) {
+		if ( budget < 0 )
+			throw new IllegalArgumentException ( "Invalid memory budget!" );
+
+		lMemoryBudget = budget;
+	}
+
+	/**
+	 * returns the size in bytes up to which the data of all parts together is
+	 * kept in memory
+	 *
+	 * @return   a long
+	 *
+	 */
+	public long getMemoryBudget () {
+		return lMemoryBudget;
+	}
+
+	/**
+	 * sets the directory for the temporary files of large parts,
+	 * null for the default temporary directory
+	 *
+	 * @param    directory           a  File
+	 *
+	 */
+	public void setTempDirectory ( File directory ) {
+		tempDirectory = directory;
+	}
+
+
+	/**
+	 * reads the next part of the content. The data of the previous part stays
+	 * available.
+	 *
+	 * @return   the next part or null, if all parts have been read
+	 *
+	 * @exception   IOException      the content could not be read or is malformed
+	 *
+	 */
+	public MultipartPart nextPart () throws IOException {
+		if ( bFinished )
+			return null;
+
+		if ( ! bStarted ) {
+			// skip the preamble
+			bStarted = true;
+			readData ( null );
+		}
+
+		if ( ! readDelimiterEnd() ) {
+			finish();
+			return null;
+		}
+
+		MultipartPart part = new MultipartPart ( readPartHeader() );
+
+		PartOutput output = new PartOutput ( part );
+		try {
+			readData ( output );
+		} finally {
+			output.close();
+		}
+
+		return part;
+	}
+
+
+	/**
+	 * deletes the temporary files of all parts read so far
+	 *
+	 */
+	public void close () {
+		for ( File file : alFiles )
+			file.delete();
+		alFiles.clear();
+	}
+
+
+	/**
+	 * reads the remainder of the line following a delimiter
+	 *
+	 * @return   false, if it has been the closing delimiter
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	private boolean readDelimiterEnd () throws IOException {
+		if ( ! fill ( 2 ) )
+			throw new IOException ( "Multipart content has ended without closing delimiter!" );
+
+		if ( buffer[iPos] == '-' && buffer[iPos+1] == '-' )
+			return false;
+
+		// transport padding up to the line break
+		while ( true ) {
+			if ( ! fill ( 1 ) )
+				throw new IOException ( "Multipart content has ended without closing delimiter!" );
+
+			byte c = buffer[iPos++];
+			if ( c == '\n' )
+				return true;
+			if ( c != ' ' && c != '\t' && c != '\r' )
+				throw new IOException ( "Multipart delimiter is not followed by a line break!" );
+		}
+	}
+
+
+	/**
+	 * reads the header fields of a part
+	 *
+	 * @return   a HeaderFields
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	private HeaderFields readPartHeader () throws IOException {
+		HttpRequestParser parser = new HttpRequestParser ();
+		parser.resetForTrailer();
+
+		int iRead = 0;
+		while ( ! parser.isComplete() ) {
+			if ( ! fill ( 1 ) )
+				throw new IOException ( "Multipart content has ended inside of a part header!" );
+
+			int iConsumed = parser.parse ( buffer, iPos, iLimit - iPos );
+			iPos += iConsumed;
+			iRead += iConsumed;
+
+			if ( iRead > MAX_PART_HEADER_SIZE )
+				throw new IOException ( "Multipart part header is too large!" );
+		}
+
+		if ( parser.getError() != null )
+			throw new IOException ( "Malformed multipart part header: " + parser.getError() );
+
+		return parser.getHeaderFields();
+	}
+
+
+	/**
+	 * reads data up to and including the next delimiter
+	 *
+	 * @param    output              receives the data, null to skip it
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	private void readData ( PartOutput output ) throws IOException {
+		while ( true ) {
+			if ( ! fill ( delimiter.length ) )
+				throw new IOException ( "Multipart content has ended without closing delimiter!" );
+
+			int iFound = indexOfDelimiter();
+			if ( iFound >= 0 ) {
+				if ( output != null )
+					output.write ( buffer, iPos, iFound - iPos );
+				iPos = iFound + delimiter.length;
+				return;
+			}
+
+			// the tail of the buffer may be the start of a delimiter
+			int iSafe = iLimit - delimiter.length + 1;
+			if ( output != null )
+				output.write ( buffer, iPos, iSafe - iPos );
+			iPos = iSafe;
+		}
+	}
+
+
+	/**
+	 * searches the delimiter in the buffered data
+	 *
+	 * @return   the index of the delimiter or -1
+	 *
+	 */
+	private int indexOfDelimiter () {
+		int iLast = iLimit - delimiter.length;
+		byte bFirst = delimiter[0];
+
+		for ( int i = iPos; i <= iLast; i++ ) {
+			if ( buffer[i] != bFirst )
+				continue;
+
+			int j = 1;
+			while ( j < delimiter.length && buffer[i+j] == delimiter[j] )
+				j ++;
+			if ( j == delimiter.length )
+				return i;
+		}
+
+		return -1;
+	}
+
+
+	/**
+	 * makes sure that the given number of bytes is buffered
+	 *
+	 * @param    count               an int
+	 *
+	 * @return   false, if the content has ended before
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	private boolean fill ( int count ) throws IOException {
+		if ( iLimit - iPos >= count )
+			return true;
+
+		if ( iPos > 0 ) {
+			System.arraycopy ( buffer, iPos, buffer, 0, iLimit - iPos );
+			iLimit -= iPos;
+			iPos = 0;
+		}
+
+		while ( iLimit < count && ! bEndOfStream ) {
+			int iRead = in.read ( buffer, iLimit, buffer.length - iLimit );
+			if ( iRead < 0 )
+				bEndOfStream = true;
+			else
+				iLimit += iRead;
+		}
+
+		return iLimit >= count;
+	}
+
+
+	/**
+	 * the closing delimiter has been read, the epilogue is skipped
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	private void finish () throws IOException {
+		bFinished = true;
+
+		iPos = iLimit;
+		byte[] skip = new byte[ 1024 ];
+		while ( ! bEndOfStream && in.read ( skip ) >= 0 )
+			;
+	}
+
+
+
+	/**
+	 * collects the data of a part in memory and switches to a temporary file,
+	 * when the threshold or the remaining memory budget is exceeded
+	 *
+	 */
+	private class PartOutput {
+
+		private MultipartPart part;
+
+		private byte[] data = new byte[ 256 ];
+		private int iLength = 0;
+
+		private File file = null;
+		private OutputStream fileOutput = null;
+		private long lSize = 0;
+
+		PartOutput ( MultipartPart part ) {
+			this.part = part;
+		}
+
+		void write ( byte[] b, int off, int len ) throws IOException {
+			lSize += len;
+
+			if ( fileOutput == null && lSize > Math.min ( iMemoryThreshold, lMemoryBudget - lMemoryUsed ) ) {
+				file = File.createTempFile ( "multipart", ".tmp", tempDirectory );
+				// registered first, so that the file is deleted in any case
+				alFiles.add ( file );
+				part.setFile ( file, 0 );
+				fileOutput = new FileOutputStream ( file );
+				fileOutput.write ( data, 0, iLength );
+				data = null;
+			}
+
+			if ( fileOutput != null ) {
+				fileOutput.write ( b, off, len );
+				return;
+			}
+
+			if ( iLength + len > data.length ) {
+				byte[] grown = new byte[ Math.max ( iLength + len, Math.min ( data.length * 2, iMemoryThreshold ) ) ];
+				System.arraycopy ( data, 0, grown, 0, iLength );
+				data = grown;
+			}
+			System.arraycopy ( b, off, data, iLength, len );
+			iLength += len;
+		}
+
+		void close () throws IOException {
+			if ( fileOutput != null ) {
+				fileOutput.close();
+				part.setFile ( file, lSize );
+			} else {
+				lMemoryUsed += iLength;
+				part.setData ( data, iLength );
+			}
+		}
+	}
+
+}
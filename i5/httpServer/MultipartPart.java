@@ -0,0 +1,258 @@
+package i5.httpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+
+
+/**
+ * a single part of a <code>multipart/form-data</code> content read by a
+ * {@link MultipartParser}.
+ *
+ * The data of a small part is kept in memory, a large part is stored in a
+ * temporary file, which is deleted after the request has been answered.
+ */
+
+public class MultipartPart
+{
+
+	private HeaderFields headerFields;
+
+	private String sName = null;
+	private String sFileName = null;
+
+	private byte[] data = null;
+	private int iLength = 0;
+
+	private File file = null;
+	private long lSize = 0;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param    headerFields        the header of the part
+	 *
+	 */
+	MultipartPart ( HeaderFields headerFields ) {
+		this.headerFields = headerFields;
+
+		String sDisposition = headerFields.get ( "Content-Disposition" );
+		if ( sDisposition != null ) {
+			sName = getParameter ( sDisposition, "name" );
+			sFileName = getParameter ( sDisposition, "filename" );
+		}
+	}
+
+
+	/**
+	 * returns the name of the form field of this part
+	 *
+	 * @return   a String
+	 *
+	 */
+	public String getName () {
+		return sName;
+	}
+
+	/**
+	 * returns the name of the uploaded file or null, if this part is no file
+	 *
+	 * @return   a String
+	 *
+	 */
+	public String getFileName () {
+		return sFileName;
+	}
+
+	/**
+	 * returns the content type of this part, if defined
+	 *
+	 * @return   a String
+	 *
+	 */
+	public String getContentType () {
+		return headerFields.get ( "Content-Type" );
+	}
+
+	/**
+	 * returns the value of a header field of this part
+	 *
+	 * @param    fieldName           a  String
+	 *
+	 * @return   a String
+	 *
+	 */
+	public String getHeaderField ( String fieldName ) {
+		return headerFields.get ( fieldName );
+	}
+
+	/**
+	 * returns an enumeration of the (lower case) header field names of this part
+	 *
+	 * @return   an Enumeration of Strings
+	 *
+	 */
+	public Enumeration<String> getHeaderFieldNames () {
+		return headerFields.names();
+	}
+
+	/**
+	 * returns the size of the data of this part in bytes
+	 *
+	 * @return   a long
+	 *
+	 */
+	public long getSize () {
+		return file != null ? lSize : iLength;
+	}
+
+	/**
+	 * is the data of this part kept in memory?
+	 *
+	 * @return   a boolean
+	 *
+	 */
+	public boolean isInMemory () {
+		return file == null;
+	}
+
+	/**
+	 * returns the temporary file holding the data of this part or null, if it is
+	 * kept in memory. The file is deleted after the request has been answered.
+	 *
+	 * @return   a File
+	 *
+	 */
+	public File getFile () {
+		return file;
+	}
+
+	/**
+	 * returns the data of this part
+	 *
+	 * @return   an InputStream
+	 *
+	 * @exception   IOException      the temporary file cannot be opened
+	 *
+	 */
+	public InputStream getInputStream () throws IOException {
+		if ( file != null )
+			return new FileInputStream ( file );
+		else
+			return new ByteArrayInputStream ( data == null ? new byte[0] : data, 0, iLength );
+	}
+
+	/**
+	 * returns the data of this part as String decoded with the charset of its
+	 * content type (default UTF-8)
+	 *
+	 * @return   a String
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	public String getString () throws IOException {
+		String sCharset = null;
+		if ( getContentType() != null )
+			sCharset = getParameter ( getContentType(), "charset" );
+		if ( sCharset == null )
+			sCharset = "UTF-8";
+
+		if ( file == null )
+			return new String ( data == null ? new byte[0] : data, 0, iLength, sCharset );
+
+		if ( lSize > Integer.MAX_VALUE )
+			throw new IOException ( "Part is too large for a String!" );
+
+		byte[] content = new byte[ (int) lSize ];
+		InputStream in = getInputStream();
+		try {
+			int iRead = 0;
+			while ( iRead < content.length ) {
+				int iNowRead = in.read ( content, iRead, content.length - iRead );
+				if ( iNowRead < 0 )
+					break;
+				iRead += iNowRead;
+			}
+			return new String ( content, 0, iRead, sCharset );
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * deletes the temporary file of this part
+	 *
+	 */
+	public void delete () {
+		if ( file != null )
+			file.delete();
+	}
+
+
+	void setData ( byte[] data, int length ) {
+		this.data = data;
+		this.iLength = length;
+	}
+
+	void setFile ( File file, long size ) {
+		this.file = file;
+		this.lSize = size;
+	}
+
+
+	/**
+	 * extracts a parameter like <code>name="value"</code> from a header field value
+	 *
+	 * @param    value               the value of the header field
+	 * @param    name                the (lower case) name of the parameter
+	 *
+	 * @return   the (unquoted) value of the parameter or null
+	 *
+	 */
+	static String getParameter ( String value, String name ) {
+		int iPos = value.indexOf ( ';' );
+
+		while ( iPos >= 0 && iPos < value.length() ) {
+			iPos ++;
+			while ( iPos < value.length() && ( value.charAt ( iPos ) == ' ' || value.charAt ( iPos ) == '\t' ) )
+				iPos ++;
+
+			int iEquals = iPos;
+			while ( iEquals < value.length() && value.charAt ( iEquals ) != '=' && value.charAt ( iEquals ) != ';' )
+				iEquals ++;
+			String sParam = value.substring ( iPos, iEquals ).trim();
+
+			if ( iEquals == value.length() || value.charAt ( iEquals ) == ';' ) {
+				iPos = iEquals;
+				continue;
+			}
+
+			StringBuilder sbValue = new StringBuilder ();
+			iPos = iEquals + 1;
+			if ( iPos < value.length() && value.charAt ( iPos ) == '"' ) {
+				iPos ++;
+				while ( iPos < value.length() && value.charAt ( iPos ) != '"' ) {
+					if ( value.charAt ( iPos ) == '\\' && iPos + 1 < value.length() )
+						iPos ++;
+					sbValue.append ( value.charAt ( iPos++ ) );
+				}
+				iPos = value.indexOf ( ';', iPos );
+			} else {
+				int iEnd = value.indexOf ( ';', iPos );
+				sbValue.append ( value.substring ( iPos, iEnd < 0 ? value.length() : iEnd ).trim() );
+				iPos = iEnd;
+			}
+
+			if ( sParam.equalsIgnoreCase ( name ) )
+				return sbValue.toString();
+		}
+
+		return null;
+	}
+
+}
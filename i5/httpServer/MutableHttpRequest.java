@@ -1,13 +1,20 @@
 package i5.httpServer;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * A simple mutable data object implementation of the {@link HttpRequest} interface.
@@ -23,7 +30,7 @@ public class MutableHttpRequest implements HttpRequest {
 	
 //	private String remoteAddress;
 	
-	private Map<String, String> headerFields;
+	private HeaderFields headerFields;
 	private Map<String, String> postVariables;
 	private Map<String, String> getVariables;
 	
@@ -50,7 +57,7 @@ public class MutableHttpRequest implements HttpRequest {
 		protocolVersion = HTTP_VERSION_1_1;
 		content = "";
 		
-		headerFields = new HashMap<String, String>();
+		headerFields = new HeaderFields();
 		postVariables = new HashMap<String, String>();
 		getVariables = new HashMap<String, String>();
 		
@@ -70,10 +77,12 @@ public class MutableHttpRequest implements HttpRequest {
 		setProtocolVersion(req.getProtocolVersion());
 		setContentString(req.getContentString());
 		
-		headerFields = new HashMap<String, String>();
+		headerFields = new HeaderFields();
 		for(Enumeration e=req.getHeaderFieldNames(); e.hasMoreElements();) {
 			String fieldName = (String) e.nextElement();
-			headerFields.put(fieldName, req.getHeaderField(fieldName));
+			String[] values = req.getHeaderFieldValues(fieldName);
+			for (int i = 0; i < values.length; i++)
+				headerFields.add(fieldName, values[i]);
 		}
 		
 		postVariables = new HashMap<String, String>();
@@ -131,12 +140,17 @@ public class MutableHttpRequest implements HttpRequest {
 
 	@Override
 	public boolean hasHeaderField(String fieldName) {
-		return headerFields.containsKey(fieldName);
+		return headerFields.contains(fieldName);
+	}
+
+	@Override
+	public String[] getHeaderFieldValues(String fieldName) {
+		return headerFields.getAll(fieldName);
 	}
 
 	@Override
 	public Enumeration getHeaderFieldNames() {
-		return Collections.enumeration(headerFields.keySet());
+		return headerFields.names();
 	}
 
 	@Override
@@ -174,6 +188,50 @@ public class MutableHttpRequest implements HttpRequest {
 		return new BufferedReader(new StringReader(content));
 	}
 
+	@Override
+	public InputStream getContentStream() {
+		try {
+			return new ByteArrayInputStream(content.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public ReadableByteChannel getContentChannel() {
+		return Channels.newChannel(getContentStream());
+	}
+
+	@Override
+	public String getTrailerField(String fieldName) {
+		return null;
+	}
+
+	@Override
+	public ByteBuffer getContentBuffer() throws IOException {
+		if (content == null)
+			return null;
+
+		return ByteBuffer.wrap(content.getBytes("UTF-8")).asReadOnlyBuffer();
+	}
+
+	@Override
+	public FileChannel getContentFileChannel() {
+		return null;
+	}
+
+	@Override
+	public MultipartParser getMultipartParser() {
+		if (contentType == null || !contentType.toLowerCase().startsWith("multipart/form-data"))
+			return null;
+
+		String boundary = MultipartPart.getParameter(contentType, "boundary");
+		if (boundary == null || boundary.length() == 0 || boundary.length() > 200 || content == null)
+			return null;
+
+		return new MultipartParser(getContentStream(), boundary);
+	}
+
 	@Override
 	public int getContentLength() {
 		return content.getBytes().length;
@@ -204,6 +262,20 @@ public class MutableHttpRequest implements HttpRequest {
 		return postVariables.get(name);
 	}
 
+	@Override
+	public List<String> getGetVars(String name) {
+		if (!getVariables.containsKey(name))
+			return Collections.emptyList();
+		return Collections.singletonList(getVariables.get(name));
+	}
+
+	@Override
+	public List<String> getPostVars(String name) {
+		if (!postVariables.containsKey(name))
+			return Collections.emptyList();
+		return Collections.singletonList(postVariables.get(name));
+	}
+
 	@Override
 	public Enumeration getGetVarNames() {
 		return Collections.enumeration(getVariables.keySet());
@@ -237,25 +309,17 @@ public class MutableHttpRequest implements HttpRequest {
 	}
 	
 	private void extractUriParts(String url) throws MalformedHeaderException {
-		Pattern pRequest = Pattern.compile ( "(https?)://([^:/?]+)(:([0-9]+))?(/[^?]*)?(\\?(.*))?" );
-		Matcher mRequest = pRequest.matcher ( url );
-		if ( mRequest.matches() ) {
-			protocol = mRequest.group ( 1 );
-			host = mRequest.group ( 2 );
-			if ( mRequest.group ( 3 ) != null )
-				port = Integer.valueOf( mRequest.group(4) ).intValue();
-			path = mRequest.group ( 5);
-			queryString = mRequest.group (7 );
-		} else {
-			// match /  ( abs server path )
-			pRequest = Pattern.compile ( "(/[^?]*)(\\?(.*))?" );
-			mRequest = pRequest.matcher ( url );
-			if ( mRequest.matches() ) {
-				path = mRequest.group ( 1 );
-				queryString = mRequest.group ( 3 );
-			} else
-				throw new MalformedHeaderException ( "No absolute uri or absolute server path requested!" );
+		RequestUri uri = RequestUri.parse ( url );
+		if ( uri == null )
+			throw new MalformedHeaderException ( "No absolute uri or absolute server path requested!" );
+		if ( uri.getHost() != null ) {
+			protocol = uri.getProtocol();
+			host = uri.getHost();
+			if ( uri.getPort() >= 0 )
+				port = uri.getPort();
 		}
+		path = uri.getPath();
+		queryString = uri.getQueryString();
 	}
 	
 	/**
@@ -283,7 +347,7 @@ public class MutableHttpRequest implements HttpRequest {
 	 * @param value the value of the header field.
 	 */
 	public void setHeaderField(String name, String value) {
-		headerFields.put(name, value);
+		headerFields.set(name, value);
 	}
 	
 	/**
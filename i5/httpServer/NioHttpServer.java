@@ -0,0 +1,1470 @@
+package i5.httpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ * Derivation of the {@link HttpServer} using a non-blocking transport based on
+ * a {@link Selector}.
+ *
+ * One or more event loop threads accept connections, read the requests and write
+ * the responses. Only complete requests (header and body) are handed over to a
+ * worker (according to the execution mode of the server) which runs the
+ * {@link RequestHandler} as usual. Thus idle connections do not occupy a thread.
+ * A content exceeding the spill threshold (see
+ * {@link HttpServer#setContentSpillThreshold}) is not collected in the heap: its
+ * request is handed over as soon as the header is complete, and the content is
+ * streamed to the worker through a small buffer while it is received. A request
+ * expecting <code>100 Continue</code> is handed over with its header as well, so
+ * that the {@link ContinueCheck} runs in the worker; its content is read only
+ * when the worker asks for it.
+ *
+ * Since the request handler runs in a separate worker, using one of the pooled
+ * execution modes is recommended.
+ */
+
+public class NioHttpServer extends HttpServer
+{
+
+	/** size of the read buffer shared by all connections of an event loop */
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+	/** amount of unwritten response data after which a worker has to wait for the event loop */
+	private static final int MAX_PENDING_OUTPUT = 256 * 1024;
+
+	/** size from which files are mapped into memory instead of being copied into the output */
+	private static final int MIN_MAPPED_FILE = 64 * 1024;
+
+	/** maximal size of a single mapped region of a file */
+	private static final int MAX_MAPPED_REGION = 4 * 1024 * 1024;
+
+	/** size from which shared buffers are queued as they are instead of being copied into the output */
+	private static final int MIN_QUEUED_BUFFER = 16 * 1024;
+
+	/** amount of a streamed content held for its worker, reading stops while it is full */
+	private static final int PIPE_SIZE = 64 * 1024;
+
+	/** interval in ms in which idle persistent connections are searched */
+	private static final int IDLE_CHECK_INTERVAL = 1000;
+
+	/** time in ms accepting is paused after it has failed (e.g. out of file descriptors) */
+	private static final int ACCEPT_PAUSE = 100;
+
+
+	/**
+	 * state of a single connection handled by an event loop
+	 *
+	 */
+	protected class NioConnection {
+
+		private SocketChannel channel;
+		private EventLoop loop;
+		private SelectionKey key = null;
+
+		/* received, not yet dispatched data */
+		private byte[] data = null;
+		private int iDataLength = 0;
+
+		/* parser of the next request's header and number of data bytes parsed by it */
+		private HttpRequestParser parser = createParser ();
+		private int iParsed = 0;
+
+		/* framing scanner of a chunked content and number of content bytes scanned by it */
+		private ChunkedDecoder chunkScanner = null;
+		private int iScanned = 0;
+		private long lChunkData = 0;
+		private boolean bContentTooLarge = false;
+
+		/* content of the dispatched request, which is still being received, null if there is none */
+		private ContentPipe pipe = null;
+		private long lPipeRemaining = 0;
+		private boolean bPipeStalled = false;
+
+		/* has the request line of the next request been checked? */
+		private boolean bHeaderChecked = false;
+
+		/* response data waiting to be written */
+		private LinkedList<ByteBuffer> llPending = new LinkedList<ByteBuffer> ();
+		private int iPendingBytes = 0;
+
+		private boolean bBusy = false;
+		private boolean bFinished = false;
+		private boolean bKeepAlive = false;
+		private boolean bClosing = false;
+		private boolean bClosed = false;
+
+		/* is data still sent by the client discarded before closing, and until when? */
+		private boolean bLinger = false;
+		private long lLingerEnd = 0;
+
+		private int iRequests = 0;
+		private long lLastActivity = System.currentTimeMillis();
+
+		/* deadlines of the connection, null if they are not enforced */
+		private ConnectionWatch watch = null;
+
+
+		NioConnection ( SocketChannel channel, EventLoop loop ) {
+			this.channel = channel;
+			this.loop = loop;
+
+			if ( getReaper() != null )
+				watch = new NioWatch ( this );
+		}
+
+
+		/**
+		 * registers the connection at the selector of its loop (event loop thread only)
+		 *
+		 * @exception   ClosedChannelException
+		 *
+		 */
+		void register () throws ClosedChannelException {
+			key = channel.register ( loop.selector, SelectionKey.OP_READ, this );
+
+			if ( watch != null )
+				watch.expectHeader();
+		}
+
+
+		/**
+		 * reads available data from the channel (event loop thread only)
+		 *
+		 * @param    buffer              the shared read buffer of the loop
+		 *
+		 */
+		void onReadable ( ByteBuffer buffer ) {
+			try {
+				buffer.clear();
+				int iRead = channel.read ( buffer );
+
+				if ( iRead < 0 ) {
+					close();
+					return;
+				}
+
+				if ( lLingerEnd > 0 )
+					return;
+
+				lLastActivity = System.currentTimeMillis();
+				if ( watch != null )
+					watch.received ( iRead );
+
+				append ( buffer.array(), iRead );
+				frameRequest();
+			} catch ( IOException e ) {
+				close();
+			}
+		}
+
+
+		/**
+		 * appends newly read data to the not yet dispatched data
+		 *
+		 * @param    b                   a  byte[]
+		 * @param    len                 an int
+		 *
+		 */
+		private void append ( byte[] b, int len ) {
+			if ( data == null )
+				data = new byte[ Math.max ( len, 1024 ) ];
+			else if ( iDataLength + len > data.length ) {
+				byte[] grown = new byte[ Math.max ( iDataLength + len, data.length * 2 ) ];
+				System.arraycopy ( data, 0, grown, 0, iDataLength );
+				data = grown;
+			}
+
+			System.arraycopy ( b, 0, data, iDataLength, len );
+			iDataLength += len;
+		}
+
+
+		/**
+		 * checks whether a complete request has been received and
+		 * hands it over to a worker (event loop thread only)
+		 *
+		 */
+		private void frameRequest () {
+			if ( pipe != null ) {
+				feedPipe ();
+				return;
+			}
+
+			if ( bBusy || iDataLength == 0 )
+				return;
+
+			// only the newly received bytes are parsed, the parser keeps its state
+			if ( ! parser.isComplete() ) {
+				iParsed += parser.parse ( data, iParsed, iDataLength - iParsed );
+
+				// the parser stops with an error at the header limits
+				if ( ! parser.isComplete() )
+					return;
+			}
+
+			if ( ! bHeaderChecked ) {
+				// a request, which cannot be handled, is answered without a worker
+				int iStatus = HttpRequestImpl.checkRequestLine ( parser );
+				if ( iStatus != HttpResponse.STATUS_OK ) {
+					reject ( iStatus );
+					return;
+				}
+
+				bHeaderChecked = true;
+
+				// from now on the client has to keep up the minimal content rate
+				boolean bContent = parser.isChunked() || parser.getContentLength() > 0;
+				if ( watch != null && bContent ) {
+					watch.expectContent();
+					watch.beginRead();
+				}
+
+				// the continue check may block, so it is run by the worker, which
+				// asks for the content, when the check has passed
+				if ( bContent && parser.hasExpectation() ) {
+					streamRequest ( parser.isChunked() ? -1 : parser.getContentLength(), true );
+					return;
+				}
+			}
+
+			int iRequestEnd;
+			if ( parser.isChunked() ) {
+				// the end of a chunked content is found by scanning its framing, the
+				// content itself is decoded by the worker
+				iRequestEnd = scanChunks ( iDataLength );
+				if ( bContentTooLarge ) {
+					iRequestEnd = iParsed;
+					iDataLength = iParsed;
+				} else if ( iRequestEnd < 0 ) {
+					if ( ! bClosed && iDataLength - iParsed > getContentSpillThreshold() )
+						streamRequest ( -1, false );
+					return;
+				}
+			} else {
+				long lContentLength = parser.getContentLength();
+				if ( lContentLength > getContentSpillThreshold() || lContentLength > Integer.MAX_VALUE - iParsed ) {
+					streamRequest ( lContentLength, false );
+					return;
+				}
+
+				iRequestEnd = iParsed + (int) lContentLength;
+				if ( iRequestEnd > iDataLength ) {
+					// the content is collected without growing the array repeatedly
+					if ( iRequestEnd > data.length ) {
+						byte[] grown = new byte[ iRequestEnd ];
+						System.arraycopy ( data, 0, grown, 0, iDataLength );
+						data = grown;
+					}
+					return;
+				}
+			}
+
+			// without a following (pipelined) request the data is handed over as it is
+			InputStream content;
+			if ( iRequestEnd == iDataLength ) {
+				content = new ByteArrayInputStream ( data, iParsed, iRequestEnd - iParsed );
+				data = null;
+				iDataLength = 0;
+			} else {
+				byte[] copy = new byte[ iRequestEnd - iParsed ];
+				System.arraycopy ( data, iParsed, copy, 0, copy.length );
+				content = new ByteArrayInputStream ( copy );
+
+				iDataLength -= iRequestEnd;
+				System.arraycopy ( data, iRequestEnd, data, 0, iDataLength );
+			}
+
+			dispatchRequest ( content, false );
+		}
+
+
+		/**
+		 * hands the request, whose header has been parsed, over to a worker
+		 * (event loop thread only)
+		 *
+		 * @param    content             the content of the request
+		 * @param    streamed            is the content still being received?
+		 *
+		 */
+		private void dispatchRequest ( InputStream content, boolean streamed ) {
+			// the parsed header is handed over to the worker
+			HttpRequestParser requestHeader = parser;
+			parser = createParser ();
+			iParsed = 0;
+			if ( ! streamed ) {
+				chunkScanner = null;
+				iScanned = 0;
+				lChunkData = 0;
+			}
+			boolean bRequestTooLarge = bContentTooLarge;
+			bContentTooLarge = false;
+			bHeaderChecked = false;
+
+			bBusy = true;
+			synchronized ( this ) {
+				bFinished = false;
+				bKeepAlive = false;
+			}
+			iRequests ++;
+			if ( ! streamed ) {
+				key.interestOps ( key.interestOps() & ~SelectionKey.OP_READ );
+				if ( watch != null )
+					watch.done();
+			}
+
+			try {
+				dispatch ( new NioRequestHandler ( this, requestHeader, content, iRequests - 1, bRequestTooLarge ) );
+			} catch ( IOException e ) {
+				close();
+			}
+		}
+
+
+		/**
+		 * hands the request, whose content exceeds the spill threshold or which
+		 * expects a 100 Continue, over to a worker before its content has been
+		 * received (event loop thread only)
+		 *
+		 * @param    contentLength       the length of the content, -1 if it is chunked
+		 * @param    onDemand            is the content read only when the worker asks for it?
+		 *
+		 */
+		private void streamRequest ( long contentLength, boolean onDemand ) {
+			// the framing of a chunked content is scanned further relative to the content
+			iDataLength -= iParsed;
+			System.arraycopy ( data, iParsed, data, 0, iDataLength );
+			if ( chunkScanner != null )
+				iScanned -= iParsed;
+			else if ( contentLength < 0 ) {
+				chunkScanner = new ChunkedDecoder ();
+				iScanned = 0;
+			}
+
+			pipe = new ContentPipe ( this, ! onDemand );
+			lPipeRemaining = contentLength;
+			bPipeStalled = false;
+
+			dispatchRequest ( pipe, true );
+			if ( ! bClosed )
+				feedPipe ();
+		}
+
+
+		/**
+		 * hands the received bytes of a streamed content over to the worker and
+		 * stops reading, while the worker has not taken the previous ones
+		 * (event loop thread only)
+		 *
+		 */
+		private void feedPipe () {
+			int iLimit = Math.min ( iDataLength, pipe.getFree() );
+			int iEnd;
+			boolean bComplete;
+			if ( lPipeRemaining >= 0 ) {
+				iEnd = (int) Math.min ( lPipeRemaining, iLimit );
+				lPipeRemaining -= iEnd;
+				bComplete = lPipeRemaining == 0;
+			} else {
+				// the framing may have been scanned beyond the free space already
+				if ( iScanned < iLimit ) {
+					scanChunks ( iLimit );
+					if ( bClosed )
+						return;
+				}
+
+				// the worker finds the chunk exceeding the limit in the fed framing, too
+				iEnd = Math.min ( iScanned, iLimit );
+				bComplete = iEnd == iScanned && ( chunkScanner.isComplete() || bContentTooLarge );
+				iScanned -= iEnd;
+			}
+
+			pipe.write ( data, 0, iEnd );
+			iDataLength -= iEnd;
+			System.arraycopy ( data, iEnd, data, 0, iDataLength );
+
+			if ( bComplete ) {
+				pipe.end();
+				pipe = null;
+				chunkScanner = null;
+				lChunkData = 0;
+
+				// the rest of a rejected content is not read
+				if ( bContentTooLarge ) {
+					bContentTooLarge = false;
+					data = null;
+					iDataLength = 0;
+					bLinger = true;
+				}
+
+				// a following request is read after the response
+				key.interestOps ( key.interestOps() & ~SelectionKey.OP_READ );
+				if ( watch != null )
+					watch.done();
+				return;
+			}
+
+			// the time the worker is behind is not charged to the client
+			boolean bFull = pipe.isFull();
+			if ( bFull && ! bPipeStalled ) {
+				key.interestOps ( key.interestOps() & ~SelectionKey.OP_READ );
+				if ( watch != null )
+					watch.endRead ( 0 );
+			} else if ( ! bFull && bPipeStalled ) {
+				key.interestOps ( key.interestOps() | SelectionKey.OP_READ );
+				if ( watch != null )
+					watch.beginRead();
+			}
+			bPipeStalled = bFull;
+		}
+
+
+		/**
+		 * answers the request, whose header has just been parsed, with a precomputed
+		 * error response and closes the connection afterwards (event loop thread only)
+		 *
+		 * @param    status              an int
+		 *
+		 */
+		private void reject ( int status ) {
+			byte[] response = getCannedResponse ( status );
+			if ( response == null ) {
+				close();
+				return;
+			}
+
+			synchronized ( this ) {
+				llPending.add ( ByteBuffer.wrap ( response ) );
+				iPendingBytes += response.length;
+			}
+
+			// the rest of the request is not read anymore
+			data = null;
+			iDataLength = 0;
+			bClosing = true;
+			bLinger = true;
+			if ( watch != null )
+				watch.done();
+			key.interestOps ( SelectionKey.OP_WRITE );
+		}
+
+
+		/**
+		 * scans the newly received bytes of a chunked content for its end
+		 * (event loop thread only)
+		 *
+		 * @param    end                 the end of the received data to scan
+		 *
+		 * @return   the end of the request in the received data or -1, if the
+		 *           content has not been received completely yet
+		 *
+		 */
+		private int scanChunks ( int end ) {
+			if ( chunkScanner == null ) {
+				chunkScanner = new ChunkedDecoder ();
+				iScanned = iParsed;
+			}
+
+			while ( iScanned < end && ! chunkScanner.isComplete() ) {
+				long lData = chunkScanner.getChunkRemaining();
+				if ( lData > 0 ) {
+					int iSkip = (int) Math.min ( lData, end - iScanned );
+					chunkScanner.dataRead ( iSkip );
+					iScanned += iSkip;
+					lChunkData += iSkip;
+					continue;
+				}
+
+				iScanned += chunkScanner.parse ( data, iScanned, end - iScanned );
+				if ( lChunkData + chunkScanner.getChunkRemaining() > getMaxContentLength() ) {
+					// rejected as soon as the size of the chunk is known
+					bContentTooLarge = true;
+					return -1;
+				}
+			}
+
+			if ( ! chunkScanner.isComplete() )
+				return -1;
+
+			if ( chunkScanner.getError() != null ) {
+				close();
+				return -1;
+			}
+
+			return iScanned;
+		}
+
+
+		/**
+		 * queues response data for writing (worker thread). Blocks while too much
+		 * data is waiting to be written.
+		 *
+		 * @param    buffer              a  ByteBuffer
+		 *
+		 * @exception   IOException      the connection has been closed
+		 *
+		 */
+		void enqueue ( ByteBuffer buffer ) throws IOException {
+			synchronized ( this ) {
+				while ( ! bClosed && iPendingBytes > MAX_PENDING_OUTPUT ) {
+					try {
+						wait ();
+					} catch ( InterruptedException e ) {
+						throw new IOException ( "Interrupted while waiting for the connection!" );
+					}
+				}
+
+				if ( bClosed )
+					throw new IOException ( "Connection has been closed!" );
+
+				llPending.add ( buffer );
+				iPendingBytes += buffer.remaining();
+			}
+
+			loop.update ( this );
+		}
+
+
+		/**
+		 * marks the current request as completely answered (worker thread)
+		 *
+		 * @param    keepAlive           may the connection be used for a further request?
+		 *
+		 */
+		void finish ( boolean keepAlive ) {
+			synchronized ( this ) {
+				bFinished = true;
+				bKeepAlive = keepAlive;
+			}
+
+			loop.update ( this );
+		}
+
+
+		/**
+		 * adapts the interest set to the current state (event loop thread only)
+		 *
+		 */
+		void updateInterest () {
+			if ( bClosed || lLingerEnd > 0 )
+				return;
+
+			boolean bHasPending, bDone, bReuse;
+			synchronized ( this ) {
+				bHasPending = iPendingBytes > 0;
+				bDone = bFinished;
+				bReuse = bKeepAlive;
+			}
+
+			if ( bDone && bBusy ) {
+				bBusy = false;
+				lLastActivity = System.currentTimeMillis();
+
+				// the rest of a streamed content, which has not been taken, is not read
+				if ( ! bReuse || pipe != null ) {
+					bClosing = true;
+					bLinger |= pipe != null || iDataLength > 0;
+				} else if ( watch != null )
+					watch.expectHeader();
+			}
+
+			if ( bClosing && ! bHasPending ) {
+				if ( bLinger )
+					linger();
+				else
+					close();
+				return;
+			}
+
+			// the worker has taken some of a streamed content
+			if ( pipe != null && ! bClosing ) {
+				feedPipe ();
+				if ( bClosed )
+					return;
+			}
+
+			int iOps = bHasPending ? SelectionKey.OP_WRITE : 0;
+			if ( ! bClosing && ( ! bBusy || pipe != null && ! bPipeStalled ) )
+				iOps |= SelectionKey.OP_READ;
+			key.interestOps ( iOps );
+
+			// the next request may have been received already (pipelining), its
+			// response is queued behind the pending data of the previous one
+			if ( ! bBusy && ! bClosing )
+				frameRequest();
+		}
+
+
+		/**
+		 * half closes the connection and discards the data still sent by the client
+		 * for a short time. Closing a channel with unread data resets the connection,
+		 * which may destroy the response before the client has read it
+		 * (event loop thread only).
+		 *
+		 */
+		private void linger () {
+			try {
+				channel.shutdownOutput();
+			} catch ( IOException e ) {
+				close();
+				return;
+			}
+
+			if ( pipe != null ) {
+				pipe.fail();
+				pipe = null;
+			}
+			data = null;
+			iDataLength = 0;
+
+			lLingerEnd = System.currentTimeMillis() + LINGER_TIMEOUT;
+			if ( watch != null )
+				watch.done();
+			key.interestOps ( SelectionKey.OP_READ );
+		}
+
+
+		/**
+		 * closes the connection, if it has been waiting for a further request
+		 * longer than the keep alive timeout or has discarded data long enough
+		 * (event loop thread only)
+		 *
+		 * @param    now                 the current time in ms
+		 *
+		 */
+		void checkIdle ( long now ) {
+			if ( lLingerEnd > 0 ) {
+				if ( now >= lLingerEnd )
+					close();
+				return;
+			}
+
+			if ( ! bBusy && iRequests > 0 && iPendingBytes == 0 && now - lLastActivity > getKeepAliveTimeout() )
+				close();
+		}
+
+
+		/**
+		 * writes as much pending data as possible (event loop thread only)
+		 *
+		 */
+		void onWritable () {
+			try {
+				synchronized ( this ) {
+					// write all pending responses with a single gathering write
+					ByteBuffer[] buffers = llPending.toArray ( new ByteBuffer[ llPending.size() ] );
+					long lWritten = channel.write ( buffers );
+					iPendingBytes -= lWritten;
+
+					while ( ! llPending.isEmpty() && ! llPending.getFirst().hasRemaining() )
+						llPending.removeFirst();
+
+					notifyAll();
+				}
+			} catch ( IOException e ) {
+				close();
+				return;
+			}
+
+			updateInterest();
+		}
+
+
+		/**
+		 * closes the connection
+		 *
+		 */
+		void close () {
+			synchronized ( this ) {
+				bClosed = true;
+				llPending.clear();
+				iPendingBytes = 0;
+				notifyAll();
+			}
+
+			// a worker reading the content must not wait for it anymore
+			if ( pipe != null )
+				pipe.fail();
+
+			if ( key != null )
+				key.cancel();
+
+			try {
+				channel.close();
+			} catch ( IOException e ) {
+			}
+
+			if ( watch != null )
+				watch.done();
+		}
+	}
+
+
+
+	/**
+	 * deadlines of a non-blocking connection, which is closed by its
+	 * event loop when reaped
+	 *
+	 */
+	private class NioWatch extends ConnectionWatch {
+
+		private NioConnection connection;
+
+		NioWatch ( NioConnection connection ) {
+			super ( getReaper(), getHeaderTimeout(), getMinContentRate(), getContentRateGrace() );
+			this.connection = connection;
+		}
+
+		void reap () {
+			connection.loop.reap ( connection );
+		}
+	}
+
+
+
+	/**
+	 * Output stream collecting the response of a worker and handing it over
+	 * to the event loop in charge of the connection
+	 *
+	 */
+	protected class ConnectionOutputStream extends OutputStream {
+
+		private NioConnection connection;
+
+		private byte[] buffer = new byte[ 8192 ];
+		private int iCount = 0;
+
+		ConnectionOutputStream ( NioConnection connection ) {
+			this.connection = connection;
+		}
+
+		public void write ( int b ) throws IOException {
+			if ( iCount == buffer.length )
+				flush();
+			buffer[iCount++] = (byte) b;
+		}
+
+		public void write ( byte[] b, int off, int len ) throws IOException {
+			while ( len > 0 ) {
+				if ( iCount == buffer.length )
+					flush();
+
+				int iCopy = Math.min ( len, buffer.length - iCount );
+				System.arraycopy ( b, off, buffer, iCount, iCopy );
+				iCount += iCopy;
+				off += iCopy;
+				len -= iCopy;
+			}
+		}
+
+		public void flush () throws IOException {
+			if ( iCount == 0 )
+				return;
+
+			byte[] chunk = new byte[ iCount ];
+			System.arraycopy ( buffer, 0, chunk, 0, iCount );
+			iCount = 0;
+
+			connection.enqueue ( ByteBuffer.wrap ( chunk ) );
+		}
+	}
+
+
+
+	/**
+	 * InputStream delivering the content of a request to its worker, while the
+	 * event loop is still receiving it. At most {@link #PIPE_SIZE} bytes are held,
+	 * the event loop resumes reading, when the worker has taken half of them. The
+	 * content of a request expecting a 100 Continue is not read, before the worker
+	 * reads from the pipe for the first time.
+	 *
+	 */
+	protected class ContentPipe extends InputStream {
+
+		private NioConnection connection;
+
+		private byte[] buffer = new byte[ PIPE_SIZE ];
+		private int iStart = 0;
+		private int iCount = 0;
+
+		private boolean bEnd = false;
+		private boolean bBroken = false;
+
+		/* has the worker asked for the content? */
+		private boolean bOpen;
+
+		/* the event loop waits for free space */
+		private boolean bStalled = false;
+
+		ContentPipe ( NioConnection connection, boolean open ) {
+			this.connection = connection;
+			this.bOpen = open;
+		}
+
+		/**
+		 * returns the number of bytes, which can be written (event loop thread only)
+		 *
+		 * @return   an int
+		 *
+		 */
+		synchronized int getFree () {
+			return bOpen ? buffer.length - iCount : 0;
+		}
+
+		/**
+		 * checks, whether the pipe is full. If so, the event loop is notified
+		 * when the worker has taken half of the content (event loop thread only)
+		 *
+		 * @return   a boolean
+		 *
+		 */
+		synchronized boolean isFull () {
+			bStalled = ! bOpen || iCount == buffer.length;
+			return bStalled;
+		}
+
+		/**
+		 * lets the event loop read the content, when the worker asks for it
+		 *
+		 * @return   true, if the event loop waits for it
+		 *
+		 */
+		private synchronized boolean open () {
+			if ( bOpen )
+				return false;
+
+			bOpen = true;
+			boolean bWaiting = bStalled;
+			bStalled = false;
+			return bWaiting;
+		}
+
+		/**
+		 * appends received bytes of the content, which must fit into the free
+		 * space (event loop thread only)
+		 *
+		 * @param    b                   a  byte[]
+		 * @param    off                 an int
+		 * @param    len                 an int
+		 *
+		 */
+		synchronized void write ( byte[] b, int off, int len ) {
+			while ( len > 0 ) {
+				int iPos = ( iStart + iCount ) % buffer.length;
+				int iCopy = Math.min ( len, iPos >= iStart ? buffer.length - iPos : iStart - iPos );
+				System.arraycopy ( b, off, buffer, iPos, iCopy );
+				iCount += iCopy;
+				off += iCopy;
+				len -= iCopy;
+			}
+
+			notifyAll();
+		}
+
+		/**
+		 * marks the end of the content (event loop thread only)
+		 *
+		 */
+		synchronized void end () {
+			bEnd = true;
+			notifyAll();
+		}
+
+		/**
+		 * marks the content as incomplete, since the connection has been closed
+		 *
+		 */
+		synchronized void fail () {
+			bBroken = true;
+			notifyAll();
+		}
+
+		public int read () throws IOException {
+			byte[] single = new byte[ 1 ];
+			return read ( single, 0, 1 ) < 0 ? -1 : single[0] & 0xff;
+		}
+
+		public int read ( byte[] b, int off, int len ) throws IOException {
+			if ( len == 0 )
+				return 0;
+
+			if ( open() )
+				connection.loop.update ( connection );
+
+			int iRead;
+			boolean bResume;
+			synchronized ( this ) {
+				long lDeadline = System.currentTimeMillis() + CONTENT_TIMEOUT;
+				while ( iCount == 0 && ! bEnd && ! bBroken ) {
+					long lLeft = lDeadline - System.currentTimeMillis();
+					if ( lLeft <= 0 )
+						throw new SocketTimeoutException ( "Timeout while waiting for the content!" );
+
+					try {
+						wait ( lLeft );
+					} catch ( InterruptedException e ) {
+						throw new IOException ( "Interrupted while waiting for the content!" );
+					}
+				}
+
+				if ( iCount == 0 ) {
+					if ( bBroken )
+						throw new IOException ( "Connection has been closed!" );
+					return -1;
+				}
+
+				iRead = Math.min ( len, Math.min ( iCount, buffer.length - iStart ) );
+				System.arraycopy ( buffer, iStart, b, off, iRead );
+				iStart = ( iStart + iRead ) % buffer.length;
+				iCount -= iRead;
+
+				bResume = bStalled && iCount <= buffer.length / 2;
+				if ( bResume )
+					bStalled = false;
+			}
+
+			if ( bResume )
+				connection.loop.update ( connection );
+			return iRead;
+		}
+
+		public synchronized int available () {
+			return iCount;
+		}
+	}
+
+
+
+	/**
+	 * request handler processing a completely received request inside a worker
+	 *
+	 */
+	protected class NioRequestHandler extends SocketRequestHandler {
+
+		private NioConnection connection;
+
+		private boolean bFinished = false;
+
+		private boolean bContentTooLarge;
+
+		NioRequestHandler ( NioConnection connection, HttpRequestParser header, InputStream content, int previousRequests, boolean contentTooLarge ) throws IOException {
+			super ( connection.channel.socket(), content, new ConnectionOutputStream ( connection ),
+				getHandler(), getAllowedOrigin(), getPreflightRequestMaxAge() );
+
+			this.connection = connection;
+			this.parser = header;
+			this.requestCount = previousRequests;
+			this.bContentTooLarge = contentTooLarge;
+		}
+
+		/**
+		 * a chunked content may have been found to exceed the limit by the event loop
+		 *
+		 * @return   a boolean
+		 *
+		 */
+		protected boolean isContentTooLarge () {
+			return bContentTooLarge || super.isContentTooLarge();
+		}
+
+		/**
+		 * the header has already been parsed by the event loop
+		 *
+		 * @return   true
+		 *
+		 */
+		protected boolean readHeader () {
+			return true;
+		}
+
+		/**
+		 * hands the connection back to the event loop
+		 *
+		 * @param    keepAlive           a  boolean
+		 *
+		 */
+		private void finish ( boolean keepAlive ) {
+			if ( bFinished )
+				return;
+			bFinished = true;
+
+			connection.finish ( keepAlive );
+		}
+
+		protected void closeConnection () throws IOException {
+			try {
+				output.flush();
+			} finally {
+				finish ( false );
+			}
+		}
+
+		/**
+		 * larger buffers are queued as they are, so that a cached file is written by
+		 * the event loop without a copy
+		 *
+		 * @param    buffer              a  ByteBuffer
+		 *
+		 * @exception   IOException
+		 *
+		 */
+		protected void transferBuffer ( ByteBuffer buffer ) throws IOException {
+			if ( buffer.remaining() < MIN_QUEUED_BUFFER ) {
+				HttpResponseImpl.copyBuffer ( buffer, output );
+				return;
+			}
+
+			// header and buffered content are queued before the buffer
+			output.flush();
+			connection.enqueue ( buffer );
+		}
+
+		/**
+		 * larger files are mapped into memory and queued as they are, so that the
+		 * event loop writes them from the file system cache without a copy in the heap
+		 *
+		 * @param    file                a  FileChannel
+		 * @param    position            an offset in the file
+		 * @param    length              a number of bytes
+		 *
+		 * @exception   IOException
+		 *
+		 */
+		protected void transferFile ( FileChannel file, long position, long length ) throws IOException {
+			if ( length < MIN_MAPPED_FILE ) {
+				HttpResponseImpl.copyFile ( file, position, length, output );
+				return;
+			}
+
+			// header and buffered content are queued before the file
+			output.flush();
+
+			if ( position + length > file.size() )
+				throw new IOException ( "File has been truncated while it was sent!" );
+
+			while ( length > 0 ) {
+				long lRegion = Math.min ( length, MAX_MAPPED_REGION );
+				connection.enqueue ( file.map ( FileChannel.MapMode.READ_ONLY, position, lRegion ) );
+				position += lRegion;
+				length -= lRegion;
+			}
+		}
+
+		/**
+		 * serves the single received request, further requests of the
+		 * connection are dispatched by the event loop
+		 *
+		 */
+		public void run () {
+			boolean bKeepAlive = false;
+			try {
+				bKeepAlive = serveRequest ();
+				output.flush();
+			} catch ( IOException e ) {
+				bKeepAlive = false;
+			} catch ( MalformedHeaderException e ) {
+				ErrorLog.log ( e.getMessage() );
+				bKeepAlive = false;
+			} finally {
+				finish ( bKeepAlive );
+			}
+		}
+	}
+
+
+
+	/**
+	 * a single selector thread handling a set of connections
+	 *
+	 */
+	protected class EventLoop implements Runnable {
+
+		private Selector selector;
+		private ByteBuffer readBuffer = ByteBuffer.allocate ( READ_BUFFER_SIZE );
+
+		private long lLastIdleCheck = System.currentTimeMillis();
+
+		private ConcurrentLinkedQueue<SocketChannel> qNewChannels = new ConcurrentLinkedQueue<SocketChannel> ();
+		private ConcurrentLinkedQueue<NioConnection> qUpdates = new ConcurrentLinkedQueue<NioConnection> ();
+		private ConcurrentLinkedQueue<NioConnection> qReaped = new ConcurrentLinkedQueue<NioConnection> ();
+
+		EventLoop () throws IOException {
+			selector = Selector.open();
+		}
+
+		/**
+		 * hands a newly accepted channel over to this loop
+		 *
+		 * @param    channel             a  SocketChannel
+		 *
+		 */
+		void accept ( SocketChannel channel ) {
+			qNewChannels.add ( channel );
+			selector.wakeup();
+		}
+
+		/**
+		 * requests an update of the interest set of a connection
+		 *
+		 * @param    connection          a  NioConnection
+		 *
+		 */
+		void update ( NioConnection connection ) {
+			qUpdates.add ( connection );
+			selector.wakeup();
+		}
+
+		/**
+		 * requests to close a connection, which has missed its deadline
+		 *
+		 * @param    connection          a  NioConnection
+		 *
+		 */
+		void reap ( NioConnection connection ) {
+			qReaped.add ( connection );
+			selector.wakeup();
+		}
+
+		/**
+		 * waits for and processes the next events
+		 *
+		 * @param    timeout             an int
+		 *
+		 * @exception   IOException
+		 *
+		 */
+		void select ( int timeout ) throws IOException {
+			selector.select ( Math.min ( timeout, IDLE_CHECK_INTERVAL ) );
+
+			SocketChannel channel;
+			while ( ( channel = qNewChannels.poll() ) != null ) {
+				NioConnection connection = new NioConnection ( channel, this );
+				try {
+					channel.configureBlocking ( false );
+					connection.register();
+				} catch ( IOException e ) {
+					connection.close();
+				}
+			}
+
+			NioConnection connection;
+			while ( ( connection = qReaped.poll() ) != null )
+				connection.close();
+			while ( ( connection = qUpdates.poll() ) != null )
+				connection.updateInterest();
+
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while ( it.hasNext() ) {
+				SelectionKey key = it.next();
+				it.remove();
+
+				if ( ! key.isValid() )
+					continue;
+
+				if ( key.isAcceptable() ) {
+					acceptConnections();
+					continue;
+				}
+
+				connection = (NioConnection) key.attachment();
+				if ( key.isWritable() )
+					connection.onWritable();
+				if ( key.isValid() && key.isReadable() )
+					connection.onReadable ( readBuffer );
+			}
+
+			long lNow = System.currentTimeMillis();
+			if ( lNow - lLastIdleCheck >= IDLE_CHECK_INTERVAL ) {
+				lLastIdleCheck = lNow;
+				for ( SelectionKey key : selector.keys() )
+					if ( key.isValid() && key.attachment() instanceof NioConnection )
+						((NioConnection) key.attachment()).checkIdle ( lNow );
+			}
+		}
+
+		/**
+		 * event loop of the additional selector threads
+		 *
+		 */
+		public void run () {
+			try {
+				while ( ! isStopped() && selector.isOpen() )
+					select ( getSocketTimeout() );
+			} catch ( ClosedSelectorException e ) {
+				// closed by tidyUp
+			} catch ( IOException e ) {
+				ErrorLog.log ( "Error in event loop!", e );
+			} finally {
+				close();
+			}
+		}
+
+		/**
+		 * closes all connections of this loop and the selector
+		 *
+		 */
+		void close () {
+			try {
+				for ( SelectionKey key : selector.keys() )
+					if ( key.attachment() instanceof NioConnection )
+						((NioConnection) key.attachment()).close();
+				selector.close();
+			} catch ( Exception e ) {
+			}
+		}
+	}
+
+
+
+	private int iEventLoops = 1;
+
+	private int iNextLoop = 0;
+
+	private EventLoop[] loops = null;
+
+	private ServerSocketChannel serverChannel = null;
+
+	private SelectionKey acceptKey = null;
+
+	/* time at which a paused accepting is resumed, 0 if it is not paused */
+	private long lAcceptResume = 0;
+
+
+	/**
+	 * generates a new instance of the server
+	 *
+	 * @param    handlerClass        a  String
+	 *
+	 */
+	public NioHttpServer ( String handlerClass ) {
+		super ( handlerClass );
+	}
+
+	/**
+	 * generates a new instance of the server
+	 *
+	 * @param    handlerClass        a  String
+	 * @param    port                an int
+	 *
+	 */
+	public NioHttpServer ( String handlerClass, int port ) {
+		super ( handlerClass, port );
+	}
+
+	/**
+	 * generates a new instance of the server
+	 *
+	 * @param	handlerClass			a  String
+	 * @param	port					an int
+	 * @param	xDomainResSharingOrigin	a  String
+	 *
+	 */
+	public NioHttpServer ( String handlerClass, int port, String xDomainResSharingOrigin ) {
+		super ( handlerClass, port, xDomainResSharingOrigin );
+	}
+
+	/**
+	 * generates a new instance of the server
+	 *
+	 * @param	handlerClass			a  String
+	 * @param	port					an int
+	 * @param	xDomainResSharingOrigin	a  String
+	 * @param	preflightRequestMaxAge	an int
+	 *
+	 */
+	public NioHttpServer ( String handlerClass, int port, String xDomainResSharingOrigin, int preflightRequestMaxAge ) {
+		super ( handlerClass, port, xDomainResSharingOrigin, preflightRequestMaxAge );
+	}
+
+
+	/**
+	 * Sets the number of selector threads. The first one runs in the server thread
+	 * and accepts the incoming connections as well.
+	 * <b>Note:</b> The number can only be set if the server is not running.
+	 *
+	 * @param    eventLoops          an int
+	 *
+	 */
+	public void setEventLoops ( int eventLoops ) {
+		if ( loops != null ) throw new IllegalStateException ( "Cannot change event loops, if server is already running!" );
+
+		if ( eventLoops < 1 )
+			throw new IllegalArgumentException ( "At least one event loop is needed!" );
+
+		iEventLoops = eventLoops;
+	}
+
+	/**
+	 * returns the number of selector threads
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getEventLoops () {
+		return iEventLoops;
+	}
+
+
+	/**
+	 * opens a non-blocking server socket channel and the event loops
+	 *
+	 */
+	protected void openServerSocket () {
+		System.out.println ( "Starting non-blocking HTTP-Server on port " + getPort() );
+
+		try {
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.socket().bind ( new InetSocketAddress ( getPort() ) );
+			serverChannel.configureBlocking ( false );
+			serverSocket = serverChannel.socket();
+
+			loops = new EventLoop[ iEventLoops ];
+			for ( int i = 0; i < loops.length; i++ )
+				loops[i] = new EventLoop ();
+
+			acceptKey = serverChannel.register ( loops[0].selector, SelectionKey.OP_ACCEPT );
+		} catch ( IOException e ) {
+			System.err.println ( "Unable to generate server socket on port " + getPort() + "!" );
+			throw new UnableToStartServerException ( e );
+		}
+
+		HttpServer.register ( this );
+	}
+
+
+	/**
+	 * starts the additional event loops and runs the first one in this thread
+	 *
+	 * @exception   InterruptedException
+	 *
+	 */
+	protected void startListeningLoop () throws InterruptedException {
+		for ( int i = 1; i < loops.length; i++ )
+			new Thread ( loops[i], "http-" + getPort() + "-selector-" + i ).start();
+
+		super.startListeningLoop();
+	}
+
+
+	/**
+	 * runs one round of the accepting event loop
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	protected void listen () throws IOException {
+		int iTimeout = getSocketTimeout();
+
+		if ( lAcceptResume > 0 ) {
+			long lWait = lAcceptResume - System.currentTimeMillis();
+			if ( lWait <= 0 ) {
+				lAcceptResume = 0;
+				acceptKey.interestOps ( SelectionKey.OP_ACCEPT );
+			} else if ( iTimeout <= 0 || lWait < iTimeout )
+				iTimeout = (int) lWait;
+		}
+
+		loops[0].select ( iTimeout );
+	}
+
+
+	/**
+	 * accepts all pending connections and distributes them over the event loops.
+	 * After a failure accepting is paused for a moment.
+	 *
+	 */
+	private void acceptConnections () {
+		try {
+			SocketChannel channel;
+			while ( ( channel = serverChannel.accept() ) != null ) {
+				loops[iNextLoop].accept ( channel );
+				iNextLoop = ( iNextLoop + 1 ) % loops.length;
+			}
+		} catch ( IOException e ) {
+			ErrorLog.log ( "Error getting request socket!", e );
+
+			// the pending connection stays acceptable, so the loop would spin on the failure
+			acceptKey.interestOps ( 0 );
+			lAcceptResume = System.currentTimeMillis() + ACCEPT_PAUSE;
+		}
+	}
+
+
+	/**
+	 * closes the event loops additionally to the base clean up
+	 *
+	 */
+	protected void tidyUp () {
+		if ( loops != null )
+			for ( int i = 0; i < loops.length; i++ )
+				loops[i].close();
+
+		super.tidyUp();
+	}
+
+
+
+	/**
+	 * start a non-blocking server
+	 *
+	 * understandable commandline parameters:
+	 * 	-h 	standard handler for http requests
+	 *  -p  port for the server socket
+	 *  -l  number of event loops
+	 *
+	 * @param    argv                a  String[]
+	 *
+	 */
+	public static void main ( String[] argv ) {
+		boolean hasError = false;
+
+		String sHandlerClass = null;
+		int iPort = DEFAULT_HTTP_PORT;
+		int iLoops = 1;
+
+		for ( int i = 0; i<argv.length; i++ ) {
+			if ( argv[i].equals ( "-h" ) ) {
+				i++;
+				sHandlerClass = argv[i];
+			} else if ( argv[i].equals ( "-p" ) ) {
+				i++;
+				iPort = Integer.valueOf( argv[i] ).intValue();
+			} else if ( argv[i].equals ( "-l" ) ) {
+				i++;
+				iLoops = Integer.valueOf( argv[i] ).intValue();
+			} else {
+				System.err.println ( "unknown parameter: " + argv[i] );
+				hasError = true;
+			}
+		}
+
+		if ( sHandlerClass == null ) {
+			System.err.println ( "No RequestHandler given (via -h)!" );
+			hasError = true;
+		}
+
+		if ( ! hasError ) {
+			System.out.println( "Starting server at port " + iPort + "!" );
+			NioHttpServer server = new NioHttpServer ( sHandlerClass, iPort );
+			server.setEventLoops ( iLoops );
+			server.setExecutionMode ( EXECUTION_ELASTIC_POOL );
+			server.start ();
+		}
+	}
+
+}
@@ -0,0 +1,168 @@
+package i5.httpServer;
+
+
+/**
+ * The parts of a request target (url) as sent in the request line.
+ *
+ * Two forms are understood: absolute uris (<code>http[s]://host[:port][/path][?query]</code>)
+ * and absolute server paths (<code>/path[?query]</code>). The target is split by a single
+ * scan over its characters, the parts are substrings of the target. An invalid target
+ * is reported by null instead of an exception, since it is common in junk traffic.
+ */
+
+final class RequestUri
+{
+
+	private String sProtocol = null;
+	private String sHost = null;
+	private int iPort = -1;
+	private String sPath = null;
+	private String sQueryString = null;
+
+
+	private RequestUri () {
+	}
+
+
+	/**
+	 * splits the given request target into its parts
+	 *
+	 * @param    url                 a  String
+	 *
+	 * @return   a RequestUri or null, if it is neither an absolute uri nor an
+	 *           absolute server path
+	 *
+	 */
+	static RequestUri parse ( String url ) {
+		RequestUri result = new RequestUri ();
+		int iLength = url.length();
+
+		if ( iLength > 0 && url.charAt ( 0 ) == '/' ) {
+			// absolute server path
+			result.splitPath ( url, 0 );
+			return result;
+		}
+
+		// absolute uri
+		int iPos;
+		if ( url.startsWith ( "http://" ) )
+			iPos = 7;
+		else if ( url.startsWith ( "https://" ) )
+			iPos = 8;
+		else
+			return null;
+
+		result.sProtocol = url.substring ( 0, iPos - 3 );
+
+		int iHostStart = iPos;
+		while ( iPos < iLength && ! isHostEnd ( url.charAt ( iPos ) ) )
+			iPos ++;
+
+		if ( iPos == iHostStart )
+			return null;
+		result.sHost = url.substring ( iHostStart, iPos );
+
+		if ( iPos < iLength && url.charAt ( iPos ) == ':' ) {
+			iPos ++;
+			int iPortStart = iPos;
+			int iPort = 0;
+			while ( iPos < iLength && url.charAt ( iPos ) >= '0' && url.charAt ( iPos ) <= '9' ) {
+				iPort = iPort * 10 + ( url.charAt ( iPos ) - '0' );
+				iPos ++;
+
+				if ( iPos - iPortStart > 9 )
+					return null;
+			}
+
+			if ( iPos == iPortStart || ( iPos < iLength && url.charAt ( iPos ) != '/' && url.charAt ( iPos ) != '?' ) )
+				return null;
+			result.iPort = iPort;
+		}
+
+		if ( iPos < iLength )
+			result.splitPath ( url, iPos );
+
+		return result;
+	}
+
+
+	/**
+	 * splits the rest of the target starting at the given index into path and query string
+	 *
+	 * @param    url                 a  String
+	 * @param    start               index of the leading '/' or '?'
+	 *
+	 */
+	private void splitPath ( String url, int start ) {
+		int iQuery = url.indexOf ( '?', start );
+
+		if ( iQuery < 0 )
+			sPath = url.substring ( start );
+		else {
+			if ( iQuery > start )
+				sPath = url.substring ( start, iQuery );
+			sQueryString = url.substring ( iQuery + 1 );
+		}
+	}
+
+
+	private static boolean isHostEnd ( char c ) {
+		return c == ':' || c == '/' || c == '?';
+	}
+
+
+	/**
+	 * returns the protocol of an absolute uri or null
+	 *
+	 * @return   a String
+	 *
+	 */
+	String getProtocol () {
+		return sProtocol;
+	}
+
+
+	/**
+	 * returns the host of an absolute uri or null
+	 *
+	 * @return   a String
+	 *
+	 */
+	String getHost () {
+		return sHost;
+	}
+
+
+	/**
+	 * returns the port of an absolute uri or -1, if none is given
+	 *
+	 * @return   an int
+	 *
+	 */
+	int getPort () {
+		return iPort;
+	}
+
+
+	/**
+	 * returns the path or null, if an absolute uri does not contain one
+	 *
+	 * @return   a String
+	 *
+	 */
+	String getPath () {
+		return sPath;
+	}
+
+
+	/**
+	 * returns the query string (without '?') or null, if there is none
+	 *
+	 * @return   a String
+	 *
+	 */
+	String getQueryString () {
+		return sQueryString;
+	}
+
+}
@@ -0,0 +1,380 @@
+package i5.httpServer;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+
+/**
+ * Growable byte buffer collecting the content of a response.
+ *
+ * Characters are encoded as UTF-8 while they are written, so the content is held
+ * exactly once in the form it is sent and its length in bytes is known at any time.
+ * The underlying arrays are taken from the shared {@link BufferPool} and handed
+ * back by {@link #release}, after the response has been written.
+ *
+ * With a flush target set, the target is flushed whenever the content reaches the
+ * threshold, so that a streamed response never holds more than about the threshold
+ * in memory.
+ */
+
+class ResponseBuffer extends Writer
+{
+
+	/** size of the first buffer, enough for most small responses */
+	private static final int INITIAL_SIZE = 1024;
+
+	private static final Charset UTF_8 = Charset.forName ( "UTF-8" );
+
+
+	private byte[] buffer = null;
+	private int iLength = 0;
+
+	/* high surrogate written without its low surrogate yet */
+	private char cPendingSurrogate = 0;
+
+	/* flushed when the content reaches the threshold, null to collect all content */
+	private Flushable target = null;
+	private int iFlushThreshold = 0;
+
+
+	/**
+	 * sets the target to flush, when the content reaches the given number of bytes
+	 *
+	 * @param    target              a  Flushable, null to collect all content
+	 * @param    threshold           number of bytes, 0 to flush on {@link #flush} only
+	 *
+	 */
+	void setFlushTarget ( Flushable target, int threshold ) {
+		this.target = target;
+		this.iFlushThreshold = threshold;
+	}
+
+
+	/**
+	 * returns the number of chars, which may be written before the threshold is checked
+	 *
+	 * @param    len                 the number of chars to write
+	 *
+	 * @return   an int
+	 *
+	 */
+	private int segment ( int len ) {
+		if ( target == null || iFlushThreshold <= 0 )
+			return len;
+
+		// a char is encoded with at most three bytes
+		return Math.max ( 1, Math.min ( len, ( iFlushThreshold - iLength ) / 3 ) );
+	}
+
+
+	/**
+	 * flushes the target, if the content has reached the threshold
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	private void checkThreshold () throws IOException {
+		if ( target != null && iFlushThreshold > 0 && iLength >= iFlushThreshold )
+			target.flush();
+	}
+
+
+	/**
+	 * makes sure that the given number of further bytes fits into the buffer
+	 *
+	 * @param    count               an int
+	 *
+	 */
+	private void ensureCapacity ( int count ) {
+		if ( buffer == null ) {
+			buffer = BufferPool.getShared().acquire ( Math.max ( INITIAL_SIZE, count ) );
+			return;
+		}
+
+		if ( iLength + count <= buffer.length )
+			return;
+
+		if ( iLength + count < 0 )
+			throw new OutOfMemoryError ( "Response content is too large!" );
+
+		byte[] grown = BufferPool.getShared().acquire ( Math.max ( iLength + count, buffer.length * 2 ) );
+		System.arraycopy ( buffer, 0, grown, 0, iLength );
+		BufferPool.getShared().release ( buffer );
+		buffer = grown;
+	}
+
+
+	/**
+	 * appends a raw byte
+	 *
+	 * @param    b                   an int
+	 *
+	 */
+	void writeByte ( int b ) throws IOException {
+		flushSurrogate();
+		ensureCapacity ( 1 );
+		buffer[iLength++] = (byte) b;
+		checkThreshold();
+	}
+
+
+	/**
+	 * appends raw bytes
+	 *
+	 * @param    b                   a  byte[]
+	 * @param    off                 an int
+	 * @param    len                 an int
+	 *
+	 */
+	void writeBytes ( byte[] b, int off, int len ) throws IOException {
+		flushSurrogate();
+		while ( len > 0 ) {
+			int iCopy = byteSegment ( len );
+			ensureCapacity ( iCopy );
+			System.arraycopy ( b, off, buffer, iLength, iCopy );
+			iLength += iCopy;
+			off += iCopy;
+			len -= iCopy;
+			checkThreshold();
+		}
+	}
+
+
+	/**
+	 * appends the remaining bytes of the given buffer
+	 *
+	 * @param    src                 a  ByteBuffer, heap or direct
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	void writeBytes ( ByteBuffer src ) throws IOException {
+		flushSurrogate();
+		while ( src.hasRemaining() ) {
+			int iCopy = byteSegment ( src.remaining() );
+			ensureCapacity ( iCopy );
+			src.get ( buffer, iLength, iCopy );
+			iLength += iCopy;
+			checkThreshold();
+		}
+	}
+
+
+	/**
+	 * returns the number of bytes, which may be appended before the threshold is checked
+	 *
+	 * @param    len                 the number of bytes to write
+	 *
+	 * @return   an int
+	 *
+	 */
+	private int byteSegment ( int len ) {
+		if ( target == null || iFlushThreshold <= 0 )
+			return len;
+
+		return Math.max ( 1, Math.min ( len, iFlushThreshold - iLength ) );
+	}
+
+
+	public void write ( int c ) throws IOException {
+		encode ( (char) c );
+		checkThreshold();
+	}
+
+
+	public void write ( char[] cbuf, int off, int len ) throws IOException {
+		while ( len > 0 ) {
+			int iSegment = segment ( len );
+			// at least one byte per char, further space is made while encoding
+			ensureCapacity ( iSegment );
+			for ( int i = off; i < off + iSegment; i++ )
+				encode ( cbuf[i] );
+			off += iSegment;
+			len -= iSegment;
+			checkThreshold();
+		}
+	}
+
+
+	public void write ( String str, int off, int len ) throws IOException {
+		while ( len > 0 ) {
+			int iSegment = segment ( len );
+			ensureCapacity ( iSegment );
+			for ( int i = off; i < off + iSegment; i++ )
+				encode ( str.charAt ( i ) );
+			off += iSegment;
+			len -= iSegment;
+			checkThreshold();
+		}
+	}
+
+
+	public void write ( String str ) throws IOException {
+		write ( str, 0, str.length() );
+	}
+
+
+	/**
+	 * encodes a single char as UTF-8
+	 *
+	 * @param    c                   a  char
+	 *
+	 */
+	private void encode ( char c ) {
+		if ( c < 0x80 && cPendingSurrogate == 0 ) {
+			ensureCapacity ( 1 );
+			buffer[iLength++] = (byte) c;
+			return;
+		}
+
+		ensureCapacity ( 4 );
+
+		if ( cPendingSurrogate != 0 ) {
+			char cHigh = cPendingSurrogate;
+			cPendingSurrogate = 0;
+
+			if ( Character.isLowSurrogate ( c ) ) {
+				int iCodePoint = Character.toCodePoint ( cHigh, c );
+				buffer[iLength++] = (byte) ( 0xf0 | ( iCodePoint >> 18 ) );
+				buffer[iLength++] = (byte) ( 0x80 | ( ( iCodePoint >> 12 ) & 0x3f ) );
+				buffer[iLength++] = (byte) ( 0x80 | ( ( iCodePoint >> 6 ) & 0x3f ) );
+				buffer[iLength++] = (byte) ( 0x80 | ( iCodePoint & 0x3f ) );
+				return;
+			}
+
+			// a high surrogate without low surrogate cannot be encoded
+			buffer[iLength++] = '?';
+			encode ( c );
+			return;
+		}
+
+		if ( c < 0x800 ) {
+			buffer[iLength++] = (byte) ( 0xc0 | ( c >> 6 ) );
+			buffer[iLength++] = (byte) ( 0x80 | ( c & 0x3f ) );
+		} else if ( Character.isHighSurrogate ( c ) )
+			cPendingSurrogate = c;
+		else if ( Character.isLowSurrogate ( c ) )
+			buffer[iLength++] = '?';
+		else {
+			buffer[iLength++] = (byte) ( 0xe0 | ( c >> 12 ) );
+			buffer[iLength++] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3f ) );
+			buffer[iLength++] = (byte) ( 0x80 | ( c & 0x3f ) );
+		}
+	}
+
+
+	/**
+	 * writes a high surrogate, which has not been followed by a low one, as '?'
+	 *
+	 */
+	private void flushSurrogate () {
+		if ( cPendingSurrogate == 0 )
+			return;
+
+		cPendingSurrogate = 0;
+		ensureCapacity ( 1 );
+		buffer[iLength++] = '?';
+	}
+
+
+	/**
+	 * returns the number of bytes of the content
+	 *
+	 * @return   an int
+	 *
+	 */
+	int size () {
+		flushSurrogate();
+		return iLength;
+	}
+
+
+	/**
+	 * writes the content to the given stream
+	 *
+	 * @param    out                 an OutputStream
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	void writeTo ( OutputStream out ) throws IOException {
+		flushSurrogate();
+		if ( iLength > 0 )
+			out.write ( buffer, 0, iLength );
+	}
+
+
+	/**
+	 * writes the content encoded so far to the given stream and empties the buffer,
+	 * a high surrogate waiting for its low surrogate is kept
+	 *
+	 * @param    out                 an OutputStream, null to discard the content
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	void drainTo ( OutputStream out ) throws IOException {
+		int iDrained = iLength;
+		iLength = 0;
+		if ( out != null && iDrained > 0 )
+			out.write ( buffer, 0, iDrained );
+	}
+
+
+	/**
+	 * returns the content decoded as String
+	 *
+	 * @return   a String
+	 *
+	 */
+	public String toString () {
+		flushSurrogate();
+		if ( iLength == 0 )
+			return "";
+
+		return new String ( buffer, 0, iLength, UTF_8 );
+	}
+
+
+	/**
+	 * discards the content
+	 *
+	 */
+	void reset () {
+		iLength = 0;
+		cPendingSurrogate = 0;
+	}
+
+
+	/**
+	 * discards the content and hands the buffer back to the pool
+	 *
+	 */
+	void release () {
+		reset();
+		if ( buffer != null )
+			BufferPool.getShared().release ( buffer );
+		buffer = null;
+	}
+
+
+	/**
+	 * flushes the target, e.g. to stream the content written so far
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	public void flush () throws IOException {
+		if ( target != null )
+			target.flush();
+	}
+
+
+	public void close () {
+	}
+
+}
@@ -0,0 +1,31 @@
+package i5.httpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * interface of the connection a response is streamed to.
+ *
+ * When a {@link HttpResponseImpl} is flushed for the first time, its header is
+ * committed, i.e. written to the connection without a Content-Length. From then on
+ * the content is written to the returned stream, status and header fields cannot
+ * be changed anymore.
+ *
+ */
+interface ResponseCommitter
+{
+
+	/**
+	 * writes the status line and the header fields of the given response
+	 *
+	 * @param    response            the response to stream
+	 *
+	 * @return   the stream to write the content to or null, if the content is
+	 *           to be discarded (answer to a HEAD request)
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	public OutputStream commit ( HttpResponseImpl response ) throws IOException;
+
+}
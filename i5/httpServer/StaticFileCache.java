@@ -0,0 +1,385 @@
+package i5.httpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Cache of the files served by a {@link StaticFileHandler}, bounded by the total
+ * size of the cached files and evicting the least recently used ones.
+ *
+ * Small files are held as byte arrays, larger ones are mapped into memory, so that
+ * they occupy the file system cache only. Together with a file its header values
+ * (Content-Type, Content-Encoding, Last-Modified) are kept, thus a hit neither touches the file system
+ * nor formats a date. Whether a file has changed is checked by its modification time
+ * and size, at most once per check interval.
+ *
+ * The compressed forms of a file are computed on their first request and kept with
+ * the file (counting for the size of the cache), so that the server compresses a
+ * cached file once per coding only.
+ */
+
+class StaticFileCache
+{
+
+	/** files up to this size are held in the heap, larger ones are mapped */
+	static final int MAX_HEAP_FILE = 64 * 1024;
+
+	/** size accounted for an entry besides its content */
+	private static final int ENTRY_OVERHEAD = 256;
+
+
+	/**
+	 * a cached file
+	 *
+	 */
+	static class Entry implements CompressedContent {
+
+		private StaticFileCache cache;
+
+		private String sKey;
+
+		private Path file;
+
+		/* the content, duplicated for every response */
+		private ByteBuffer content;
+
+		private String sContentType;
+
+		/* null for the file itself, "gzip" for its precompressed sibling */
+		private String sContentEncoding;
+
+		private long lModified;
+		private String sLastModified;
+
+		/* modification time and size as found in the file system */
+		private long lFileTime;
+		private long lFileSize;
+
+		private volatile long lChecked;
+
+		/* compressed forms, created on first request */
+		private ByteBuffer gzipContent = null;
+		private ByteBuffer deflateContent = null;
+		private long lCompressedSize = 0;
+
+		Entry ( StaticFileCache cache, String key, Path file, ByteBuffer content, String contentType, String contentEncoding, BasicFileAttributes attributes, long now ) {
+			this.cache = cache;
+			this.sKey = key;
+			this.file = file;
+			this.content = content;
+			this.sContentType = contentType;
+			this.sContentEncoding = contentEncoding;
+			this.lFileTime = attributes.lastModifiedTime().toMillis();
+			this.lFileSize = attributes.size();
+			// HTTP dates have a resolution of seconds
+			this.lModified = lFileTime / 1000 * 1000;
+			this.sLastModified = StaticFileHandler.formatDate ( lModified );
+			this.lChecked = now;
+		}
+
+		/**
+		 * returns a view of the content with its own position
+		 *
+		 * @return   a ByteBuffer
+		 *
+		 */
+		ByteBuffer getContent () {
+			return content.duplicate();
+		}
+
+		String getContentType () {
+			return sContentType;
+		}
+
+		String getContentEncoding () {
+			return sContentEncoding;
+		}
+
+		long getModified () {
+			return lModified;
+		}
+
+		String getLastModified () {
+			return sLastModified;
+		}
+
+		/**
+		 * returns the size accounted for this entry, called under the lock of the cache
+		 *
+		 * @return   a long
+		 *
+		 */
+		long getSize () {
+			return lFileSize + ENTRY_OVERHEAD + lCompressedSize;
+		}
+
+		/**
+		 * returns the content compressed with the given coding, which is computed
+		 * on the first request
+		 *
+		 * @param    coding              the content coding, "gzip" or "deflate"
+		 *
+		 * @return   a ByteBuffer
+		 *
+		 * @exception   IOException
+		 *
+		 */
+		public synchronized ByteBuffer getCompressed ( String coding ) throws IOException {
+			boolean bGzip = ! "deflate".equals ( coding );
+			ByteBuffer result = bGzip ? gzipContent : deflateContent;
+
+			if ( result == null ) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream ( (int) Math.min ( lFileSize / 2 + 64, Integer.MAX_VALUE ) );
+				CompressingOutputStream out = new CompressingOutputStream ( bytes, coding, CompressingOutputStream.DEFAULT_LEVEL );
+				try {
+					HttpResponseImpl.copyBuffer ( content.duplicate(), out );
+					out.finish();
+				} finally {
+					out.release();
+				}
+
+				result = ByteBuffer.wrap ( bytes.toByteArray() );
+				if ( bGzip )
+					gzipContent = result;
+				else
+					deflateContent = result;
+				cache.grow ( this, result.remaining() );
+			}
+
+			return result.duplicate();
+		}
+
+		/**
+		 * checks, whether the file is still unchanged, at most once per interval
+		 *
+		 * @param    now                 the current time in ms
+		 * @param    interval            the check interval in ms
+		 *
+		 * @return   a boolean
+		 *
+		 */
+		boolean isValid ( long now, int interval ) {
+			if ( now - lChecked < interval )
+				return true;
+
+			try {
+				BasicFileAttributes attributes = Files.readAttributes ( file, BasicFileAttributes.class );
+				if ( attributes.lastModifiedTime().toMillis() != lFileTime || attributes.size() != lFileSize )
+					return false;
+			} catch ( IOException e ) {
+				// deleted or not readable anymore
+				return false;
+			}
+
+			lChecked = now;
+			return true;
+		}
+	}
+
+
+	/* the cached files by request path, in access order */
+	private LinkedHashMap<String, Entry> lhmEntries = new LinkedHashMap<String, Entry> ( 64, 0.75f, true );
+
+	private long lMaxSize;
+	private long lSize = 0;
+
+	private int iCheckInterval;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param    maxSize             maximal total size of the cached files in bytes
+	 * @param    checkInterval       time in ms a file is taken as unchanged after a check
+	 *
+	 */
+	StaticFileCache ( long maxSize, int checkInterval ) {
+		this.lMaxSize = maxSize;
+		this.iCheckInterval = checkInterval;
+	}
+
+
+	/**
+	 * returns the largest file, which is cached
+	 *
+	 * @return   a long
+	 *
+	 */
+	long getMaxFileSize () {
+		// a single file must not displace most of the others
+		return lMaxSize / 4;
+	}
+
+
+	/**
+	 * returns the unchanged entry of a request path or null
+	 *
+	 * @param    path                the path of the request
+	 *
+	 * @return   an Entry
+	 *
+	 */
+	Entry get ( String path ) {
+		Entry entry;
+		synchronized ( this ) {
+			entry = lhmEntries.get ( path );
+		}
+		if ( entry == null )
+			return null;
+
+		// the file system is checked outside of the lock
+		if ( entry.isValid ( System.currentTimeMillis(), iCheckInterval ) )
+			return entry;
+
+		remove ( path, entry );
+		return null;
+	}
+
+
+	/**
+	 * reads or maps a file and caches it for the given request path
+	 *
+	 * @param    path                the path of the request
+	 * @param    file                the file to cache
+	 * @param    contentType         the content type of the file
+	 * @param    contentEncoding     the content coding of the file, null if it is not compressed
+	 *
+	 * @return   the new entry or null, if the file is too large
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	Entry load ( String path, Path file, String contentType, String contentEncoding ) throws IOException {
+		long lNow = System.currentTimeMillis();
+
+		FileChannel channel = FileChannel.open ( file, StandardOpenOption.READ );
+		try {
+			// attributes are taken before the content, a change in between is found by the next check
+			BasicFileAttributes attributes = Files.readAttributes ( file, BasicFileAttributes.class );
+			long lLength = attributes.size();
+			if ( lLength > getMaxFileSize() )
+				return null;
+
+			ByteBuffer content;
+			if ( lLength <= MAX_HEAP_FILE ) {
+				content = ByteBuffer.allocate ( (int) lLength );
+				while ( content.hasRemaining() ) {
+					if ( channel.read ( content ) < 0 )
+						throw new IOException ( "File has been truncated while it was read!" );
+				}
+				content.flip();
+			} else
+				content = channel.map ( FileChannel.MapMode.READ_ONLY, 0, lLength );
+
+			Entry entry = new Entry ( this, path, file, content, contentType, contentEncoding, attributes, lNow );
+			put ( path, entry );
+			return entry;
+		} finally {
+			// a mapping stays valid after the channel has been closed
+			channel.close();
+		}
+	}
+
+
+	/**
+	 * adds an entry and evicts the least recently used ones exceeding the size
+	 *
+	 * @param    path                a  String
+	 * @param    entry               an Entry
+	 *
+	 */
+	private synchronized void put ( String path, Entry entry ) {
+		Entry old = lhmEntries.put ( path, entry );
+		if ( old != null )
+			lSize -= old.getSize();
+		lSize += entry.getSize();
+
+		evict ( entry );
+	}
+
+
+	/**
+	 * accounts the compressed form added to an entry
+	 *
+	 * @param    entry               an Entry
+	 * @param    size                the size of the compressed form in bytes
+	 *
+	 */
+	private synchronized void grow ( Entry entry, long size ) {
+		entry.lCompressedSize += size;
+
+		// an entry removed meanwhile is not accounted anymore
+		if ( lhmEntries.get ( entry.sKey ) != entry )
+			return;
+
+		lSize += size;
+		evict ( entry );
+	}
+
+
+	/**
+	 * evicts the least recently used entries exceeding the size, except the given one
+	 *
+	 * @param    keep                an Entry
+	 *
+	 */
+	private void evict ( Entry keep ) {
+		Iterator<Map.Entry<String, Entry>> it = lhmEntries.entrySet().iterator();
+		while ( lSize > lMaxSize && it.hasNext() ) {
+			Entry eldest = it.next().getValue();
+			if ( eldest == keep )
+				continue;
+
+			lSize -= eldest.getSize();
+			it.remove();
+		}
+	}
+
+
+	/**
+	 * removes an entry, unless it has been replaced meanwhile
+	 *
+	 * @param    path                a  String
+	 * @param    entry               an Entry
+	 *
+	 */
+	private synchronized void remove ( String path, Entry entry ) {
+		if ( lhmEntries.get ( path ) != entry )
+			return;
+
+		lhmEntries.remove ( path );
+		lSize -= entry.getSize();
+	}
+
+
+	/**
+	 * removes all entries
+	 *
+	 */
+	synchronized void clear () {
+		lhmEntries.clear();
+		lSize = 0;
+	}
+
+
+	/**
+	 * returns the total size of the cached files in bytes
+	 *
+	 * @return   a long
+	 *
+	 */
+	synchronized long getSize () {
+		return lSize;
+	}
+
+}
@@ -0,0 +1,471 @@
+package i5.httpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+
+
+/**
+ * {@link RequestHandler} serving the files of a directory below a url prefix,
+ * e.g. the scripts and style sheets of a web frontend.
+ *
+ * The content of a file is never read into the heap by the handler: the server
+ * sends it directly from the file system (see
+ * {@link HttpServer.SocketRequestHandler#transferFile}), with sendfile on plain
+ * connections. Responses carry Content-Type (by the file's extension),
+ * Content-Length and Last-Modified, a request with an up to date
+ * If-Modified-Since is answered with 304.
+ *
+ * Frequently requested files are kept in a {@link StaticFileCache} (32 MB by
+ * default, see {@link #setCache}), so that a hit costs neither a system call nor
+ * the preparation of its header values.
+ *
+ * Cached text files are sent compressed to clients accepting it, each of them is
+ * compressed once per coding and kept in the cache. Files too large for the cache
+ * are sent uncompressed, unless {@link #setPrecompressed} is enabled: then a
+ * <code>.gz</code> sibling of a file (e.g. <code>app.js.gz</code> next to
+ * <code>app.js</code>) is sent to clients accepting gzip instead.
+ *
+ * Since the server instantiates its handler via a standard constructor, a
+ * subclass choosing prefix and directory is used as handler class, or the handler
+ * is used by another one for a part of its urls.
+ */
+
+public class StaticFileHandler implements RequestHandler
+{
+
+	private static final Charset UTF_8 = Charset.forName ( "UTF-8" );
+
+	/** content type of files with an unknown extension */
+	public static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+	/** file served for a request of a directory */
+	public static final String INDEX_FILE = "index.html";
+
+	/** default maximal total size of the cached files in bytes */
+	public static final long DEFAULT_CACHE_SIZE = 32L * 1024 * 1024;
+
+	/** default time in ms a cached file is taken as unchanged after a check */
+	public static final int DEFAULT_CHECK_INTERVAL = 1000;
+
+	/* appended to the cache key of a file to cache the variant sent to clients accepting gzip */
+	private static final String GZIP_VARIANT = " gzip";
+
+
+	private static final HashMap<String, String> hmDefaultTypes = new HashMap<String, String> ();
+
+	static {
+		hmDefaultTypes.put ( "html", "text/html; charset=utf-8" );
+		hmDefaultTypes.put ( "htm", "text/html; charset=utf-8" );
+		hmDefaultTypes.put ( "css", "text/css; charset=utf-8" );
+		hmDefaultTypes.put ( "js", "application/javascript; charset=utf-8" );
+		hmDefaultTypes.put ( "mjs", "application/javascript; charset=utf-8" );
+		hmDefaultTypes.put ( "json", "application/json; charset=utf-8" );
+		hmDefaultTypes.put ( "map", "application/json; charset=utf-8" );
+		hmDefaultTypes.put ( "txt", "text/plain; charset=utf-8" );
+		hmDefaultTypes.put ( "xml", "application/xml; charset=utf-8" );
+		hmDefaultTypes.put ( "svg", "image/svg+xml; charset=utf-8" );
+		hmDefaultTypes.put ( "png", "image/png" );
+		hmDefaultTypes.put ( "jpg", "image/jpeg" );
+		hmDefaultTypes.put ( "jpeg", "image/jpeg" );
+		hmDefaultTypes.put ( "gif", "image/gif" );
+		hmDefaultTypes.put ( "webp", "image/webp" );
+		hmDefaultTypes.put ( "ico", "image/x-icon" );
+		hmDefaultTypes.put ( "woff", "font/woff" );
+		hmDefaultTypes.put ( "woff2", "font/woff2" );
+		hmDefaultTypes.put ( "ttf", "font/ttf" );
+		hmDefaultTypes.put ( "pdf", "application/pdf" );
+		hmDefaultTypes.put ( "wasm", "application/wasm" );
+		hmDefaultTypes.put ( "zip", "application/zip" );
+	}
+
+	/* formats of HTTP dates are not thread safe */
+	private static final ThreadLocal<SimpleDateFormat> tlDateFormat = new ThreadLocal<SimpleDateFormat> () {
+		protected SimpleDateFormat initialValue () {
+			SimpleDateFormat format = new SimpleDateFormat ( "EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US );
+			format.setTimeZone ( TimeZone.getTimeZone ( "GMT" ) );
+			return format;
+		}
+	};
+
+
+	private String sPrefix;
+
+	private Path root;
+
+	private HashMap<String, String> hmContentTypes = new HashMap<String, String> ( hmDefaultTypes );
+
+	/* null, if files are not cached */
+	private StaticFileCache cache = new StaticFileCache ( DEFAULT_CACHE_SIZE, DEFAULT_CHECK_INTERVAL );
+
+	private boolean bPrecompressed = false;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param    urlPrefix           the path prefix of the served urls, e.g. <code>/static</code>
+	 * @param    directory           the directory containing the files
+	 *
+	 */
+	public StaticFileHandler ( String urlPrefix, File directory ) {
+		if ( urlPrefix == null || ! urlPrefix.startsWith ( "/" ) )
+			throw new IllegalArgumentException ( "Invalid url prefix!" );
+		if ( ! directory.isDirectory() )
+			throw new IllegalArgumentException ( directory + " is not a directory!" );
+
+		// the prefix matches whole path segments only
+		sPrefix = urlPrefix.endsWith ( "/" ) ? urlPrefix.substring ( 0, urlPrefix.length() - 1 ) : urlPrefix;
+		root = directory.toPath().toAbsolutePath().normalize();
+	}
+
+
+	/**
+	 * configures the cache of the served files. Files larger than a quarter of the
+	 * cache are not cached.
+	 *
+	 * @param    maxSize             maximal total size of the cached files in bytes, 0 disables the cache
+	 * @param    checkInterval       time in ms a cached file is taken as unchanged after a check
+	 *                               of its modification time, 0 to check on every request
+	 *
+	 */
+	public void setCache ( long maxSize, int checkInterval ) {
+		if ( maxSize < 0 || checkInterval < 0 )
+			throw new IllegalArgumentException ( "Invalid cache settings!" );
+
+		cache = maxSize > 0 ? new StaticFileCache ( maxSize, checkInterval ) : null;
+	}
+
+
+	/**
+	 * enables sending the precompressed <code>.gz</code> sibling of a file to clients
+	 * accepting gzip. A sibling, which is older than its file, is ignored. Once it is
+	 * cached, a sibling is checked for changes of its own only, so siblings should be
+	 * updated together with their files.
+	 *
+	 * @param    precompressed       a  boolean
+	 *
+	 */
+	public void setPrecompressed ( boolean precompressed ) {
+		bPrecompressed = precompressed;
+
+		if ( cache != null )
+			cache.clear();
+	}
+
+
+	/**
+	 * sets the content type of the files with the given extension
+	 *
+	 * @param    extension           the extension without dot, e.g. <code>js</code>
+	 * @param    contentType         a  String
+	 *
+	 */
+	public void setContentType ( String extension, String contentType ) {
+		hmContentTypes.put ( extension.toLowerCase ( Locale.ENGLISH ), contentType );
+
+		// cached files keep their content type
+		if ( cache != null )
+			cache.clear();
+	}
+
+
+	/**
+	 * returns the content type of the given file name by its extension
+	 *
+	 * @param    fileName            a  String
+	 *
+	 * @return   a String
+	 *
+	 */
+	public String getContentType ( String fileName ) {
+		int iDot = fileName.lastIndexOf ( '.' );
+		if ( iDot < 0 )
+			return DEFAULT_CONTENT_TYPE;
+
+		String sType = hmContentTypes.get ( fileName.substring ( iDot + 1 ).toLowerCase ( Locale.ENGLISH ) );
+		return sType != null ? sType : DEFAULT_CONTENT_TYPE;
+	}
+
+
+	/**
+	 * answers a GET or HEAD request with the file denoted by its path
+	 *
+	 * @param    request             a  HttpRequest
+	 * @param    response            a  HttpResponse
+	 *
+	 * @exception   Exception
+	 *
+	 */
+	public void processRequest ( HttpRequest request, HttpResponse response ) throws Exception {
+		if ( request.getMethod() != HttpRequest.METHOD_GET && request.getMethod() != HttpRequest.METHOD_HEAD ) {
+			response.setStatus ( HttpResponse.STATUS_METHOD_NOT_ALLOWED );
+			response.setHeaderField ( "Allow", "GET, HEAD" );
+			return;
+		}
+
+		// clients accepting gzip get the precompressed sibling of a file, if there is one
+		boolean bGzip = false;
+		if ( bPrecompressed ) {
+			HttpServer.addVary ( response, "Accept-Encoding" );
+			bGzip = CompressingOutputStream.getQuality ( request.getHeaderField ( "Accept-Encoding" ), "gzip" ) > 0;
+		}
+
+		Path file = resolve ( request.getPath() );
+		if ( file == null ) {
+			response.setStatus ( HttpResponse.STATUS_NOT_FOUND );
+			return;
+		}
+
+		// keyed by the normalized path, so that differently encoded requests of a file share one entry
+		String sKey = root.relativize ( file ).toString();
+		if ( bGzip )
+			sKey += GZIP_VARIANT;
+
+		if ( cache != null ) {
+			StaticFileCache.Entry entry = cache.get ( sKey );
+			if ( entry != null ) {
+				sendCached ( entry, request, response );
+				return;
+			}
+		}
+
+		if ( Files.isDirectory ( file ) )
+			file = file.resolve ( INDEX_FILE );
+
+		if ( ! Files.isRegularFile ( file ) || ! Files.isReadable ( file ) ) {
+			response.setStatus ( HttpResponse.STATUS_NOT_FOUND );
+			return;
+		}
+
+		String sContentType = getContentType ( file.getFileName().toString() );
+		String sCoding = null;
+		if ( bGzip ) {
+			Path compressed = getPrecompressed ( file );
+			if ( compressed != null ) {
+				file = compressed;
+				sCoding = "gzip";
+			}
+		}
+
+		if ( cache != null && Files.size ( file ) <= cache.getMaxFileSize() ) {
+			StaticFileCache.Entry entry = cache.load ( sKey, file, sContentType, sCoding );
+			if ( entry != null ) {
+				sendCached ( entry, request, response );
+				return;
+			}
+		}
+
+		// HTTP dates have a resolution of seconds
+		long lModified = Files.getLastModifiedTime ( file ).toMillis() / 1000 * 1000;
+		response.setHeaderField ( "Last-Modified", formatDate ( lModified ) );
+
+		long lSince = parseDate ( request.getHeaderField ( "If-Modified-Since" ) );
+		if ( lSince >= 0 && lModified <= lSince ) {
+			response.setStatus ( HttpResponse.STATUS_NOT_MODIFIED );
+			return;
+		}
+
+		response.setContentType ( sContentType );
+		if ( sCoding != null )
+			response.setHeaderField ( "Content-Encoding", sCoding );
+
+		FileChannel channel = FileChannel.open ( file, StandardOpenOption.READ );
+		try {
+			long lLength = channel.size();
+
+			if ( response instanceof HttpResponseImpl ) {
+				// the channel is closed by the server after sending it
+				( (HttpResponseImpl) response ).setFileContent ( channel, 0, lLength );
+				channel = null;
+			} else {
+				OutputStream out = response.getOutputStream();
+				HttpResponseImpl.copyFile ( channel, 0, lLength, out );
+			}
+		} finally {
+			if ( channel != null )
+				channel.close();
+		}
+	}
+
+
+	/**
+	 * answers a request with a cached file
+	 *
+	 * @param    entry               the cached file
+	 * @param    request             a  HttpRequest
+	 * @param    response            a  HttpResponse
+	 *
+	 * @exception   IOException
+	 *
+	 */
+	private void sendCached ( StaticFileCache.Entry entry, HttpRequest request, HttpResponse response ) throws IOException {
+		response.setHeaderField ( "Last-Modified", entry.getLastModified() );
+
+		String sSince = request.getHeaderField ( "If-Modified-Since" );
+		if ( sSince != null && ( sSince.equals ( entry.getLastModified() ) || parseDate ( sSince ) >= entry.getModified() ) ) {
+			response.setStatus ( HttpResponse.STATUS_NOT_MODIFIED );
+			return;
+		}
+
+		response.setContentType ( entry.getContentType() );
+		if ( entry.getContentEncoding() != null )
+			response.setHeaderField ( "Content-Encoding", entry.getContentEncoding() );
+
+		// the server takes a compressed form of the entry, which is computed once
+		if ( response instanceof HttpResponseImpl && entry.getContentEncoding() == null )
+			( (HttpResponseImpl) response ).setBufferContent ( entry.getContent(), entry );
+		else if ( response instanceof HttpResponseImpl )
+			( (HttpResponseImpl) response ).setBufferContent ( entry.getContent() );
+		else
+			HttpResponseImpl.copyBuffer ( entry.getContent(), response.getOutputStream() );
+	}
+
+
+	/**
+	 * returns the <code>.gz</code> sibling of a file, if it is up to date
+	 *
+	 * @param    file                a  Path
+	 *
+	 * @return   the sibling or null, if there is none
+	 *
+	 */
+	private static Path getPrecompressed ( Path file ) {
+		Path result = file.resolveSibling ( file.getFileName() + ".gz" );
+
+		try {
+			if ( Files.isRegularFile ( result ) && Files.isReadable ( result )
+				&& Files.getLastModifiedTime ( result ).compareTo ( Files.getLastModifiedTime ( file ) ) >= 0 )
+				return result;
+		} catch ( IOException e ) {
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * maps the path of a request to a file below the directory
+	 *
+	 * @param    path                the (encoded) path of the request
+	 *
+	 * @return   the file or null, if the path is not served by this handler
+	 *
+	 */
+	protected Path resolve ( String path ) {
+		if ( path == null || ! path.startsWith ( sPrefix ) )
+			return null;
+
+		String sRelative = path.substring ( sPrefix.length() );
+		if ( sRelative.length() > 0 && sRelative.charAt ( 0 ) != '/' )
+			return null;
+
+		sRelative = decodePath ( sRelative );
+		if ( sRelative == null || sRelative.indexOf ( '\0' ) >= 0 || sRelative.indexOf ( '\\' ) >= 0 )
+			return null;
+
+		while ( sRelative.startsWith ( "/" ) )
+			sRelative = sRelative.substring ( 1 );
+
+		Path result;
+		try {
+			result = root.resolve ( sRelative ).normalize();
+		} catch ( RuntimeException e ) {
+			// invalid path for this file system
+			return null;
+		}
+
+		// no way out of the directory via ".."
+		if ( ! result.startsWith ( root ) )
+			return null;
+
+		return result;
+	}
+
+
+	/**
+	 * decodes the percent escapes (UTF-8) of a path, a '+' is kept
+	 *
+	 * @param    path                a  String
+	 *
+	 * @return   the decoded path or null, if an escape is invalid
+	 *
+	 */
+	private static String decodePath ( String path ) {
+		if ( path.indexOf ( '%' ) < 0 )
+			return path;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream ( path.length() );
+		int i = 0;
+		while ( i < path.length() ) {
+			int iEscape = path.indexOf ( '%', i );
+			if ( iEscape < 0 )
+				iEscape = path.length();
+
+			// characters between the escapes are taken as they are
+			byte[] plain = path.substring ( i, iEscape ).getBytes ( UTF_8 );
+			bytes.write ( plain, 0, plain.length );
+			if ( iEscape == path.length() )
+				break;
+
+			if ( iEscape + 2 >= path.length() )
+				return null;
+
+			int iHigh = Character.digit ( path.charAt ( iEscape + 1 ), 16 );
+			int iLow = Character.digit ( path.charAt ( iEscape + 2 ), 16 );
+			if ( iHigh < 0 || iLow < 0 )
+				return null;
+
+			bytes.write ( iHigh * 16 + iLow );
+			i = iEscape + 3;
+		}
+
+		return new String ( bytes.toByteArray(), UTF_8 );
+	}
+
+
+	/**
+	 * formats a time as HTTP date
+	 *
+	 * @param    time                ms since the epoch
+	 *
+	 * @return   a String
+	 *
+	 */
+	static String formatDate ( long time ) {
+		return tlDateFormat.get().format ( new Date ( time ) );
+	}
+
+
+	/**
+	 * parses a HTTP date
+	 *
+	 * @param    date                a  String, may be null
+	 *
+	 * @return   ms since the epoch or -1, if the date is missing or invalid
+	 *
+	 */
+	static long parseDate ( String date ) {
+		if ( date == null )
+			return -1;
+
+		try {
+			return tlDateFormat.get().parse ( date.trim() ).getTime();
+		} catch ( ParseException e ) {
+			return -1;
+		}
+	}
+
+}
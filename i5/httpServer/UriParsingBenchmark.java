@@ -0,0 +1,148 @@
+package i5.httpServer;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Micro benchmark comparing the splitting of request targets by {@link RequestUri}
+ * with the former regular expression based implementation of
+ * <code>extractUriParts</code>.
+ *
+ * Both implementations are run over a set of request targets typical for las2peer
+ * REST services. After a warm up phase the mean time per target is printed.
+ *
+ * understandable commandline parameters:
+ *  -w  number of warm up rounds (default 200000)
+ *  -r  number of measured rounds (default 1000000)
+ */
+
+public class UriParsingBenchmark {
+
+	private static final String[] URLS = new String[] {
+		"/",
+		"/favicon.ico",
+		"/i5.las2peer.services.videoListService.VideoListService/getVideoList",
+		"/i5.las2peer.services.mobsos.SurveyService/surveys/12/responses?full=1&sepline=%0A",
+		"/service/i5.las2peer.webConnector.TestService/do/1/2?param1=%C3%A4bc&param2=42",
+		"/agents/-4533871291283910/messages?since=1384995654000&limit=50",
+		"http://localhost:8080/las2peer/agents/-4533871291283910?login=true",
+		"https://las2peer.dbis.rwth-aachen.de:9080/i5.las2peer.services.userService.UserService/users/alice",
+	};
+
+	/* result of the last parsed target, keeps the work from being optimized away */
+	private static int iSink = 0;
+
+
+	/**
+	 * the former implementation compiling both patterns for each request
+	 *
+	 * @param    url                 a  String
+	 *
+	 * @exception   Exception
+	 *
+	 */
+	private static void parseRegex ( String url ) throws Exception {
+		String sProtocol = null, sHost = null, sPath = null, sQueryString = null;
+		int iPort = -1;
+
+		Pattern pRequest = Pattern.compile ( "(https?)://([^:/?]+)(:([0-9]+))?(/[^?]*)?(\\?(.*))?" );
+		Matcher mRequest = pRequest.matcher ( url );
+		if ( mRequest.matches() ) {
+			sProtocol = mRequest.group ( 1 );
+			sHost = mRequest.group ( 2 );
+			if ( mRequest.group ( 3 ) != null )
+				iPort = Integer.valueOf( mRequest.group(4) ).intValue();
+			sPath = mRequest.group ( 5);
+			sQueryString = mRequest.group (7 );
+		} else {
+			pRequest = Pattern.compile ( "(/[^?]*)(\\?(.*))?" );
+			mRequest = pRequest.matcher ( url );
+			if ( mRequest.matches() ) {
+				sPath = mRequest.group ( 1 );
+				sQueryString = mRequest.group ( 3 );
+			} else
+				throw new MalformedHeaderException ( "No absolute uri or absolute server path requested!" );
+		}
+		if ( sQueryString != null )
+			sQueryString = new String ( sQueryString.getBytes(), "UTF-8" );
+
+		iSink += iPort + ( sProtocol == null ? 0 : 1 ) + ( sHost == null ? 0 : 1 ) + ( sPath == null ? 0 : 1 ) + ( sQueryString == null ? 0 : 1 );
+	}
+
+
+	/**
+	 * the current implementation
+	 *
+	 * @param    url                 a  String
+	 *
+	 * @exception   Exception
+	 *
+	 */
+	private static void parseScanning ( String url ) throws Exception {
+		RequestUri uri = RequestUri.parse ( url );
+
+		iSink += uri.getPort() + ( uri.getProtocol() == null ? 0 : 1 ) + ( uri.getHost() == null ? 0 : 1 )
+			+ ( uri.getPath() == null ? 0 : 1 ) + ( uri.getQueryString() == null ? 0 : 1 );
+	}
+
+
+	/**
+	 * runs the given implementation the given number of rounds over all targets
+	 *
+	 * @param    regex               use the former implementation?
+	 * @param    rounds              an int
+	 *
+	 * @return   the duration in ns
+	 *
+	 * @exception   Exception
+	 *
+	 */
+	private static long run ( boolean regex, int rounds ) throws Exception {
+		long lStart = System.nanoTime();
+
+		for ( int i = 0; i < rounds; i++ ) {
+			String url = URLS[i % URLS.length];
+			if ( regex )
+				parseRegex ( url );
+			else
+				parseScanning ( url );
+		}
+
+		return System.nanoTime() - lStart;
+	}
+
+
+	/**
+	 * starts the benchmark
+	 *
+	 * @param    argv                a  String[]
+	 *
+	 * @exception   Exception
+	 *
+	 */
+	public static void main ( String[] argv ) throws Exception {
+		int iWarmUp = 200000;
+		int iRounds = 1000000;
+
+		for ( int i = 0; i < argv.length; i++ ) {
+			if ( argv[i].equals ( "-w" ) )
+				iWarmUp = Integer.parseInt ( argv[++i] );
+			else if ( argv[i].equals ( "-r" ) )
+				iRounds = Integer.parseInt ( argv[++i] );
+			else
+				System.err.println ( "unknown parameter: " + argv[i] );
+		}
+
+		run ( true, iWarmUp );
+		run ( false, iWarmUp );
+
+		long lRegex = run ( true, iRounds );
+		long lScanning = run ( false, iRounds );
+
+		System.out.println ( "regular expressions: " + ( lRegex / iRounds ) + " ns/target" );
+		System.out.println ( "index scanning:      " + ( lScanning / iRounds ) + " ns/target" );
+		System.out.println ( "(checksum " + iSink + ")" );
+	}
+
+}